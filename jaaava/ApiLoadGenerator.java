@@ -0,0 +1,250 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 各APIクライアントの処理を、決めた頻度で呼び続けて、処理量と応答時間の分布を測る負荷生成ツール。
+ * 送り先は必ず StubApiServer にする（--target の指定がなければ同じプロセスで起動する）ので、
+ * 本物のAPIには1件も送らず、ネットワークなしで動く。
+ * --replay を指定すると、スタブも使わずに HttpCassette の記録から応答を返す（通信の揺らぎを除いて、
+ * 解析と表示の処理だけを測れる）。そのカセットは --record を指定して実行すると作れる。
+ * 再生で同じ要求になるよう、シナリオの入力（ポケモンの番号や検索語）は乱数でなく決まった順に選ぶ。
+ * <p>
+ * 呼び出しは前の呼び出しの完了を待たずに一定間隔で始める（オープンループ）。応答時間は「始めるはずだった時刻」から測るので、
+ * 詰まって遅れた分も応答時間に含まれる。同時に実行中の呼び出しが上限に達していたら、その回は呼ばずに「間引き」として数える。
+ * クライアントが表示する結果やエラーは、計測中は捨てる（ステータスコードごとの件数は HttpMetrics の集計で確かめる）。
+ * 応答キャッシュは使わない（実際の利用で溜まったキャッシュから答えてしまうと、スタブまでの応答時間を測れないため）。
+ */
+public class ApiLoadGenerator {
+
+    private static final String LAT = "34.6937";
+    private static final String LON = "135.5023";
+    private static final String[] MUSCLES = {"biceps", "triceps", "chest", "lats", "quadriceps", "calves"};
+    private static final String[] TAXON_QUERIES = {"カエル", "タヌキ", "sakura", "ツバメ", "kingfisher", "メダカ"};
+    private static final int POKEMON_IDS = 25;
+
+    /**
+     * 1つのシナリオの結果（時間はミリ秒）
+     * @param sent 呼び出した回数
+     * @param failed 例外で終わった回数
+     * @param skipped 同時実行数の上限で呼ばなかった回数
+     * @param throughput 1秒あたりに完了した回数
+     */
+    public record Result(String name, int sent, long failed, long skipped, double throughput,
+                         double p50, double p90, double p99, double max) {}
+
+    private record Scenario(String name, Callable<?> call) {}
+
+    private final List<Scenario> scenarios = new ArrayList<>();
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    public ApiLoadGenerator() {
+        PokeApiClient poke = new PokeApiClient();
+        INaturalistSearchClient inaturalist = new INaturalistSearchClient();
+        ApiNinjasExercisesClient ninjas = new ApiNinjasExercisesClient();
+        RakutenRecipeApiExample rakuten = new RakutenRecipeApiExample("stub");
+        String longText = "Stand up straight with a dumbbell in each hand. ".repeat(12); // 500文字を超えると DeepL を使う
+        add("weatherapi", () -> WeatherAPIDemo.getWeatherApiDotCom(LAT, LON, "2024-01-01"));
+        add("open-meteo", () -> WeatherAPIDemo.getOpenMeteo(LAT, LON, "2024-01-01"));
+        add("visualcrossing", () -> WeatherAPIDemo.getVisualCrossingWeather(LAT, LON, "2024-01-01"));
+        add("tomorrow", () -> WeatherAPIDemo.getTomorrowIoWeather(LAT, LON));
+        scenarios.add(new Scenario("pokeapi", () -> {
+            var pokemon = poke.fetchPokemonById(1 + next(POKEMON_IDS)).orElseThrow(() -> new IOException("ポケモンを取得できませんでした"));
+            return poke.fetchPokemonSpecies(pokemon.species().url()).flatMap(PokeApiClient::findJapaneseName).orElseThrow();
+        }));
+        scenarios.add(new Scenario("inaturalist", () -> {
+            inaturalist.searchObservations("カエル");
+            return null;
+        }));
+        // 候補のキャッシュが効かないよう、呼び出しごとに新しいインスタンスを使う
+        scenarios.add(new Scenario("inaturalist-taxa", () -> new TaxonAutocomplete().suggest(pick(TAXON_QUERIES)).get(60, TimeUnit.SECONDS)));
+        scenarios.add(new Scenario("apininjas", () -> ninjas.fetchExercisesByMuscle(pick(MUSCLES))));
+        scenarios.add(new Scenario("mymemory", () -> ninjas.translateText("Stand up straight.").orElseThrow()));
+        scenarios.add(new Scenario("deepl", () -> ninjas.translateText(longText).orElseThrow()));
+        add("rakuten-ranking", () -> rakuten.getRecipeRanking("10-160", "中カテゴリ160"));
+        scenarios.add(new Scenario("rakuten-categories", rakuten::getCategoryData));
+    }
+
+    private void add(String name, Runnable call) {
+        scenarios.add(new Scenario(name, () -> {
+            call.run();
+            return null;
+        }));
+    }
+
+    private String pick(String[] values) {
+        return values[next(values.length)];
+    }
+
+    // 0 から count-1 までを順に繰り返す
+    private int next(int count) {
+        return Math.floorMod(sequence.getAndIncrement(), count);
+    }
+
+    /** シナリオの名前 */
+    public List<String> scenarioNames() {
+        return scenarios.stream().map(Scenario::name).toList();
+    }
+
+    /**
+     * シナリオを1つ実行する
+     * @param name シナリオの名前
+     * @param ratePerSecond 1秒あたりの呼び出し回数
+     * @param duration 実行する時間
+     * @param maxInFlight 同時に実行中にしておく呼び出しの上限
+     */
+    public Result run(String name, double ratePerSecond, Duration duration, int maxInFlight) throws InterruptedException {
+        Scenario scenario = scenarios.stream().filter(s -> s.name().equals(name)).findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("シナリオがありません: " + name));
+        int total = (int) Math.max(1, Math.round(ratePerSecond * duration.toMillis() / 1000.0));
+        long intervalNanos = (long) (1_000_000_000L / ratePerSecond);
+        long[] latencies = new long[total];
+        AtomicInteger finished = new AtomicInteger();
+        LongAdder failed = new LongAdder();
+        long skipped = 0;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        ExecutorService executor = SharedHttpClient.newIoExecutor("load-generator");
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            long intended = start + i * intervalNanos;
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            if (!inFlight.tryAcquire()) {
+                skipped++;
+                continue;
+            }
+            executor.execute(() -> {
+                try {
+                    scenario.call().call();
+                } catch (Exception e) {
+                    failed.increment();
+                } finally {
+                    latencies[finished.getAndIncrement()] = System.nanoTime() - intended;
+                    inFlight.release();
+                }
+            });
+        }
+        inFlight.acquire(maxInFlight); // 実行中の呼び出しがすべて終わるのを待つ
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+        int completed = finished.get();
+        long[] sorted = Arrays.copyOf(latencies, completed);
+        Arrays.sort(sorted);
+        return new Result(name, total, failed.sum(), skipped, (completed - failed.sum()) / elapsedSeconds,
+                percentileMillis(sorted, 0.50), percentileMillis(sorted, 0.90), percentileMillis(sorted, 0.99),
+                percentileMillis(sorted, 1.0));
+    }
+
+    private static double percentileMillis(long[] sorted, double quantile) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.min(sorted.length - 1, Math.max(0, Math.ceil(quantile * sorted.length) - 1));
+        return sorted[index] / 1e6;
+    }
+
+    /**
+     * 使い方: java ApiLoadGenerator [--scenarios 名前,名前,...|all] [--rate 1秒あたりの回数] [--duration 秒]
+     *                              [--max-in-flight 数] [--target スタブのURL]
+     *                              [--fixtures ディレクトリ] [--latency ミリ秒] [--jitter ミリ秒]
+     *                              [--error-rate 0〜1] [--error-status 503] [--drop-rate 0〜1]
+     *                              [--record カセット|--replay カセット]
+     * --target がなければ、StubApiServer を同じプロセスで起動する（障害の注入のオプションはそのスタブに渡す）。
+     * --record ではスタブ（または --target）の応答をカセットに保存し、--replay ではスタブなしでカセットから応答を返す。
+     */
+    public static void main(String[] args) {
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        StubApiServer stub = null;
+        HttpCassette cassette = null;
+        try {
+            Map<String, String> options = StubApiServer.parseOptions(args);
+            double rate = Double.parseDouble(options.getOrDefault("rate", "10"));
+            Duration duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "5")));
+            int maxInFlight = Integer.parseInt(options.getOrDefault("max-in-flight", "64"));
+            String target = options.get("target");
+            String replay = options.get("replay");
+            if (replay != null) {
+                cassette = HttpCassette.open(Paths.get(replay), HttpCassette.Mode.REPLAY);
+                SharedHttpClient.useCassette(cassette);
+                out.println("カセットから再生します: " + replay + "（" + cassette.size() + "件）");
+            } else if (target == null) {
+                stub = new StubApiServer(0, Paths.get(options.getOrDefault("fixtures", ".")), StubApiServer.faults(options));
+                stub.start();
+                target = stub.baseUrl();
+                out.println("スタブサーバーを起動しました: " + target + "（フィクスチャのファイル: " + stub.fixtureNames() + "）");
+            }
+            if (replay == null) {
+                SharedHttpClient.setRedirect(target); // 本物のAPIには送らない
+                SharedHttpClient.setCacheEnabled(false); // 手元のキャッシュ（~/.po_modify/http-cache）で答えず、毎回スタブに送る
+                if (options.containsKey("record")) {
+                    cassette = HttpCassette.open(Paths.get(options.get("record")), HttpCassette.Mode.RECORD);
+                    SharedHttpClient.useCassette(cassette);
+                }
+            }
+
+            ApiLoadGenerator generator = new ApiLoadGenerator();
+            String selected = options.getOrDefault("scenarios", "all");
+            List<String> names = selected.equals("all") ? generator.scenarioNames() : List.of(selected.split(","));
+            out.printf("%d件/秒で各%d秒ずつ実行します（同時実行の上限 %d）%n%n", (int) rate, duration.toSeconds(), maxInFlight);
+            out.printf("%-20s %6s %6s %6s %9s %9s %9s %9s %9s%n",
+                    "シナリオ", "呼出", "失敗", "間引き", "完了/秒", "p50ms", "p90ms", "p99ms", "最大ms");
+
+            PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+            for (String name : names) {
+                System.setOut(quiet); // クライアントの表示を捨てる
+                System.setErr(quiet);
+                Result r;
+                try {
+                    r = generator.run(name.trim(), rate, duration, maxInFlight);
+                } finally {
+                    System.setOut(out);
+                    System.setErr(err);
+                }
+                out.printf("%-20s %6d %6d %6d %9.1f %9.2f %9.2f %9.2f %9.2f%n", r.name(), r.sent(), r.failed(), r.skipped(),
+                        r.throughput(), r.p50(), r.p90(), r.p99(), r.max());
+            }
+
+            out.println("\n--- 送信先ごとの集計（HttpMetrics） ---");
+            for (HttpMetrics.Endpoint e : HttpMetrics.endpoints()) {
+                out.printf("%-30s %-45s %6d件 p99 %8.2fms ステータス %s 通信エラー %d 再生 %d%n", e.getHost(), e.getPath(),
+                        e.getCount(), e.getP99Millis(), e.getStatusCounts(), e.getErrors(), e.getReplays());
+            }
+            if (stub != null) {
+                out.println("\nスタブが注入したエラー: " + stub.injectedErrors() + ", 切断: " + stub.droppedConnections()
+                        + ", 該当なし: " + stub.unknownRequests());
+            }
+            if (cassette != null) {
+                out.println("カセット: 録音 " + cassette.recorded() + "件, 再生 " + cassette.replayed() + "件, 記録なし "
+                        + cassette.missed() + "件");
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            err.println("負荷試験を実行できませんでした: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (stub != null) stub.stop();
+            if (cassette != null) {
+                SharedHttpClient.useCassette(null);
+                try {
+                    cassette.close();
+                } catch (IOException e) {
+                    err.println("カセットを閉じられませんでした: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -5,7 +5,6 @@ import java.io.IOException;
 import java.lang.reflect.Type;
 import java.net.URI;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
@@ -14,6 +13,13 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Scanner;
 import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutionException;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
@@ -53,6 +59,21 @@ public class ApiNinjasExercisesClient {
         MUSCLE_MAP.put("上腕三頭筋", "triceps");
     }
 
+    // 難易度（日本語キー、英語バリュー）
+    private static final Map<String, String> DIFFICULTY_MAP = new LinkedHashMap<>();
+    static {
+        DIFFICULTY_MAP.put("初級", "beginner");
+        DIFFICULTY_MAP.put("中級", "intermediate");
+        DIFFICULTY_MAP.put("上級", "expert");
+    }
+
+    // 一括取得時の設定: APIは1回のリクエストで最大この件数を返し、offsetで続きを取得する
+    private static final int PAGE_SIZE = 10;
+    // 念のためのページ数上限（APIの仕様変更などで無限ループにならないように）
+    private static final int MAX_PAGES_PER_MUSCLE = 50;
+    // 同時に問い合わせる筋肉の数
+    private static final int PREFETCH_CONCURRENCY = 4;
+
     // 表示用に筋肉を部位ごとにカテゴリ分けしたMap
     private static final Map<String, List<String>> CATEGORIZED_MUSCLES = new LinkedHashMap<>();
     static {
@@ -83,8 +104,10 @@ public class ApiNinjasExercisesClient {
     public record ResponseData(String translatedText) {}
 
     // クラスのフィールドとしてクライアントとパーサーを保持
-    private final HttpClient client = HttpClient.newHttpClient();
     private final Gson gson = new Gson();
+    // 一括取得したエクササイズのローカルインデックス（未取得ならnull）。更新時は丸ごと差し替える
+    private volatile ExerciseIndex exerciseIndex;
+    private ScheduledExecutorService refreshScheduler;
 
     /**
      * 指定された筋肉名でエクササイズを検索する
@@ -92,8 +115,40 @@ public class ApiNinjasExercisesClient {
      * @return エクササイズのリスト
      */
     public List<Exercise> fetchExercisesByMuscle(String muscle) throws IOException, InterruptedException {
+        return fetchExercisesByMuscle(muscle, 0);
+    }
+
+    /**
+     * 指定された筋肉名でエクササイズを検索する（offset指定でページ送り）
+     * @param muscle 検索する筋肉名 (例: "biceps")
+     * @param offset 取得開始位置
+     * @return エクササイズのリスト
+     */
+    public List<Exercise> fetchExercisesByMuscle(String muscle, int offset) throws IOException, InterruptedException {
+        HttpResponse<String> response = sendExercisesRequest(muscle, offset);
+
+        if (response.statusCode() == 200) {
+            return parseExercises(response.body());
+        } else {
+            System.err.println("APIからのエラー応答: " + response.statusCode());
+            System.err.println("エラー内容: " + response.body());
+            return List.of(); // 空のリストを返す
+        }
+    }
+
+    // 一括取得用の1ページ分。エラー応答を「最後のページ」と取り違えないよう、200以外は例外にする
+    private List<Exercise> fetchPage(String muscle, int offset) throws IOException, InterruptedException {
+        HttpResponse<String> response = sendExercisesRequest(muscle, offset);
+        if (response.statusCode() != 200) {
+            throw new IOException("エクササイズを取得できませんでした（" + muscle + ", offset " + offset
+                    + "）。ステータスコード: " + response.statusCode());
+        }
+        return parseExercises(response.body());
+    }
+
+    private HttpResponse<String> sendExercisesRequest(String muscle, int offset) throws IOException, InterruptedException {
         String encodedMuscle = URLEncoder.encode(muscle, StandardCharsets.UTF_8);
-        String requestUrl = API_URL + "?muscle=" + encodedMuscle;
+        String requestUrl = API_URL + "?muscle=" + encodedMuscle + (offset > 0 ? "&offset=" + offset : "");
 
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(requestUrl))
@@ -101,18 +156,89 @@ public class ApiNinjasExercisesClient {
                 .GET()
                 .build();
 
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        return SharedHttpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
 
-        if (response.statusCode() == 200) {
-            Type exerciseListType = new TypeToken<List<Exercise>>() {}.getType();
-            return gson.fromJson(response.body(), exerciseListType);
-        } else {
-            System.err.println("APIからのエラー応答: " + response.statusCode());
-            System.err.println("エラー内容: " + response.body());
-            return List.of(); // 空のリストを返す
+    private List<Exercise> parseExercises(String body) {
+        Type exerciseListType = new TypeToken<List<Exercise>>() {}.getType();
+        List<Exercise> exercises = gson.fromJson(body, exerciseListType);
+        return exercises != null ? exercises : List.of();
+    }
+
+    /**
+     * MUSCLE_MAPの全筋肉のエクササイズを並行して取得し、ローカルインデックスを構築する。
+     * 筋肉ごとにoffsetでページを送り、返ってきた件数がPAGE_SIZE未満になったら終了する。
+     * どれかのページがエラー応答なら IOException にし、インデックスは差し替えない（一部が欠けたインデックスを作らない）。
+     * @return 構築したインデックス（このインスタンスのインデックスも差し替えられる）
+     */
+    public ExerciseIndex prefetchAllExercises() throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(PREFETCH_CONCURRENCY);
+        try {
+            List<Future<List<Exercise>>> futures = new ArrayList<>();
+            for (String muscle : MUSCLE_MAP.values()) {
+                futures.add(executor.submit(() -> fetchAllPages(muscle)));
+            }
+            List<Exercise> all = new ArrayList<>();
+            for (Future<List<Exercise>> future : futures) {
+                try {
+                    all.addAll(future.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) throw (IOException) cause;
+                    if (cause instanceof InterruptedException) throw (InterruptedException) cause;
+                    throw new IOException("エクササイズの一括取得に失敗しました。", cause);
+                }
+            }
+            ExerciseIndex index = ExerciseIndex.build(all);
+            exerciseIndex = index;
+            return index;
+        } finally {
+            executor.shutdownNow();
         }
     }
 
+    // 1つの筋肉について、結果が尽きるまでページを送って取得する
+    private List<Exercise> fetchAllPages(String muscle) throws IOException, InterruptedException {
+        List<Exercise> result = new ArrayList<>();
+        for (int page = 0; page < MAX_PAGES_PER_MUSCLE; page++) {
+            List<Exercise> exercises = fetchPage(muscle, page * PAGE_SIZE);
+            result.addAll(exercises);
+            if (exercises.size() < PAGE_SIZE) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 一定間隔でバックグラウンドにインデックスを再取得する。失敗した場合は古いインデックスを使い続ける。
+     * @param intervalMinutes 更新間隔（分）
+     */
+    public synchronized void startBackgroundRefresh(long intervalMinutes) {
+        if (refreshScheduler != null) return;
+        refreshScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "exercise-index-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        refreshScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                prefetchAllExercises();
+            } catch (IOException e) {
+                System.err.println("エクササイズの再取得に失敗しました: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 一括取得済みのインデックスを返す。未取得の場合はnull。
+     */
+    public ExerciseIndex getExerciseIndex() {
+        return exerciseIndex;
+    }
+
     /**
      * テキストを英語から日本語へ翻訳する（MyMemory: 500文字以下、DeepL: 500文字超）
      */
@@ -126,7 +252,7 @@ public class ApiNinjasExercisesClient {
                     .uri(URI.create(requestUrl))
                     .GET()
                     .build();
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = SharedHttpClient.send(request, HttpResponse.BodyHandlers.ofString());
             if (response.statusCode() == 200) {
                 try {
                     MyMemoryResponse translated = gson.fromJson(response.body(), MyMemoryResponse.class);
@@ -165,7 +291,7 @@ public class ApiNinjasExercisesClient {
                 .header("Content-Type", "application/x-www-form-urlencoded")
                 .POST(HttpRequest.BodyPublishers.ofString(requestBody))
                 .build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = SharedHttpClient.send(request, HttpResponse.BodyHandlers.ofString());
         if (response.statusCode() == 200) {
             try {
                 JsonObject obj = gson.fromJson(response.body(), JsonObject.class);
@@ -194,13 +320,17 @@ public class ApiNinjasExercisesClient {
                 System.out.println("\n" + entry.getKey());
                 System.out.println("  " + String.join("、", entry.getValue()));
             }
-            System.out.print("\n\n上記の中から検索したい筋肉名を入力してください (日本語で): ");
+            System.out.print("\n\n上記の中から検索したい筋肉名を入力してください (日本語で、「一括」で条件検索): ");
             String muscleToSearchJa = scanner.nextLine().trim();
 
             if (muscleToSearchJa.isEmpty()) {
                 System.out.println("筋肉名が入力されていません。");
                 return;
             }
+            if (muscleToSearchJa.equals("一括")) {
+                runIndexedSearch(scanner);
+                return;
+            }
             // 入力された日本語名から対応する英語名を取得
             String muscleToSearchEn = MUSCLE_MAP.get(muscleToSearchJa);
 
@@ -238,6 +368,52 @@ public class ApiNinjasExercisesClient {
         }
     }
 
+    /**
+     * 全エクササイズを一括取得し、複数条件での検索をローカルで繰り返し行う
+     */
+    private void runIndexedSearch(Scanner scanner) throws IOException, InterruptedException {
+        System.out.println("\n全筋肉のエクササイズを一括取得中...");
+        long start = System.nanoTime();
+        ExerciseIndex index = prefetchAllExercises();
+        System.out.printf("%d件を取得しました (%.1f秒)%n", index.size(), (System.nanoTime() - start) / 1e9);
+        startBackgroundRefresh(60);
+
+        while (true) {
+            System.out.println("\n--- 条件検索 (空欄は指定なし、筋肉名に q で終了) ---");
+            System.out.print("筋肉名 (日本語): ");
+            String muscleJa = scanner.nextLine().trim();
+            if (muscleJa.equalsIgnoreCase("q")) {
+                return;
+            }
+            String muscle = muscleJa.isEmpty() ? null : MUSCLE_MAP.get(muscleJa);
+            if (!muscleJa.isEmpty() && muscle == null) {
+                System.out.println("エラー: 入力された筋肉名はリストに存在しません。");
+                continue;
+            }
+            System.out.print("難易度 (" + String.join("/", DIFFICULTY_MAP.keySet()) + "): ");
+            String difficultyJa = scanner.nextLine().trim();
+            String difficulty = DIFFICULTY_MAP.getOrDefault(difficultyJa, difficultyJa);
+            System.out.print("器具 (「なし」で器具不要, 例: " + String.join(", ", getExerciseIndex().equipmentValues()) + "): ");
+            String equipment = scanner.nextLine().trim();
+            if (equipment.equals("なし")) {
+                equipment = "body_only";
+            }
+            System.out.print("名前のキーワード (英語): ");
+            String keyword = scanner.nextLine().trim();
+
+            long queryStart = System.nanoTime();
+            List<Exercise> matches = getExerciseIndex().query(
+                    new ExerciseIndex.Criteria(muscle, equipment, difficulty, null, keyword));
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - queryStart);
+
+            System.out.printf("%n%d件見つかりました (%dマイクロ秒)%n", matches.size(), micros);
+            for (int i = 0; i < matches.size(); i++) {
+                Exercise ex = matches.get(i);
+                System.out.printf("%d. %s [%s / %s / %s]%n", (i + 1), ex.name(), ex.muscle(), ex.difficulty(), ex.equipment());
+            }
+        }
+    }
+
     public static void main(String[] args) {
         // APIキーが設定されているかチェック
         if (NINJAS_API_KEY == null || NINJAS_API_KEY.isEmpty() || DEEPL_API_KEY == null || DEEPL_API_KEY.isEmpty()) {
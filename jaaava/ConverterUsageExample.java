@@ -4,7 +4,6 @@ import com.google.gson.annotations.SerializedName;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
@@ -14,7 +13,6 @@ public class ConverterUsageExample {
 
     // --- API関連の定数とクラスフィールド ---
     private static final String TRANSLATE_API_URL = "https://api.mymemory.translated.net/get";
-    private static final HttpClient client = HttpClient.newHttpClient();
     private static final Gson gson = new Gson();
 
     // --- MyMemory APIのレスポンスをマッピングするためのデータクラス ---
@@ -35,7 +33,7 @@ public class ConverterUsageExample {
         String requestUrl = String.format("%s?q=%s&langpair=ja%%7Cen", TRANSLATE_API_URL, encodedText);
 
         HttpRequest request = HttpRequest.newBuilder().uri(URI.create(requestUrl)).GET().build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = SharedHttpClient.send(request, HttpResponse.BodyHandlers.ofString());
 
         if (response.statusCode() != 200) {
             System.err.printf("翻訳APIリクエスト失敗: Status=%d, Body=%s%n", response.statusCode(), response.body());
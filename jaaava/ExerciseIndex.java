@@ -0,0 +1,127 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * API Ninjasのエクササイズ一覧をまとめて保持するローカル転置インデックス。
+ * 筋肉・器具・難易度・種類・名前の単語ごとに、該当するエクササイズ番号の集合(BitSet)を持つ。
+ * 構築後は変更しない（更新時は新しいインデックスを作って差し替える）ので、複数スレッドから安全に参照できる。
+ */
+public class ExerciseIndex {
+
+    /**
+     * 検索条件。nullや空文字の項目は「指定なし」として扱う。
+     * @param muscle 筋肉名 (例: "chest")
+     * @param equipment 器具 (例: "body_only")
+     * @param difficulty 難易度 (例: "beginner")
+     * @param type 種類 (例: "strength")
+     * @param keyword 名前に含まれる単語（空白区切りで複数指定するとAND検索）
+     */
+    public record Criteria(String muscle, String equipment, String difficulty, String type, String keyword) {}
+
+    private final List<ApiNinjasExercisesClient.Exercise> exercises;
+    private final Map<String, BitSet> byMuscle = new HashMap<>();
+    private final Map<String, BitSet> byEquipment = new HashMap<>();
+    private final Map<String, BitSet> byDifficulty = new HashMap<>();
+    private final Map<String, BitSet> byType = new HashMap<>();
+    private final Map<String, BitSet> byNameToken = new HashMap<>();
+
+    private ExerciseIndex(List<ApiNinjasExercisesClient.Exercise> exercises) {
+        this.exercises = exercises;
+        for (int i = 0; i < exercises.size(); i++) {
+            ApiNinjasExercisesClient.Exercise ex = exercises.get(i);
+            add(byMuscle, ex.muscle(), i);
+            add(byEquipment, ex.equipment(), i);
+            add(byDifficulty, ex.difficulty(), i);
+            add(byType, ex.type(), i);
+            for (String token : tokenize(ex.name())) {
+                add(byNameToken, token, i);
+            }
+        }
+    }
+
+    /**
+     * エクササイズの集合からインデックスを構築する。名前と筋肉が同じものは1件にまとめる。
+     * @param source 取得済みのエクササイズ
+     * @return 構築したインデックス
+     */
+    public static ExerciseIndex build(Collection<ApiNinjasExercisesClient.Exercise> source) {
+        Map<String, ApiNinjasExercisesClient.Exercise> unique = new LinkedHashMap<>();
+        for (ApiNinjasExercisesClient.Exercise ex : source) {
+            if (ex == null || ex.name() == null) continue;
+            unique.putIfAbsent(normalize(ex.name()) + "\u0000" + normalize(ex.muscle()), ex);
+        }
+        return new ExerciseIndex(List.copyOf(unique.values()));
+    }
+
+    /**
+     * 条件に一致するエクササイズを返す。各条件のBitSetの積を取るだけなのでネットワークアクセスは発生しない。
+     * @param criteria 検索条件
+     * @return 一致したエクササイズのリスト（インデックス登録順）
+     */
+    public List<ApiNinjasExercisesClient.Exercise> query(Criteria criteria) {
+        BitSet result = new BitSet(exercises.size());
+        result.set(0, exercises.size());
+        if (!narrow(result, byMuscle, criteria.muscle())
+                || !narrow(result, byEquipment, criteria.equipment())
+                || !narrow(result, byDifficulty, criteria.difficulty())
+                || !narrow(result, byType, criteria.type())) {
+            return List.of();
+        }
+        if (criteria.keyword() != null) {
+            for (String token : tokenize(criteria.keyword())) {
+                if (!narrow(result, byNameToken, token)) {
+                    return List.of();
+                }
+            }
+        }
+        List<ApiNinjasExercisesClient.Exercise> matches = new ArrayList<>(result.cardinality());
+        for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+            matches.add(exercises.get(i));
+        }
+        return matches;
+    }
+
+    /** インデックスに登録されているエクササイズの件数 */
+    public int size() {
+        return exercises.size();
+    }
+
+    /** インデックスに登録されている器具の一覧 */
+    public Collection<String> equipmentValues() {
+        return Collections.unmodifiableSet(byEquipment.keySet());
+    }
+
+    // 条件が指定されていればresultを絞り込む。一致するものが無くなった場合はfalseを返す
+    private static boolean narrow(BitSet result, Map<String, BitSet> index, String value) {
+        if (value == null || value.isBlank()) return true;
+        BitSet hits = index.get(normalize(value));
+        if (hits == null) return false;
+        result.and(hits);
+        return !result.isEmpty();
+    }
+
+    private static void add(Map<String, BitSet> index, String value, int position) {
+        if (value == null || value.isBlank()) return;
+        index.computeIfAbsent(normalize(value), k -> new BitSet()).set(position);
+    }
+
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) return tokens;
+        for (String token : normalize(text).split("[^a-z0-9]+")) {
+            if (!token.isEmpty()) tokens.add(token);
+        }
+        return tokens;
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+}
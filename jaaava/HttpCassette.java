@@ -0,0 +1,474 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * HTTPの要求と応答の組を記録し（録音）、あとでネットワークなしで同じ応答を返す（再生）ためのカセット。
+ * SharedHttpClient の send/sendAsync に組み込まれているので、どのクライアントも変更なしで使える。
+ * <ul>
+ *   <li>録音: 実際に通信し、受け取った応答をカセットのファイルに追記する（同じ要求は後の記録が優先）</li>
+ *   <li>再生: 記録済みの応答をメモリ上の HashMap から O(1) で返す。記録がない要求はネットワークに出ずに IOException にする</li>
+ * </ul>
+ * 要求は「メソッド、URL（クエリのパラメータは名前順）、フォームの本文」に正規化して見分ける。
+ * このとき APIキーにあたるパラメータ（key, apikey, applicationId, auth_key など）は取り除くので、
+ * キーはカセットに残らず、キーが変わっても同じ記録が使える。ヘッダーは見分けるのに使わず、要求のヘッダーは保存しない。
+ * <p>
+ * システムプロパティ po_modify.http.cassette.mode（record または replay）と po_modify.http.cassette（ファイル。
+ * 既定は ~/.po_modify/cassettes/default.cassette）を指定すると、起動時からそのカセットを使う。
+ * <p>
+ * ファイル形式: "HCAS" 形式バージョン(int)、続けて記録を追記していく。
+ * 記録1件は 長さ(int) 圧縮の有無(byte) 内容。内容（圧縮していれば展開したもの）は
+ * 要求のキー、ステータス(int)、ヘッダー数(int) (名前 値)...、本文の長さ(int) 本文。
+ * 書き込み途中で終了していた場合は、次に開いたときに最後の不完全な記録を切り捨てる。
+ */
+public class HttpCassette implements Closeable {
+
+    public enum Mode { RECORD, REPLAY }
+
+    public static final Path DEFAULT_FILE = Paths.get(System.getProperty("user.home"), ".po_modify", "cassettes", "default.cassette");
+    private static final int FILE_MAGIC = 0x48434153; // "HCAS"
+    private static final int FILE_VERSION = 1;
+    private static final int FILE_HEADER_BYTES = 8;
+    // これより大きい本文は録音しない
+    private static final int MAX_BODY_BYTES = 32 * 1024 * 1024;
+    // 圧縮しても小さくならない短い記録は、そのまま書く
+    private static final int COMPRESS_MIN_BYTES = 256;
+    // 要求のキーから取り除くパラメータ（小文字で比べる）
+    private static final Set<String> SECRET_PARAMS = Set.of("key", "apikey", "api_key", "applicationid", "appid",
+            "auth_key", "access_token", "token", "client_secret");
+    // 再生に不要な応答のヘッダー
+    private static final Set<String> SKIPPED_HEADERS = Set.of("connection", "keep-alive", "transfer-encoding",
+            "content-length", "set-cookie", "date");
+
+    // 記録した応答1件
+    private record Recorded(int statusCode, HttpHeaders headers, byte[] body) {}
+
+    private final Path file;
+    private final Mode mode;
+    private final Map<String, Recorded> index = new ConcurrentHashMap<>();
+    private DataOutputStream log;
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder missed = new LongAdder();
+    private final LongAdder recorded = new LongAdder();
+
+    private HttpCassette(Path file, Mode mode) {
+        this.file = file;
+        this.mode = mode;
+    }
+
+    /**
+     * カセットを開く。ファイルがあれば記録をすべて読み込む（録音では続きに追記する）。
+     * 再生でファイルがなければ、何も記録されていないカセットになる（すべての要求が失敗する）。
+     * @param file カセットのファイル
+     * @param mode 録音か再生か
+     */
+    public static HttpCassette open(Path file, Mode mode) throws IOException {
+        HttpCassette cassette = new HttpCassette(file, mode);
+        if (Files.isRegularFile(file)) {
+            cassette.readLog();
+        }
+        return cassette;
+    }
+
+    /**
+     * システムプロパティで指定されたカセット（指定がなければ null）。
+     * 再生を指定されて開けなかった場合も、ネットワークに出ないよう空の再生用カセットを返す。
+     */
+    static HttpCassette fromSystemProperties() {
+        String modeName = System.getProperty("po_modify.http.cassette.mode");
+        if (modeName == null || modeName.isBlank() || modeName.equalsIgnoreCase("off")) {
+            return null;
+        }
+        String fileName = System.getProperty("po_modify.http.cassette");
+        Path path = fileName != null ? Paths.get(fileName) : DEFAULT_FILE;
+        Mode mode;
+        try {
+            mode = Mode.valueOf(modeName.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("po_modify.http.cassette.mode は record か replay を指定してください: " + modeName);
+            return null;
+        }
+        try {
+            return open(path, mode);
+        } catch (IOException e) {
+            System.err.println("カセットを開けませんでした: " + e.getMessage());
+            return mode == Mode.REPLAY ? new HttpCassette(path, mode) : null;
+        }
+    }
+
+    /** 録音か再生か */
+    public Mode mode() {
+        return mode;
+    }
+
+    /** 記録されている要求の種類の数 */
+    public int size() {
+        return index.size();
+    }
+
+    /** 再生した回数 */
+    public long replayed() {
+        return replayed.sum();
+    }
+
+    /** 再生しようとして記録がなかった回数 */
+    public long missed() {
+        return missed.sum();
+    }
+
+    /** 今回録音した回数 */
+    public long recorded() {
+        return recorded.sum();
+    }
+
+    /**
+     * 記録済みの応答を返す（ネットワークには出ない）
+     * @throws IOException 要求が記録されていない場合
+     */
+    public <T> HttpResponse<T> replay(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        String key = key(request);
+        Recorded entry = index.get(key);
+        if (entry == null) {
+            missed.increment();
+            throw new IOException("カセットに記録がない要求です: " + key);
+        }
+        replayed.increment();
+        return HttpResponseCache.responseFrom(request, entry.statusCode(), entry.headers(), entry.body(), handler);
+    }
+
+    /**
+     * 呼び出し側の BodyHandler を包み、受け取った応答を最後まで読めたらカセットに追記する
+     */
+    public <T> HttpResponse.BodyHandler<T> recording(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        String key = key(request);
+        return info -> {
+            HttpResponse.BodySubscriber<T> downstream = handler.apply(info);
+            int status = info.statusCode();
+            HttpHeaders headers = storedHeaders(info.headers());
+            return new HttpResponseCache.TeeSubscriber<>(downstream, MAX_BODY_BYTES, body -> {
+                try {
+                    append(key, new Recorded(status, headers, body));
+                } catch (IOException e) {
+                    System.err.println("カセットに書き込めませんでした: " + e.getMessage());
+                }
+            });
+        };
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+
+    // --- 要求の正規化 ---
+
+    /**
+     * 要求を見分けるキー（APIキーのパラメータを除き、パラメータを名前順に並べる）
+     * 例: "GET https://api.weatherapi.com/v1/history.json?dt=2024-01-01&lang=ja&q=34.6937,135.5023"
+     */
+    static String key(HttpRequest request) {
+        URI uri = request.uri();
+        StringBuilder key = new StringBuilder(128);
+        key.append(request.method()).append(' ').append(uri.getScheme().toLowerCase(Locale.ROOT)).append("://")
+                .append(uri.getHost().toLowerCase(Locale.ROOT));
+        if (uri.getPort() >= 0) {
+            key.append(':').append(uri.getPort());
+        }
+        key.append(uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath());
+        String query = normalizeForm(uri.getRawQuery());
+        if (!query.isEmpty()) {
+            key.append('?').append(query);
+        }
+        byte[] body = requestBody(request);
+        if (body.length > 0) {
+            String contentType = request.headers().firstValue("Content-Type").orElse("");
+            key.append('\n').append(contentType.startsWith("application/x-www-form-urlencoded")
+                    ? normalizeForm(new String(body, StandardCharsets.UTF_8))
+                    : "sha256:" + sha256(body));
+        }
+        return key.toString();
+    }
+
+    // "a=1&b=2" 形式のパラメータから APIキーを除き、名前順に並べる（値はデコードして比べやすくする）
+    private static String normalizeForm(String form) {
+        if (form == null || form.isEmpty()) return "";
+        List<String> pairs = new ArrayList<>();
+        for (String pair : form.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq >= 0 ? pair.substring(0, eq) : pair, StandardCharsets.UTF_8);
+            if (SECRET_PARAMS.contains(name.toLowerCase(Locale.ROOT))) continue;
+            String value = eq >= 0 ? URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8) : "";
+            pairs.add(name + "=" + value);
+        }
+        Collections.sort(pairs);
+        return String.join("&", pairs);
+    }
+
+    // 要求の本文（BodyPublisher を購読して集める。GET などの本文なしは空）
+    private static byte[] requestBody(HttpRequest request) {
+        HttpRequest.BodyPublisher publisher = request.bodyPublisher().orElse(null);
+        if (publisher == null || publisher.contentLength() == 0) {
+            return new byte[0];
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        publisher.subscribe(new Flow.Subscriber<ByteBuffer>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                byte[] chunk = new byte[item.remaining()];
+                item.get(chunk);
+                synchronized (bytes) {
+                    bytes.write(chunk, 0, chunk.length);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                done.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(null);
+            }
+        });
+        try {
+            done.get(10, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException("要求の本文を読めませんでした", e);
+        }
+        synchronized (bytes) {
+            return bytes.toByteArray();
+        }
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256が利用できません。", e);
+        }
+    }
+
+    private static HttpHeaders storedHeaders(HttpHeaders headers) {
+        Map<String, List<String>> result = new TreeMap<>();
+        headers.map().forEach((name, values) -> {
+            String lower = name.toLowerCase(Locale.ROOT);
+            if (!lower.startsWith(":") && !SKIPPED_HEADERS.contains(lower)) {
+                result.put(lower, List.copyOf(values));
+            }
+        });
+        return HttpHeaders.of(result, (name, value) -> true);
+    }
+
+    // --- ファイル ---
+
+    private void readLog() throws IOException {
+        if (Files.size(file) < FILE_HEADER_BYTES) {
+            return; // ヘッダーを書く前に終了していた。録音なら最初に書き直す
+        }
+        long validBytes;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                throw new IOException("カセットのファイルの形式が違います: " + file);
+            }
+            validBytes = FILE_HEADER_BYTES;
+            while (true) {
+                byte[] record;
+                try {
+                    int length = in.readInt();
+                    if (length < 1) break;
+                    record = new byte[length];
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    decode(record);
+                } catch (IOException | DataFormatException e) {
+                    break; // 壊れた記録から後ろは使わない
+                }
+                validBytes += 4 + record.length;
+            }
+        }
+        if (validBytes < Files.size(file) && mode == Mode.RECORD) {
+            System.err.println("カセットの末尾に不完全な記録があったため切り捨てました: " + file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(validBytes);
+            }
+        }
+    }
+
+    private void decode(byte[] record) throws IOException, DataFormatException {
+        byte[] content = record[0] == 1 ? inflate(record, 1) : Arrays.copyOfRange(record, 1, record.length);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+        String key = readString(in);
+        int status = in.readInt();
+        int headerCount = in.readInt();
+        Map<String, List<String>> headers = new TreeMap<>();
+        for (int i = 0; i < headerCount; i++) {
+            String name = readString(in);
+            headers.computeIfAbsent(name, k -> new ArrayList<>()).add(readString(in));
+        }
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        index.put(key, new Recorded(status, HttpHeaders.of(headers, (name, value) -> true), body));
+    }
+
+    private synchronized void append(String key, Recorded entry) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream(entry.body().length + 256);
+        DataOutputStream out = new DataOutputStream(content);
+        writeString(out, key);
+        out.writeInt(entry.statusCode());
+        int headerCount = 0;
+        for (List<String> values : entry.headers().map().values()) headerCount += values.size();
+        out.writeInt(headerCount);
+        for (Map.Entry<String, List<String>> header : entry.headers().map().entrySet()) {
+            for (String value : header.getValue()) {
+                writeString(out, header.getKey());
+                writeString(out, value);
+            }
+        }
+        out.writeInt(entry.body().length);
+        out.write(entry.body());
+        byte[] raw = content.toByteArray();
+        byte[] compressed = raw.length >= COMPRESS_MIN_BYTES ? deflate(raw) : null;
+        boolean useCompressed = compressed != null && compressed.length < raw.length;
+        byte[] payload = useCompressed ? compressed : raw;
+
+        if (log == null) {
+            if (file.toAbsolutePath().getParent() != null) {
+                Files.createDirectories(file.toAbsolutePath().getParent());
+            }
+            boolean fresh = !Files.isRegularFile(file) || Files.size(file) < FILE_HEADER_BYTES;
+            OutputStream stream = fresh
+                    ? Files.newOutputStream(file)
+                    : Files.newOutputStream(file, StandardOpenOption.APPEND);
+            log = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            if (fresh) {
+                log.writeInt(FILE_MAGIC);
+                log.writeInt(FILE_VERSION);
+            }
+        }
+        log.writeInt(payload.length + 1);
+        log.writeByte(useCompressed ? 1 : 0);
+        log.write(payload);
+        log.flush(); // 途中で終了しても、それまでの記録は残す
+        index.put(key, entry);
+        recorded.increment();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int offset) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset, data.length - offset);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("圧縮された記録が途中で終わっています");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 使い方: java HttpCassette [カセットのファイル]
+     * 記録されている要求の一覧を表示する。
+     */
+    public static void main(String[] args) {
+        Path path = args.length > 0 ? Paths.get(args[0]) : DEFAULT_FILE;
+        try {
+            HttpCassette cassette = open(path, Mode.REPLAY);
+            System.out.println(path + ": " + cassette.size() + "件 (" + Files.size(path) + " バイト)");
+            new TreeMap<>(cassette.index).forEach((key, entry) ->
+                    System.out.printf("  %d %7d バイト  %s%n", entry.statusCode(), entry.body().length, key.replace('\n', ' ')));
+        } catch (IOException e) {
+            System.err.println("カセットを読めませんでした: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,505 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * 外部APIへの通信をホストとエンドポイントごとに数える計測の仕組み。SharedHttpClient がすべての送信で記録する。
+ * <ul>
+ *   <li>応答時間: 対数の区間（2のべき乗ごとに16分割。誤差は約6%）に数えるヒストグラム。
+ *       区間ごとのカウンタを加算するだけなのでロックを取らず、1回の記録は1マイクロ秒もかからない</li>
+ *   <li>受信したバイト数、ステータスコードごとの件数、通信エラー、再試行、キャッシュから返した件数、カセットから再生した件数</li>
+ * </ul>
+ * 応答時間は送信から本文を読み終えるまで（途中で読むのをやめた場合はその時点まで）。キャッシュやカセットから返した応答は
+ * 件数だけを数え、応答時間には含めない（ネットワークの応答時間の分布を崩さないため）。
+ * 集計は JMX（po_modify:type=HttpEndpoint,...。jconsole などで見られる）と、
+ * Prometheus のテキスト形式のファイル（既定は ~/.po_modify/metrics/http.prom）で公開する。
+ * ファイルは po_modify.metrics.interval 秒（既定10秒）ごとと終了時に書き直す。
+ * システムプロパティ po_modify.metrics.file でファイルの場所を、none で書き出さないように指定できる。
+ * <p>
+ * エンドポイントは URL のパスで区別する。数字を含む部分（ID、日付、座標など。v1 のようなバージョンは除く）は * にまとめる
+ * （例: pokeapi.co の /api/v2/pokemon/25 → /api/v2/pokemon/*）。
+ */
+public final class HttpMetrics {
+
+    private static final Path DEFAULT_FILE = Paths.get(System.getProperty("user.home"), ".po_modify", "metrics", "http.prom");
+    // ヒストグラムの区間: 2のべき乗ごとに SUB_BUCKETS 個に分ける（マイクロ秒単位で約12日まで）
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (40 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    // Prometheus に出す区間の上限（秒）
+    private static final double[] EXPORT_BOUNDS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+    // 種類の違うエンドポイントがこれ以上増えたら、以降は host ごとの "(other)" にまとめる
+    private static final int MAX_ENDPOINTS = 1000;
+
+    private static final Map<String, Endpoint> ENDPOINTS = new ConcurrentHashMap<>();
+    private static volatile boolean exporterStarted;
+
+    private HttpMetrics() {}
+
+    /**
+     * 1つのエンドポイントの計測値を JMX で見るためのインターフェース（時間はミリ秒）
+     */
+    public interface EndpointMXBean {
+        String getHost();
+        String getPath();
+        long getCount();
+        long getErrors();
+        long getBytesReceived();
+        long getRetries();
+        long getCacheHits();
+        long getReplays();
+        double getMeanMillis();
+        double getP50Millis();
+        double getP90Millis();
+        double getP99Millis();
+        double getMaxMillis();
+        Map<String, Long> getStatusCounts();
+    }
+
+    /**
+     * ホストとエンドポイントごとの計測値。記録はすべてロックを取らずに行う。
+     */
+    public static final class Endpoint implements EndpointMXBean {
+        private final String host;
+        private final String path;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalMicros = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder cacheHits = new LongAdder();
+        private final LongAdder replays = new LongAdder();
+        private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+        private Endpoint(String host, String path) {
+            this.host = host;
+            this.path = path;
+        }
+
+        /**
+         * 応答を1件記録する
+         * @param nanos 送信から、本文を読み終える（または読むのをやめる）までにかかった時間
+         * @param statusCode ステータスコード
+         */
+        public void recordResponse(long nanos, int statusCode) {
+            recordLatency(nanos);
+            LongAdder adder = statuses.get(statusCode);
+            if (adder == null) {
+                adder = statuses.computeIfAbsent(statusCode, k -> new LongAdder());
+            }
+            adder.increment();
+        }
+
+        /**
+         * 応答を受け取れなかった通信（タイムアウト、接続の失敗など）を1件記録する
+         */
+        public void recordError(long nanos) {
+            recordLatency(nanos);
+            errors.increment();
+        }
+
+        private void recordLatency(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            buckets.incrementAndGet(bucketIndex(micros));
+            count.increment();
+            totalMicros.add(micros);
+        }
+
+        /** 受信したバイト数を加える */
+        public void recordBytes(long bytes) {
+            bytesReceived.add(bytes);
+        }
+
+        /** 再試行を1回記録する */
+        public void recordRetry() {
+            retries.increment();
+        }
+
+        /** ネットワークに出ずにキャッシュから返した応答を1件記録する */
+        public void recordCacheHit() {
+            cacheHits.increment();
+        }
+
+        /** ネットワークに出ずにカセット（HttpCassette）から再生した応答を1件記録する */
+        public void recordReplay() {
+            replays.increment();
+        }
+
+        /** 送信を1回始める（応答時間はここから測る） */
+        public Exchange startExchange() {
+            return startExchange(() -> {});
+        }
+
+        /**
+         * 送信を1回始める（応答時間はここから測る）
+         * @param onFinished 応答か失敗を記録したときに1回だけ呼ぶ処理（本文を読み終えた、読むのをやめた、失敗した時点）
+         */
+        public Exchange startExchange(Runnable onFinished) {
+            return new Exchange(this, onFinished);
+        }
+
+        @Override public String getHost() { return host; }
+        @Override public String getPath() { return path; }
+        @Override public long getCount() { return count.sum(); }
+        @Override public long getErrors() { return errors.sum(); }
+        @Override public long getBytesReceived() { return bytesReceived.sum(); }
+        @Override public long getRetries() { return retries.sum(); }
+        @Override public long getCacheHits() { return cacheHits.sum(); }
+        @Override public long getReplays() { return replays.sum(); }
+
+        @Override
+        public double getMeanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalMicros.sum() / 1000.0 / n;
+        }
+
+        @Override public double getP50Millis() { return percentileMillis(0.50); }
+        @Override public double getP90Millis() { return percentileMillis(0.90); }
+        @Override public double getP99Millis() { return percentileMillis(0.99); }
+        @Override public double getMaxMillis() { return percentileMillis(1.0); }
+
+        @Override
+        public Map<String, Long> getStatusCounts() {
+            Map<String, Long> counts = new TreeMap<>();
+            statuses.forEach((code, adder) -> counts.put(String.valueOf(code), adder.sum()));
+            return counts;
+        }
+
+        /**
+         * 応答時間のパーセンタイル（区間の上端で近似する）
+         * @param quantile 0〜1（0.99 なら99パーセンタイル）
+         */
+        public double percentileMillis(double quantile) {
+            long[] snapshot = snapshot();
+            long total = 0;
+            for (long c : snapshot) total += c;
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return bucketUpperMicros(i) / 1000.0;
+                }
+            }
+            return bucketUpperMicros(snapshot.length - 1) / 1000.0;
+        }
+
+        private long[] snapshot() {
+            long[] snapshot = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                snapshot[i] = buckets.get(i);
+            }
+            return snapshot;
+        }
+    }
+
+    // マイクロ秒の値が入る区間の番号。SUB_BUCKETS 未満はそのまま、それ以上は最上位ビットの位置と続く4ビットで決める
+    static int bucketIndex(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int index = (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + (int) ((micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return Math.min(index, BUCKET_COUNT - 1);
+    }
+
+    // 区間に入る最大の値（マイクロ秒）
+    static long bucketUpperMicros(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * URL のホストとエンドポイントの計測値（初めてのものなら作って JMX に登録する）
+     */
+    public static Endpoint endpoint(URI uri) {
+        String host = uri.getHost() != null ? uri.getHost() : "";
+        String path = normalizePath(uri.getRawPath());
+        String key = host + ' ' + path;
+        Endpoint endpoint = ENDPOINTS.get(key);
+        if (endpoint != null) {
+            return endpoint;
+        }
+        if (ENDPOINTS.size() >= MAX_ENDPOINTS) {
+            path = "(other)";
+            key = host + ' ' + path;
+        }
+        String finalPath = path;
+        endpoint = ENDPOINTS.computeIfAbsent(key, k -> register(new Endpoint(host, finalPath)));
+        startExporter();
+        return endpoint;
+    }
+
+    /**
+     * 再試行を1回記録する（呼び出し側が同じリクエストを送り直すとき）
+     */
+    public static void recordRetry(URI uri) {
+        endpoint(uri).recordRetry();
+    }
+
+    /**
+     * すべてのエンドポイントの計測値（ホスト、パスの順）
+     */
+    public static List<Endpoint> endpoints() {
+        List<Endpoint> list = new ArrayList<>(ENDPOINTS.values());
+        list.sort(Comparator.comparing(Endpoint::getHost).thenComparing(Endpoint::getPath));
+        return list;
+    }
+
+    /**
+     * 1回の送信の計測。応答は本文を読み終えた時点（途中で読むのをやめた場合はその時点）で記録する。
+     * ofInputStream のように応答ヘッダーが届いた時点で send が戻る BodyHandler でも、本文の受信にかかった時間を含めるため。
+     * 1回の送信で記録するのは1回だけ。
+     */
+    public static final class Exchange {
+        private final Endpoint endpoint;
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean recorded = new AtomicBoolean();
+        private final Runnable onFinished;
+
+        private Exchange(Endpoint endpoint, Runnable onFinished) {
+            this.endpoint = endpoint;
+            this.onFinished = onFinished;
+        }
+
+        /**
+         * 受信したバイト数を数え、本文を読み終えたら応答を記録する BodyHandler を返す（本文の扱いは元の BodyHandler のまま）
+         */
+        public <T> HttpResponse.BodyHandler<T> measuring(HttpResponse.BodyHandler<T> handler) {
+            return info -> {
+                HttpResponse.BodySubscriber<T> downstream = handler.apply(info);
+                int statusCode = info.statusCode();
+                return new HttpResponse.BodySubscriber<T>() {
+                    @Override public CompletionStage<T> getBody() { return downstream.getBody(); }
+
+                    @Override
+                    public void onSubscribe(Flow.Subscription subscription) {
+                        downstream.onSubscribe(new Flow.Subscription() {
+                            @Override public void request(long n) { subscription.request(n); }
+
+                            @Override
+                            public void cancel() {
+                                responded(statusCode); // 呼び出し側が本文を読むのをやめた
+                                subscription.cancel();
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onNext(List<ByteBuffer> items) {
+                        long bytes = 0;
+                        for (ByteBuffer item : items) bytes += item.remaining();
+                        endpoint.recordBytes(bytes);
+                        downstream.onNext(items);
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        failed();
+                        downstream.onError(throwable);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        responded(statusCode);
+                        downstream.onComplete();
+                    }
+                };
+            };
+        }
+
+        /**
+         * 応答を受け取れなかったことを記録する（本文の途中の失敗などで、すでに記録していれば何もしない）
+         */
+        public void failed() {
+            if (recorded.compareAndSet(false, true)) {
+                endpoint.recordError(System.nanoTime() - startNanos);
+                onFinished.run();
+            }
+        }
+
+        private void responded(int statusCode) {
+            if (recorded.compareAndSet(false, true)) {
+                endpoint.recordResponse(System.nanoTime() - startNanos, statusCode);
+                onFinished.run();
+            }
+        }
+    }
+
+    // 数字を含むパスの部分（ID、日付、座標など）を * にまとめる。ただし v1 のようなバージョンは残す
+    static String normalizePath(String rawPath) {
+        if (rawPath == null || rawPath.isEmpty()) {
+            return "/";
+        }
+        StringBuilder sb = new StringBuilder(rawPath.length());
+        int start = 1;
+        while (start <= rawPath.length()) {
+            int end = rawPath.indexOf('/', start);
+            if (end < 0) end = rawPath.length();
+            if (end > start) {
+                sb.append('/');
+                if (hasDigit(rawPath, start, end) && !isVersion(rawPath, start, end)) {
+                    sb.append('*');
+                } else {
+                    sb.append(rawPath, start, end);
+                }
+            }
+            start = end + 1;
+        }
+        return sb.length() == 0 ? "/" : sb.toString();
+    }
+
+    private static boolean hasDigit(String s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') return true;
+        }
+        return false;
+    }
+
+    private static boolean isVersion(String s, int start, int end) {
+        if (end - start < 2 || s.charAt(start) != 'v') return false;
+        for (int i = start + 1; i < end; i++) {
+            char c = s.charAt(i);
+            if ((c < '0' || c > '9') && c != '.') return false;
+        }
+        return true;
+    }
+
+    private static Endpoint register(Endpoint endpoint) {
+        try {
+            ObjectName name = new ObjectName("po_modify:type=HttpEndpoint,host=" + ObjectName.quote(endpoint.host)
+                    + ",path=" + ObjectName.quote(endpoint.path));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(endpoint, name);
+        } catch (JMException e) {
+            // JMX に出せなくても計測は続ける
+            System.err.println("計測値をJMXに登録できませんでした: " + e.getMessage());
+        }
+        return endpoint;
+    }
+
+    // --- Prometheus 形式のファイル ---
+
+    private static void startExporter() {
+        if (exporterStarted) return;
+        synchronized (HttpMetrics.class) {
+            if (exporterStarted) return;
+            exporterStarted = true;
+        }
+        String file = System.getProperty("po_modify.metrics.file");
+        if ("none".equals(file)) return;
+        Path target = file != null ? Paths.get(file) : DEFAULT_FILE;
+        long interval = Long.getLong("po_modify.metrics.interval", 10);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "http-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleAtFixedRate(() -> writePrometheus(target), interval, interval, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> writePrometheus(target), "http-metrics-final"));
+    }
+
+    private static void writePrometheus(Path target) {
+        try {
+            Files.createDirectories(target.toAbsolutePath().getParent());
+            Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), "http", ".prom.tmp");
+            Files.writeString(temp, toPrometheus(), StandardCharsets.UTF_8);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("計測値のファイルを書き出せませんでした: " + e.getMessage());
+        }
+    }
+
+    /**
+     * すべての計測値を Prometheus のテキスト形式にする
+     */
+    public static String toPrometheus() {
+        List<Endpoint> endpoints = endpoints();
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("# HELP po_modify_http_request_duration_seconds Time from sending a request to reading its response.\n");
+        sb.append("# TYPE po_modify_http_request_duration_seconds histogram\n");
+        for (Endpoint e : endpoints) {
+            String labels = labels(e);
+            long[] snapshot = e.snapshot();
+            long cumulative = 0;
+            int bucket = 0;
+            for (double bound : EXPORT_BOUNDS) {
+                long boundMicros = (long) (bound * 1_000_000);
+                while (bucket < snapshot.length && bucketUpperMicros(bucket) <= boundMicros) {
+                    cumulative += snapshot[bucket++];
+                }
+                sb.append("po_modify_http_request_duration_seconds_bucket{").append(labels)
+                        .append(",le=\"").append(bound).append("\"} ").append(cumulative).append('\n');
+            }
+            while (bucket < snapshot.length) {
+                cumulative += snapshot[bucket++];
+            }
+            sb.append("po_modify_http_request_duration_seconds_bucket{").append(labels).append(",le=\"+Inf\"} ")
+                    .append(cumulative).append('\n');
+            sb.append("po_modify_http_request_duration_seconds_sum{").append(labels).append("} ")
+                    .append(e.totalMicros.sum() / 1_000_000.0).append('\n');
+            sb.append("po_modify_http_request_duration_seconds_count{").append(labels).append("} ")
+                    .append(cumulative).append('\n');
+        }
+        sb.append("# HELP po_modify_http_responses_total Responses by status code.\n");
+        sb.append("# TYPE po_modify_http_responses_total counter\n");
+        for (Endpoint e : endpoints) {
+            e.getStatusCounts().forEach((code, n) -> sb.append("po_modify_http_responses_total{").append(labels(e))
+                    .append(",code=\"").append(code).append("\"} ").append(n).append('\n'));
+        }
+        counter(sb, endpoints, "errors", "Requests that failed without a response.", Endpoint::getErrors);
+        counter(sb, endpoints, "received_bytes", "Response body bytes received.", Endpoint::getBytesReceived);
+        counter(sb, endpoints, "retries", "Requests sent again by the caller.", Endpoint::getRetries);
+        counter(sb, endpoints, "cache_hits", "Responses served from the HTTP cache without a request.", Endpoint::getCacheHits);
+        counter(sb, endpoints, "replays", "Responses replayed from a recorded cassette without a request.", Endpoint::getReplays);
+        return sb.toString();
+    }
+
+    private static void counter(StringBuilder sb, List<Endpoint> endpoints, String name, String help,
+                                ToLongFunction<Endpoint> value) {
+        sb.append("# HELP po_modify_http_").append(name).append("_total ").append(help).append('\n');
+        sb.append("# TYPE po_modify_http_").append(name).append("_total counter\n");
+        for (Endpoint e : endpoints) {
+            sb.append("po_modify_http_").append(name).append("_total{").append(labels(e)).append("} ")
+                    .append(value.applyAsLong(e)).append('\n');
+        }
+    }
+
+    private static String labels(Endpoint e) {
+        return "host=\"" + escape(e.host) + "\",path=\"" + escape(e.path) + "\"";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
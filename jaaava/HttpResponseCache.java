@@ -0,0 +1,577 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLSession;
+
+/**
+ * HTTPのキャッシュ規則（Cache-Control, Expires, ETag, Last-Modified）に従う、クライアント側の応答キャッシュ。
+ * SharedHttpClient の send/sendAsync の中で使うので、各APIクライアントは何もしなくても恩恵を受ける。
+ * <ul>
+ *   <li>メモリ: 最近使った応答をアクセス順のLRUで保持する（合計サイズ上限付き）</li>
+ *   <li>ディスク: 応答をURLのハッシュをファイル名にして保存する。合計サイズの上限を超えたら最後に使った時刻の古いものから消す</li>
+ * </ul>
+ * 新鮮な応答はネットワークに出ずにそのまま返し、古くなった応答は If-None-Match / If-Modified-Since を付けて問い合わせる。
+ * 304 が返れば保存しておいた本文を返す。本文は呼び出し側の BodyHandler にそのまま流し込むので、
+ * ofString でも ofInputStream でも同じように使える。
+ * <p>
+ * キャッシュするのは GET の 200 応答だけで、no-store、Vary（Accept-Encoding 以外）、大きすぎる本文は保存しない。
+ * リクエストに Cache-Control: no-store が付いていれば、そのリクエストはキャッシュを使わない。
+ * 画像のように呼び出し側が別に保存しているものは、SharedHttpClient.CachePolicy.BYPASS を指定して送る。
+ */
+public class HttpResponseCache {
+
+    public static final Path DEFAULT_DIRECTORY = Paths.get(System.getProperty("user.home"), ".po_modify", "http-cache");
+    private static final long DEFAULT_MEMORY_LIMIT_BYTES = 16L * 1024 * 1024;
+    private static final long DEFAULT_DISK_LIMIT_BYTES = 128L * 1024 * 1024;
+    // これより大きい本文は保存しない
+    private static final int MAX_ENTRY_BYTES = 8 * 1024 * 1024;
+    // 有効期限の指定がなく Last-Modified だけある場合の、経験的な鮮度の上限
+    private static final long MAX_HEURISTIC_FRESHNESS_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int FILE_MAGIC = 0x48544345; // "HTCE"
+    private static final int FILE_VERSION = 1;
+    private static final String FILE_SUFFIX = ".entry";
+
+    /**
+     * キャッシュの利用状況
+     * @param freshHits ネットワークに出ずに返した回数
+     * @param revalidated 304 を受けて保存済みの本文を返した回数
+     * @param misses キャッシュになかった、または使えなかった回数
+     * @param stored 応答を保存した回数
+     * @param memoryBytes メモリに保持している本文の合計サイズ
+     * @param diskBytes ディスクに保存している合計サイズ
+     */
+    public record Stats(long freshHits, long revalidated, long misses, long stored, long memoryBytes, long diskBytes) {}
+
+    // 保存した応答1件。storedAtMillis は受信（または再検証）した時刻
+    private record Entry(int statusCode, Map<String, List<String>> headers, byte[] body, long storedAtMillis) {
+        Optional<String> header(String name) {
+            List<String> values = headers.get(name);
+            return values == null || values.isEmpty() ? Optional.empty() : Optional.of(values.get(0));
+        }
+
+        int size() {
+            return body.length + 256;
+        }
+    }
+
+    private static final HttpResponseCache SHARED = new HttpResponseCache(DEFAULT_DIRECTORY,
+            DEFAULT_MEMORY_LIMIT_BYTES, DEFAULT_DISK_LIMIT_BYTES);
+
+    private final Path directory;
+    private final long memoryLimitBytes;
+    private final long diskLimitBytes;
+    // アクセス順のLinkedHashMapでLRUを実現する（キーはURLのハッシュ）
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private long memoryBytes;
+    // ディスク上のファイルの大きさ（アクセス順。初めて使うときにディレクトリを読む）
+    private volatile LinkedHashMap<String, Long> disk;
+    // ディレクトリを読むのは1回だけにする（読んでいる間も、このキャッシュのモニターは取らない）
+    private final Object diskIndexLock = new Object();
+    private long diskBytes;
+    private final AtomicLong freshHits = new AtomicLong();
+    private final AtomicLong revalidated = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stored = new AtomicLong();
+
+    /**
+     * @param directory 応答を保存するディレクトリ
+     * @param memoryLimitBytes メモリに保持する本文の合計サイズ上限
+     * @param diskLimitBytes ディスクに保存する合計サイズ上限
+     */
+    public HttpResponseCache(Path directory, long memoryLimitBytes, long diskLimitBytes) {
+        this.directory = directory;
+        this.memoryLimitBytes = memoryLimitBytes;
+        this.diskLimitBytes = diskLimitBytes;
+    }
+
+    /**
+     * アプリ全体で共有するキャッシュ（~/.po_modify/http-cache、メモリ16MB、ディスク128MB）
+     */
+    public static HttpResponseCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * この仕組みでキャッシュを使うリクエストかどうか
+     */
+    public static boolean isCacheable(HttpRequest request) {
+        if (!request.method().equals("GET")) return false;
+        for (String value : request.headers().allValues("Cache-Control")) {
+            if (value.toLowerCase(Locale.ROOT).contains("no-store")) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 新鮮な応答が保存されていれば、ネットワークに出ずにそれを返す
+     */
+    public <T> Optional<HttpResponse<T>> fresh(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        Entry entry = lookup(key(request.uri()));
+        if (entry == null || !isFresh(entry, System.currentTimeMillis()) || requestsRevalidation(request)) {
+            return Optional.empty();
+        }
+        freshHits.incrementAndGet();
+        return Optional.of(toResponse(request, entry, handler));
+    }
+
+    /**
+     * 古くなった応答が保存されていれば、検証用のヘッダー（If-None-Match / If-Modified-Since）を付けたリクエストを返す
+     */
+    public HttpRequest conditional(HttpRequest request) {
+        Entry entry = lookup(key(request.uri()));
+        if (entry == null) {
+            return request;
+        }
+        Optional<String> etag = entry.header("etag");
+        Optional<String> lastModified = entry.header("last-modified");
+        if (etag.isEmpty() && lastModified.isEmpty()) {
+            return request;
+        }
+        HttpRequest.Builder builder = HttpRequest.newBuilder(request, (name, value) -> true);
+        etag.ifPresent(value -> builder.setHeader("If-None-Match", value));
+        lastModified.ifPresent(value -> builder.setHeader("If-Modified-Since", value));
+        return builder.build();
+    }
+
+    /**
+     * 呼び出し側の BodyHandler を包み、200 なら本文を流しながら控えて保存し、304 なら本文を読まずに捨てる
+     */
+    public <T> HttpResponse.BodyHandler<T> wrap(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        String key = key(request.uri());
+        return info -> {
+            if (info.statusCode() == 304 && lookup(key) != null) {
+                return HttpResponse.BodySubscribers.replacing(null); // complete() で保存済みの本文に差し替える
+            }
+            HttpResponse.BodySubscriber<T> downstream = handler.apply(info);
+            if (info.statusCode() != 200 || !isStorable(info.headers())) {
+                return downstream;
+            }
+            long receivedAt = System.currentTimeMillis();
+            Map<String, List<String>> headers = storedHeaders(info.headers());
+            if (!isReusable(new Entry(200, headers, new byte[0], receivedAt))) {
+                return downstream; // 新鮮な期間も検証用のヘッダーもない応答は、保存しても使い道がない
+            }
+            return new TeeSubscriber<>(downstream, MAX_ENTRY_BYTES, body -> store(key, new Entry(200, headers, body, receivedAt)));
+        };
+    }
+
+    /**
+     * wrap した BodyHandler で受け取った応答を仕上げる。304 なら保存済みの本文で 200 の応答を作り、鮮度の情報を更新する。
+     */
+    public <T> HttpResponse<T> complete(HttpRequest request, HttpResponse<T> response, HttpResponse.BodyHandler<T> handler) {
+        String key = key(request.uri());
+        if (response.statusCode() == 304) {
+            Entry entry = lookup(key);
+            if (entry != null) {
+                Map<String, List<String>> headers = new TreeMap<>(entry.headers());
+                headers.putAll(storedHeaders(response.headers()));
+                Entry refreshed = new Entry(entry.statusCode(), headers, entry.body(), System.currentTimeMillis());
+                store(key, refreshed);
+                revalidated.incrementAndGet();
+                return toResponse(request, refreshed, handler);
+            }
+        }
+        misses.incrementAndGet();
+        return response;
+    }
+
+    /** これまでの利用状況 */
+    public synchronized Stats stats() {
+        return new Stats(freshHits.get(), revalidated.get(), misses.get(), stored.get(), memoryBytes, diskBytes);
+    }
+
+    // --- 鮮度の判定 ---
+
+    private static boolean requestsRevalidation(HttpRequest request) {
+        for (String value : request.headers().allValues("Cache-Control")) {
+            String v = value.toLowerCase(Locale.ROOT);
+            if (v.contains("no-cache") || v.contains("max-age=0")) return true;
+        }
+        return false;
+    }
+
+    private static boolean isFresh(Entry entry, long nowMillis) {
+        return nowMillis - entry.storedAtMillis() + ageMillis(entry) < freshnessMillis(entry);
+    }
+
+    // 応答が新鮮でいられる時間（RFC 9111 の max-age、Expires、Last-Modified からの経験則の順）
+    private static long freshnessMillis(Entry entry) {
+        String cacheControl = entry.header("cache-control").orElse("").toLowerCase(Locale.ROOT);
+        if (cacheControl.contains("no-cache") || cacheControl.contains("must-revalidate") && cacheControl.contains("max-age=0")) {
+            return 0;
+        }
+        long maxAge = directiveSeconds(cacheControl, "max-age");
+        if (maxAge >= 0) {
+            return maxAge * 1000;
+        }
+        Optional<Long> date = entry.header("date").map(HttpResponseCache::parseDate);
+        Optional<Long> expires = entry.header("expires").map(HttpResponseCache::parseDate);
+        if (expires.isPresent()) {
+            return Math.max(0, expires.get() - date.orElse(entry.storedAtMillis()));
+        }
+        Optional<Long> lastModified = entry.header("last-modified").map(HttpResponseCache::parseDate);
+        if (lastModified.isPresent() && lastModified.get() > 0) {
+            long sinceModified = date.orElse(entry.storedAtMillis()) - lastModified.get();
+            return Math.min(Math.max(0, sinceModified / 10), MAX_HEURISTIC_FRESHNESS_MILLIS);
+        }
+        return 0;
+    }
+
+    private static long ageMillis(Entry entry) {
+        try {
+            return entry.header("age").map(value -> Long.parseLong(value.trim()) * 1000).orElse(0L);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // "max-age=60" のような指定の秒数（なければ -1）
+    private static long directiveSeconds(String cacheControl, String name) {
+        int index = cacheControl.indexOf(name + "=");
+        if (index < 0) return -1;
+        int start = index + name.length() + 1;
+        int end = start;
+        while (end < cacheControl.length() && Character.isDigit(cacheControl.charAt(end))) end++;
+        try {
+            return Long.parseLong(cacheControl.substring(start, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Long parseDate(String value) {
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0L; // 解析できない日付は「すでに期限切れ」として扱う
+        }
+    }
+
+    private static boolean isReusable(Entry entry) {
+        return entry.header("etag").isPresent() || entry.header("last-modified").isPresent() || freshnessMillis(entry) > 0;
+    }
+
+    private static boolean isStorable(HttpHeaders headers) {
+        for (String value : headers.allValues("cache-control")) {
+            if (value.toLowerCase(Locale.ROOT).contains("no-store")) return false;
+        }
+        for (String value : headers.allValues("vary")) {
+            for (String name : value.split(",")) {
+                if (!name.trim().equalsIgnoreCase("accept-encoding")) return false;
+            }
+        }
+        return headers.firstValueAsLong("content-length").orElse(0) <= MAX_ENTRY_BYTES;
+    }
+
+    // 保存するヘッダー（名前は小文字にそろえ、接続ごとのヘッダーは除く）
+    private static Map<String, List<String>> storedHeaders(HttpHeaders headers) {
+        Map<String, List<String>> result = new TreeMap<>();
+        headers.map().forEach((name, values) -> {
+            String lower = name.toLowerCase(Locale.ROOT);
+            if (lower.startsWith(":") || lower.equals("connection") || lower.equals("keep-alive")
+                    || lower.equals("transfer-encoding") || lower.equals("content-length")) {
+                return;
+            }
+            result.put(lower, List.copyOf(values));
+        });
+        return result;
+    }
+
+    // --- 保存済みの本文から応答を作る ---
+
+    private static <T> HttpResponse<T> toResponse(HttpRequest request, Entry entry, HttpResponse.BodyHandler<T> handler) {
+        return responseFrom(request, entry.statusCode(), HttpHeaders.of(entry.headers(), (name, value) -> true),
+                entry.body(), handler);
+    }
+
+    /**
+     * 手元にある本文を呼び出し側の BodyHandler に流し込んで応答を作る（HttpCassette の再生でも使う）
+     */
+    static <T> HttpResponse<T> responseFrom(HttpRequest request, int statusCode, HttpHeaders headers, byte[] content,
+                                            HttpResponse.BodyHandler<T> handler) {
+        HttpResponse.ResponseInfo info = new HttpResponse.ResponseInfo() {
+            @Override public int statusCode() { return statusCode; }
+            @Override public HttpHeaders headers() { return headers; }
+            @Override public HttpClient.Version version() { return HttpClient.Version.HTTP_1_1; }
+        };
+        HttpResponse.BodySubscriber<T> subscriber = handler.apply(info);
+        subscriber.onSubscribe(new Flow.Subscription() {
+            private boolean delivered;
+
+            @Override
+            public void request(long n) {
+                if (delivered || n <= 0) return;
+                delivered = true;
+                subscriber.onNext(List.of(ByteBuffer.wrap(content).asReadOnlyBuffer()));
+                subscriber.onComplete();
+            }
+
+            @Override
+            public void cancel() {
+                delivered = true;
+            }
+        });
+        T body = subscriber.getBody().toCompletableFuture().join();
+        return new CachedResponse<>(request, statusCode, headers, body);
+    }
+
+    private record CachedResponse<T>(HttpRequest request, int statusCode, HttpHeaders headers, T body)
+            implements HttpResponse<T> {
+        @Override public Optional<HttpResponse<T>> previousResponse() { return Optional.empty(); }
+        @Override public Optional<SSLSession> sslSession() { return Optional.empty(); }
+        @Override public URI uri() { return request.uri(); }
+        @Override public HttpClient.Version version() { return HttpClient.Version.HTTP_1_1; }
+    }
+
+    // 受け取った本文をそのまま下流に渡しつつ控えておき、最後まで受け取れたら onComplete に渡す（maxBytes を超えたら渡さない）
+    static final class TeeSubscriber<T> implements HttpResponse.BodySubscriber<T> {
+        private final HttpResponse.BodySubscriber<T> downstream;
+        private final java.util.function.Consumer<byte[]> onComplete;
+        private final int maxBytes;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        TeeSubscriber(HttpResponse.BodySubscriber<T> downstream, int maxBytes, java.util.function.Consumer<byte[]> onComplete) {
+            this.downstream = downstream;
+            this.maxBytes = maxBytes;
+            this.onComplete = onComplete;
+        }
+
+        @Override
+        public java.util.concurrent.CompletionStage<T> getBody() {
+            return downstream.getBody();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            downstream.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> items) {
+            if (copy != null) {
+                for (ByteBuffer item : items) {
+                    if (copy.size() + item.remaining() > maxBytes) {
+                        copy = null; // 大きすぎるので保存しない
+                        break;
+                    }
+                    ByteBuffer view = item.duplicate();
+                    byte[] bytes = new byte[view.remaining()];
+                    view.get(bytes);
+                    copy.write(bytes, 0, bytes.length);
+                }
+            }
+            downstream.onNext(items);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            copy = null;
+            downstream.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (copy != null) {
+                onComplete.accept(copy.toByteArray());
+                copy = null;
+            }
+            downstream.onComplete();
+        }
+    }
+
+    // --- メモリとディスク ---
+
+    private Entry lookup(String key) {
+        synchronized (this) {
+            Entry entry = memory.get(key);
+            if (entry != null) return entry;
+        }
+        loadDiskIndex();
+        synchronized (this) {
+            if (disk.get(key) == null) return null; // 参照してアクセス順も更新する
+        }
+        Path file = directory.resolve(key + FILE_SUFFIX);
+        try {
+            Entry entry = readEntry(Files.readAllBytes(file));
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            synchronized (this) {
+                putInMemory(key, entry);
+            }
+            return entry;
+        } catch (IOException e) {
+            synchronized (this) {
+                Long size = disk.remove(key);
+                if (size != null) diskBytes -= size;
+            }
+            return null;
+        }
+    }
+
+    private void store(String key, Entry entry) {
+        stored.incrementAndGet();
+        synchronized (this) {
+            putInMemory(key, entry);
+        }
+        try {
+            byte[] bytes = writeEntry(entry);
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, "http", ".tmp");
+            Files.write(temp, bytes);
+            Files.move(temp, directory.resolve(key + FILE_SUFFIX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            List<String> evicted = new ArrayList<>();
+            loadDiskIndex();
+            synchronized (this) {
+                Long previous = disk.put(key, (long) bytes.length);
+                diskBytes += bytes.length - (previous != null ? previous : 0);
+                Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator();
+                while (diskBytes > diskLimitBytes && it.hasNext()) {
+                    Map.Entry<String, Long> eldest = it.next();
+                    if (eldest.getKey().equals(key)) continue; // 今保存したものは残す
+                    diskBytes -= eldest.getValue();
+                    evicted.add(eldest.getKey());
+                    it.remove();
+                }
+            }
+            for (String old : evicted) {
+                Files.deleteIfExists(directory.resolve(old + FILE_SUFFIX));
+            }
+        } catch (IOException e) {
+            // ディスクに保存できなくてもメモリのキャッシュは使えるので、警告だけ出して続ける
+            System.err.println("HTTPキャッシュへの保存に失敗しました: " + e.getMessage());
+        }
+    }
+
+    private void putInMemory(String key, Entry entry) {
+        if (entry.size() > memoryLimitBytes / 4) return; // 大きな応答はディスクだけに置く
+        Entry previous = memory.put(key, entry);
+        if (previous != null) memoryBytes -= previous.size();
+        memoryBytes += entry.size();
+        Iterator<Map.Entry<String, Entry>> it = memory.entrySet().iterator();
+        while (memoryBytes > memoryLimitBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (eldest.getKey().equals(key)) continue;
+            memoryBytes -= eldest.getValue().size();
+            it.remove();
+        }
+    }
+
+    // ディスク上のファイルを、最後に使った時刻（更新時刻）の古い順に並べる。
+    // ファイル数に比例して時間がかかるので、メモリだけで答えられる呼び出しを待たせないよう、キャッシュのモニターの外で読む
+    private void loadDiskIndex() {
+        if (disk != null) return;
+        synchronized (diskIndexLock) {
+            if (disk != null) return;
+            LinkedHashMap<String, Long> index = new LinkedHashMap<>(64, 0.75f, true);
+            long total = 0;
+            if (Files.isDirectory(directory)) {
+                List<Object[]> files = new ArrayList<>();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+                    for (Path file : stream) {
+                        files.add(new Object[] {file, Files.getLastModifiedTime(file).toMillis(), Files.size(file)});
+                    }
+                } catch (IOException e) {
+                    System.err.println("HTTPキャッシュのディレクトリを読めませんでした: " + e.getMessage());
+                }
+                files.sort((a, b) -> Long.compare((Long) a[1], (Long) b[1]));
+                for (Object[] f : files) {
+                    String name = ((Path) f[0]).getFileName().toString();
+                    index.put(name.substring(0, name.length() - FILE_SUFFIX.length()), (Long) f[2]);
+                    total += (Long) f[2];
+                }
+            }
+            synchronized (this) {
+                diskBytes += total;
+                disk = index;
+            }
+        }
+    }
+
+    /*
+     * ファイル形式:
+     *   "HTCE" 形式バージョン(int) ステータス(int) 保存時刻(long)
+     *   ヘッダー数(int) (名前(UTF) 値の数(int) 値(UTF)...)...
+     *   本文の長さ(int) 本文
+     */
+    private static byte[] writeEntry(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entry.body().length + 512);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        out.writeInt(entry.statusCode());
+        out.writeLong(entry.storedAtMillis());
+        out.writeInt(entry.headers().size());
+        for (Map.Entry<String, List<String>> header : entry.headers().entrySet()) {
+            out.writeUTF(header.getKey());
+            out.writeInt(header.getValue().size());
+            for (String value : header.getValue()) out.writeUTF(value);
+        }
+        out.writeInt(entry.body().length);
+        out.write(entry.body());
+        return bytes.toByteArray();
+    }
+
+    private static Entry readEntry(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+            throw new IOException("HTTPキャッシュのファイルの形式が違います");
+        }
+        int status = in.readInt();
+        long storedAt = in.readLong();
+        int headerCount = in.readInt();
+        Map<String, List<String>> headers = new TreeMap<>();
+        for (int i = 0; i < headerCount; i++) {
+            String name = in.readUTF();
+            int valueCount = in.readInt();
+            List<String> values = new ArrayList<>(valueCount);
+            for (int j = 0; j < valueCount; j++) values.add(in.readUTF());
+            headers.put(name, values);
+        }
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        return new Entry(status, headers, body, storedAt);
+    }
+
+    // キャッシュのキー（URLのSHA-256。APIキーを含むURLがファイル名に出ないようにする）
+    private static String key(URI uri) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(uri.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256が利用できません。", e);
+        }
+    }
+}
@@ -1,14 +1,31 @@
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 // ...existing code...
 // EncodingConverterはデフォルトパッケージなのでimport不要
 
@@ -18,8 +35,30 @@ import java.util.Optional;
  */
 public class INaturalistSearchClient {
     private static final String API_URL = "https://api.inaturalist.org/v1/observations";
-    private final HttpClient client = HttpClient.newHttpClient();
-    private final Gson gson = new Gson();
+    // 全件取得時の1ページあたりの件数（APIの上限は200）
+    private static final int STREAM_PAGE_SIZE = 200;
+    // 全件取得時の同時リクエスト数とリクエスト間隔の制限（このクライアントの全ストリームで共有）
+    private final Semaphore concurrencyLimit;
+    private final RequestPacer pacer;
+    private final ExecutorService pageFetcher = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "inaturalist-page-fetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public INaturalistSearchClient() {
+        // iNaturalistの推奨は1秒あたり1リクエスト程度
+        this(2, 1.0);
+    }
+
+    /**
+     * @param maxConcurrentRequests 全件取得時に同時に送るリクエスト数の上限
+     * @param maxRequestsPerSecond 全件取得時の1秒あたりのリクエスト数の上限
+     */
+    public INaturalistSearchClient(int maxConcurrentRequests, double maxRequestsPerSecond) {
+        this.concurrencyLimit = new Semaphore(maxConcurrentRequests);
+        this.pacer = new RequestPacer(maxRequestsPerSecond);
+    }
 
     /**
      * iNaturalist APIで生物名（和名・英名）から観察データを検索
@@ -32,37 +71,154 @@ public class INaturalistSearchClient {
                 .uri(URI.create(requestUrl))
                 .GET()
                 .build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        if (response.statusCode() == 200) {
-            JsonObject obj = gson.fromJson(response.body(), JsonObject.class);
-            JsonArray results = obj.getAsJsonArray("results");
-            if (results == null || results.size() == 0) {
+        HttpResponse<InputStream> response = SharedHttpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream body = response.body()) {
+            if (response.statusCode() != 200) {
+                System.err.println("APIエラー: " + response.statusCode() + ", Body: " + new String(body.readAllBytes(), StandardCharsets.UTF_8));
+                return;
+            }
+            List<Observation> results = Observation.readPage(body).results();
+            if (results.isEmpty()) {
                 System.out.println("該当する観察データが見つかりませんでした。");
                 return;
             }
             for (int i = 0; i < results.size(); i++) {
-                JsonObject obs = results.get(i).getAsJsonObject();
-                String speciesGuess = (obs.has("species_guess") && !obs.get("species_guess").isJsonNull()) ? obs.get("species_guess").getAsString() : "-";
-                String place = (obs.has("place_guess") && !obs.get("place_guess").isJsonNull()) ? obs.get("place_guess").getAsString() : "-";
-                String observedOn = (obs.has("observed_on") && !obs.get("observed_on").isJsonNull()) ? obs.get("observed_on").getAsString() : "-";
+                Observation obs = results.get(i);
                 // 写真URL取得
-                String imageUrl = "(画像なし)";
-                if (obs.has("photos") && obs.get("photos").isJsonArray()) {
-                    JsonArray photos = obs.getAsJsonArray("photos");
-                    if (photos.size() > 0) {
-                        JsonObject photoObj = photos.get(0).getAsJsonObject();
-                        if (photoObj.has("url") && !photoObj.get("url").isJsonNull()) {
-                            imageUrl = photoObj.get("url").getAsString();
-                        }
-                    }
+                String imageUrl = obs.photoUrls().isEmpty() ? "(画像なし)" : obs.photoUrls().get(0);
+                System.out.printf("\n%d. 種名: %s\n   場所: %s\n   観察日: %s\n   画像: %s\n", (i+1),
+                        obs.speciesGuessOrDash(), obs.placeGuessOrDash(), obs.observedOnOrDash(), imageUrl);
+            }
+        }
+    }
+
+    /**
+     * 条件に一致する観察データを全件、遅延評価のStreamとして返す。
+     * id_above を使ったカーソル方式でページを順に取得し、ページNを処理している間にページN+1を先読みする。
+     * Streamが読み進められた分だけ取得するので、メモリに保持するのは最大2ページ分になる。
+     * 使い終わったら close() すること（先読みしているスレッドに割り込み、待ち中なら送らず、通信中なら通信を中止する）。
+     * @param params 検索条件 (例: q, taxon_id, place_id)。order_by, id_above, per_page は指定しないこと
+     * @return 観察データのStream
+     */
+    public Stream<Observation> streamObservations(Map<String, String> params) {
+        ObservationPages pages = new ObservationPages(params);
+        return StreamSupport.stream(pages, false).onClose(pages::close);
+    }
+
+    // ページ単位に観察データを取得し、1件ずつ返すSpliterator
+    private final class ObservationPages extends Spliterators.AbstractSpliterator<Observation> {
+        private final Map<String, String> params;
+        private Iterator<Observation> current;
+        // 先読み中のページ（pageFetcher に投入した Future なので、cancel(true) で取得中のスレッドに割り込める）
+        private Future<List<Observation>> next;
+
+        ObservationPages(Map<String, String> params) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.params = params;
+            this.next = fetchPageAsync(0);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Observation> action) {
+            while (current == null || !current.hasNext()) {
+                if (next == null) {
+                    return false;
+                }
+                List<Observation> page = awaitPage(next);
+                if (page.size() < STREAM_PAGE_SIZE) {
+                    next = null; // 最後のページ
+                } else {
+                    next = fetchPageAsync(page.get(page.size() - 1).id()); // 処理している間に次のページを先読み
                 }
-                System.out.printf("\n%d. 種名: %s\n   場所: %s\n   観察日: %s\n   画像: %s\n", (i+1), speciesGuess, place, observedOn, imageUrl);
+                current = page.iterator();
+            }
+            action.accept(current.next());
+            return true;
+        }
+
+        void close() {
+            if (next != null) {
+                next.cancel(true);
+                next = null;
             }
-        } else {
-            System.err.println("APIエラー: " + response.statusCode() + ", Body: " + response.body());
+        }
+
+        private Future<List<Observation>> fetchPageAsync(long idAbove) {
+            return pageFetcher.submit(() -> fetchPage(params, idAbove));
+        }
+
+        private List<Observation> awaitPage(Future<List<Observation>> future) {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) throw new UncheckedIOException((IOException) e.getCause());
+                throw new UncheckedIOException(new IOException("観察データの取得に失敗しました。", e.getCause()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                throw new UncheckedIOException(new InterruptedIOException("観察データの取得中に割り込まれました。"));
+            }
+        }
+    }
+
+    // id_above より大きいIDの観察データを1ページ分取得する
+    private List<Observation> fetchPage(Map<String, String> params, long idAbove) throws IOException, InterruptedException {
+        StringBuilder url = new StringBuilder(API_URL).append("?order_by=id&order=asc&per_page=").append(STREAM_PAGE_SIZE);
+        if (idAbove > 0) {
+            url.append("&id_above=").append(idAbove);
+        }
+        params.forEach((key, value) -> url.append('&').append(URLEncoder.encode(key, StandardCharsets.UTF_8))
+                .append('=').append(URLEncoder.encode(value, StandardCharsets.UTF_8)));
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create(url.toString())).GET().build();
+
+        concurrencyLimit.acquire();
+        try {
+            pacer.acquire();
+            HttpResponse<InputStream> response = SharedHttpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream body = response.body()) {
+                if (response.statusCode() != 200) {
+                    throw new IOException("APIエラー: " + response.statusCode() + ", Body: "
+                            + new String(body.readAllBytes(), StandardCharsets.UTF_8));
+                }
+                return Observation.readPage(body).results();
+            }
+        } finally {
+            concurrencyLimit.release();
         }
     }
 
+    /**
+     * 条件に一致する観察データを全件、タブ区切りのファイルに書き出す
+     * @param params 検索条件
+     * @param output 出力先
+     * @return 書き出した件数
+     */
+    public long exportObservations(Map<String, String> params, Path output) throws IOException {
+        long count = 0;
+        try (Stream<Observation> observations = streamObservations(params);
+             BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            writer.write("id\tspecies_guess\tplace_guess\tobserved_on");
+            writer.newLine();
+            Iterator<Observation> it = observations.iterator();
+            while (it.hasNext()) {
+                Observation obs = it.next();
+                writer.write(obs.id() + "\t" + tsv(obs.speciesGuessOrDash()) + "\t" + tsv(obs.placeGuessOrDash())
+                        + "\t" + tsv(obs.observedOnOrDash()));
+                writer.newLine();
+                if (++count % 1000 == 0) {
+                    System.out.println(count + "件を書き出しました...");
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return count;
+    }
+
+    private static String tsv(String value) {
+        return value.replace('\t', ' ').replace('\n', ' ');
+    }
+
     public static void main(String[] args) {
         // Shift_JISで入力を受け取り、UTF-8で検索
         System.out.print("検索したい生物名（Shift_JIS）を入力してください: ");
@@ -74,6 +230,15 @@ public class INaturalistSearchClient {
         String query = sjisInput.get(); // Java内部表現はUTF-16なのでそのまま検索OK
         INaturalistSearchClient client = new INaturalistSearchClient();
         try {
+            // 引数に --export を付けると、一致する観察データを全件ファイルに書き出す
+            if (args.length > 0 && args[0].equals("--export")) {
+                Path output = Paths.get(args.length > 1 ? args[1] : "observations.tsv");
+                Map<String, String> params = new LinkedHashMap<>();
+                params.put("q", query);
+                long count = client.exportObservations(params, output);
+                System.out.println(count + "件を " + output.toAbsolutePath() + " に書き出しました。");
+                return;
+            }
             client.searchObservations(query);
         } catch (Exception e) {
             System.err.println("検索中にエラーが発生しました。");
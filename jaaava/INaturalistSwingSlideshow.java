@@ -1,29 +1,109 @@
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+/**
+ * iNaturalistの観察写真のスライドショー。
+ * 検索と画像の取得・縮小はバックグラウンドのスレッドで行い、UIスレッドでは用意できた画像の差し替えだけを行う。
+ * 各スライドはまず小さな square 画像をすぐ表示し、表示枠の大きさと回線速度から選んだ解像度の画像が届いたら差し替える。
+ * 検索欄は入力が止まってから補完候補を出し（TaxonAutocomplete）、最近の検索結果はキャッシュから表示する。
+ */
 public class INaturalistSwingSlideshow extends JFrame {
     private static final String API_URL = "https://api.inaturalist.org/v1/observations";
-    private final HttpClient client = HttpClient.newHttpClient();
-    private final Gson gson = new Gson();
-    private List<String> imageUrls = new ArrayList<>();
-    private int currentIndex = 0;
+    private static final int DEFAULT_IMAGE_WIDTH = 400;
+    private static final int DEFAULT_IMAGE_HEIGHT = 300;
+    private static final int SLIDE_INTERVAL_MILLIS = 2500;
+    // iNaturalistの写真URLのサイズ部分（.../photos/123/square.jpg など）
+    private static final Pattern PHOTO_SIZE_PATTERN = Pattern.compile("/(square|small|medium|large|original)\\.(\\w+)(\\?.*)?$");
+    // 写真の各サイズの長辺のピクセル数と、おおよそのファイルサイズ（バイト）
+    private static final String[] PHOTO_SIZES = {"square", "small", "medium", "large"};
+    private static final int[] PHOTO_LONG_EDGES = {75, 240, 500, 1024};
+    private static final int[] PHOTO_APPROX_BYTES = {4_000, 25_000, 90_000, 300_000};
+    // 現在のスライドの何枚先まで画像を先読みしておくか
+    private static final int PREFETCH_AHEAD = 3;
+    // 最後のキー入力からこの時間だけ入力が止まったら補完候補を問い合わせる
+    private static final int SUGGEST_DEBOUNCE_MILLIS = 250;
+    private static final int SEARCH_CACHE_ENTRIES = 32;
+    // 検索は1本のスレッドで行い、新しい検索が来たら前の検索は中断する
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(r -> daemonThread(r, "inaturalist-search"));
+    private final ExecutorService imageLoader = Executors.newFixedThreadPool(2, r -> daemonThread(r, "inaturalist-image"));
+    // square画像は大きな画像のダウンロードの後ろで待たないよう、別のスレッドで取得する
+    private final ExecutorService previewLoader = Executors.newFixedThreadPool(2, r -> daemonThread(r, "inaturalist-preview"));
     private JLabel imageLabel = new JLabel();
     private JLabel infoLabel = new JLabel();
     private Timer timer;
+    private final TaxonAutocomplete autocomplete = new TaxonAutocomplete();
+    private final JTextField searchField = new JTextField(20);
+    private final JPopupMenu suggestionPopup = new JPopupMenu();
+    private final Timer suggestTimer = new Timer(SUGGEST_DEBOUNCE_MILLIS, e -> requestSuggestions());
+
+    // 以下はUIスレッドからのみ触る
+    private boolean settingSearchText; // 候補を選んで検索欄を書き換えている間は補完しない
+    // 最近の検索結果（キーは正規化した検索語）
+    private final LinkedHashMap<String, List<Slide>> searchCache = new LinkedHashMap<>(SEARCH_CACHE_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<Slide>> eldest) {
+            return size() > SEARCH_CACHE_ENTRIES;
+        }
+    };
+    private Future<?> searchTask;
+    private int searchGeneration; // 古い検索の結果を捨てるための世代番号
+    private List<Slide> slides = List.of();
+    private int currentIndex = 0;
+    private final Map<Integer, SlideLoad> loadingImages = new HashMap<>();
+
+    /**
+     * スライド1枚分
+     * @param url 画像のURL（APIが返したサイズのもの）
+     * @param info 画像の下に表示する説明
+     */
+    private record Slide(String url, String info) {}
+
+    /**
+     * 1枚のスライドの段階的な読み込み。stages は低解像度から順に並び、届いたものから表示していく。
+     * 取り消すときはダウンロード中のスレッドに割り込んで止める。
+     */
+    private static final class SlideLoad {
+        final List<CompletableFuture<BufferedImage>> stages = new ArrayList<>();
+        final List<Future<?>> tasks = new ArrayList<>();
+        int shownStage = -1; // UIスレッドからのみ触る
+
+        // いずれかの段階が届いたか、すべて失敗していれば表示できる
+        boolean isReady() {
+            boolean allDone = true;
+            for (CompletableFuture<BufferedImage> stage : stages) {
+                if (stage.isDone() && !stage.isCompletedExceptionally()) return true;
+                allDone &= stage.isDone();
+            }
+            return allDone;
+        }
+
+        void cancel() {
+            for (Future<?> task : tasks) task.cancel(true);
+            for (CompletableFuture<BufferedImage> stage : stages) stage.cancel(false);
+        }
+    }
 
     public INaturalistSwingSlideshow() {
         setTitle("iNaturalist 画像スライドショー");
@@ -32,7 +112,6 @@ public class INaturalistSwingSlideshow extends JFrame {
         setLayout(new BorderLayout());
 
         JPanel topPanel = new JPanel();
-        JTextField searchField = new JTextField(20);
         JButton searchBtn = new JButton("検索");
         topPanel.add(new JLabel("生物名: "));
         topPanel.add(searchField);
@@ -45,102 +124,279 @@ public class INaturalistSwingSlideshow extends JFrame {
         infoLabel.setHorizontalAlignment(JLabel.CENTER);
         add(infoLabel, BorderLayout.SOUTH);
 
+        timer = new Timer(SLIDE_INTERVAL_MILLIS, e -> advanceSlide());
+
         searchBtn.addActionListener(e -> {
             String query = searchField.getText().trim();
             if (query.isEmpty()) {
                 JOptionPane.showMessageDialog(this, "生物名を入力してください。", "エラー", JOptionPane.ERROR_MESSAGE);
                 return;
             }
+            startSearch(query);
+        });
+        searchField.addActionListener(e -> searchBtn.doClick());
+
+        // キー入力のたびにタイマーをやり直し、入力が止まったときだけ問い合わせる
+        suggestTimer.setRepeats(false);
+        suggestionPopup.setFocusable(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) { onSearchTextChanged(); }
+            @Override
+            public void removeUpdate(DocumentEvent e) { onSearchTextChanged(); }
+            @Override
+            public void changedUpdate(DocumentEvent e) { onSearchTextChanged(); }
+        });
+    }
+
+    private void onSearchTextChanged() {
+        if (settingSearchText) return;
+        suggestTimer.restart();
+    }
+
+    private void requestSuggestions() {
+        String text = searchField.getText();
+        if (text.isBlank()) {
+            suggestionPopup.setVisible(false);
+            return;
+        }
+        // 古い問い合わせはTaxonAutocompleteが取り消す。応答が届いた時点で入力が変わっていれば表示しない
+        autocomplete.suggest(text).whenComplete((suggestions, error) -> SwingUtilities.invokeLater(() -> {
+            if (error != null || !text.equals(searchField.getText())) return;
+            showSuggestions(suggestions);
+        }));
+    }
+
+    private void showSuggestions(List<TaxonAutocomplete.Suggestion> suggestions) {
+        suggestionPopup.setVisible(false);
+        suggestionPopup.removeAll();
+        if (suggestions.isEmpty() || !searchField.isShowing()) return;
+        for (TaxonAutocomplete.Suggestion suggestion : suggestions) {
+            JMenuItem item = new JMenuItem(suggestion.label());
+            item.addActionListener(e -> {
+                settingSearchText = true;
+                try {
+                    searchField.setText(suggestion.searchText());
+                } finally {
+                    settingSearchText = false;
+                }
+                startSearch(suggestion.searchText());
+            });
+            suggestionPopup.add(item);
+        }
+        suggestionPopup.show(searchField, 0, searchField.getHeight());
+        searchField.requestFocusInWindow();
+    }
+
+    private static Thread daemonThread(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    // UIスレッドから呼ぶ。実行中の検索と先読みを取り消してから、新しい検索をバックグラウンドで始める
+    private void startSearch(String query) {
+        int generation = ++searchGeneration;
+        if (searchTask != null) {
+            searchTask.cancel(true);
+        }
+        suggestTimer.stop();
+        suggestionPopup.setVisible(false);
+        stopSlideshow();
+        String cacheKey = TaxonAutocomplete.normalize(query);
+        List<Slide> cached = searchCache.get(cacheKey);
+        if (cached != null) {
+            startSlideshow(cached);
+            return;
+        }
+        infoLabel.setText("検索中...");
+        searchTask = searchExecutor.submit(() -> {
             try {
-                searchAndShowImages(query);
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(this, "検索中にエラーが発生しました。", "エラー", JOptionPane.ERROR_MESSAGE);
+                List<Slide> found = searchSlides(query);
+                SwingUtilities.invokeLater(() -> {
+                    searchCache.put(cacheKey, found);
+                    if (generation == searchGeneration) startSlideshow(found);
+                });
+            } catch (InterruptedException e) {
+                // 新しい検索に置き換えられた
+            } catch (Exception e) {
+                SwingUtilities.invokeLater(() -> {
+                    if (generation != searchGeneration) return;
+                    imageLabel.setIcon(null);
+                    infoLabel.setText(e.getMessage() != null ? e.getMessage() : "");
+                    JOptionPane.showMessageDialog(this, "検索中にエラーが発生しました。", "エラー", JOptionPane.ERROR_MESSAGE);
+                });
             }
         });
     }
 
-    private void searchAndShowImages(String query) throws IOException, InterruptedException {
-        imageUrls.clear();
-        currentIndex = 0;
+    // バックグラウンドで呼ぶ。観察データを検索してスライドの一覧にする（見つからなければ空）
+    private List<Slide> searchSlides(String query) throws IOException, InterruptedException {
         String encodedQuery = URLEncoder.encode(query, StandardCharsets.UTF_8);
         String requestUrl = API_URL + "?q=" + encodedQuery + "&per_page=10";
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(requestUrl))
                 .GET()
                 .build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        if (response.statusCode() == 200) {
-            JsonObject obj = gson.fromJson(response.body(), JsonObject.class);
-            JsonArray results = obj.getAsJsonArray("results");
-            if (results == null || results.size() == 0) {
-                imageLabel.setIcon(null);
-                infoLabel.setText("該当する観察データが見つかりませんでした。");
-                if (timer != null) timer.stop();
-                return;
-            }
-            List<String> infoList = new ArrayList<>();
-            for (int i = 0; i < results.size(); i++) {
-                JsonObject obs = results.get(i).getAsJsonObject();
-                String speciesGuess = (obs.has("species_guess") && !obs.get("species_guess").isJsonNull()) ? obs.get("species_guess").getAsString() : "-";
-                String place = (obs.has("place_guess") && !obs.get("place_guess").isJsonNull()) ? obs.get("place_guess").getAsString() : "-";
-                String observedOn = (obs.has("observed_on") && !obs.get("observed_on").isJsonNull()) ? obs.get("observed_on").getAsString() : "-";
-                if (obs.has("photos") && obs.get("photos").isJsonArray()) {
-                    JsonArray photos = obs.getAsJsonArray("photos");
-                    for (int j = 0; j < photos.size(); j++) {
-                        JsonObject photoObj = photos.get(j).getAsJsonObject();
-                        if (photoObj.has("url") && !photoObj.get("url").isJsonNull()) {
-                            String url = photoObj.get("url").getAsString();
-                            // サムネイルURLをlarge.jpgに置換して高解像度画像を取得
-                            if (url.endsWith("square.jpg")) {
-                                url = url.replace("square.jpg", "large.jpg");
-                            } else if (url.endsWith("small.jpg")) {
-                                url = url.replace("small.jpg", "large.jpg");
-                            } else if (url.endsWith("medium.jpg")) {
-                                url = url.replace("medium.jpg", "large.jpg");
-                            }
-                            imageUrls.add(url);
-                            infoList.add("種名: " + speciesGuess + " / 場所: " + place + " / 観察日: " + observedOn);
-                        }
-                    }
-                }
+        HttpResponse<InputStream> response = SharedHttpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        List<Observation> results;
+        try (InputStream body = response.body()) {
+            if (response.statusCode() != 200) {
+                throw new IOException("APIエラー: " + response.statusCode());
             }
-            if (imageUrls.isEmpty()) {
-                imageLabel.setIcon(null);
-                infoLabel.setText("画像が見つかりませんでした。");
-                if (timer != null) timer.stop();
-                return;
+            results = Observation.readPage(body).results();
+        }
+        List<Slide> found = new ArrayList<>();
+        for (Observation obs : results) {
+            String info = "種名: " + obs.speciesGuessOrDash() + " / 場所: " + obs.placeGuessOrDash() + " / 観察日: " + obs.observedOnOrDash();
+            for (String url : obs.photoUrls()) {
+                // 表示する解像度は読み込むときに決める
+                found.add(new Slide(url, info));
             }
-            // スライドショー開始
-            showImage(infoList);
-            if (timer != null) timer.stop();
-            timer = new Timer(2500, new ActionListener() {
-                int idx = 0;
-                @Override
-                public void actionPerformed(ActionEvent e) {
-                    currentIndex = (currentIndex + 1) % imageUrls.size();
-                    showImage(infoList);
-                }
-            });
-            timer.start();
-        } else {
+        }
+        return found;
+    }
+
+    private void startSlideshow(List<Slide> found) {
+        if (found.isEmpty()) {
             imageLabel.setIcon(null);
-            infoLabel.setText("APIエラー: " + response.statusCode());
-            if (timer != null) timer.stop();
+            infoLabel.setText("画像が見つかりませんでした。");
+            return;
+        }
+        slides = found;
+        currentIndex = 0;
+        infoLabel.setText("画像を読み込み中...");
+        // 1枚目は届いた段階から表示し、以降はタイマーで用意できた画像に差し替える
+        loadImage(0);
+        prefetchAhead();
+        timer.start();
+    }
+
+    private void stopSlideshow() {
+        timer.stop();
+        for (SlideLoad loading : loadingImages.values()) {
+            loading.cancel();
         }
+        loadingImages.clear();
+        slides = List.of();
     }
 
-    private void showImage(List<String> infoList) {
-        try {
-            ImageIcon icon = new ImageIcon(new java.net.URL(imageUrls.get(currentIndex)));
-            Image img = icon.getImage().getScaledInstance(400, 300, Image.SCALE_SMOOTH);
-            imageLabel.setIcon(new ImageIcon(img));
-            infoLabel.setText(infoList.get(currentIndex));
-        } catch (Exception e) {
+    // タイマーから呼ばれる。次の画像がどの解像度でも届いていなければ今の画像のまま待つ
+    private void advanceSlide() {
+        if (slides.isEmpty()) return;
+        int next = (currentIndex + 1) % slides.size();
+        if (!loadImage(next).isReady()) return;
+        currentIndex = next;
+        showBestStage(next);
+        prefetchAhead();
+    }
+
+    // 現在のスライドについて、届いている中で最も解像度の高い画像を表示する（UIスレッドでは待たない）
+    private void showBestStage(int index) {
+        SlideLoad loading = loadingImages.get(index);
+        if (loading == null || index != currentIndex) return;
+        for (int stage = loading.stages.size() - 1; stage > loading.shownStage; stage--) {
+            CompletableFuture<BufferedImage> future = loading.stages.get(stage);
+            if (future.isDone() && !future.isCompletedExceptionally()) {
+                loading.shownStage = stage;
+                imageLabel.setIcon(new ImageIcon(future.join()));
+                infoLabel.setText(slides.get(index).info());
+                return;
+            }
+        }
+        if (loading.shownStage < 0 && loading.isReady()) {
             imageLabel.setIcon(null);
             infoLabel.setText("画像の取得に失敗しました。");
         }
     }
 
+    // 現在のスライドからPREFETCH_AHEAD枚先までを読み込み、範囲外になった読み込みは取り消す
+    private void prefetchAhead() {
+        int window = Math.min(PREFETCH_AHEAD, slides.size() - 1);
+        for (int i = 1; i <= window; i++) {
+            loadImage((currentIndex + i) % slides.size());
+        }
+        Iterator<Map.Entry<Integer, SlideLoad>> it = loadingImages.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, SlideLoad> entry = it.next();
+            int distance = Math.floorMod(entry.getKey() - currentIndex, slides.size());
+            if (distance > window) {
+                // ダウンロード中なら中断する。届いた画像はImageCacheに残るので、一巡して戻ってきたときはすぐ取り出せる
+                entry.getValue().cancel();
+                it.remove();
+            }
+        }
+    }
+
+    // スライドの読み込みを始める（始めていればそれを返す）。square → 中間 → 目標の解像度の順に取得する
+    private SlideLoad loadImage(int index) {
+        SlideLoad existing = loadingImages.get(index);
+        if (existing != null) return existing;
+        SlideLoad loading = new SlideLoad();
+        loadingImages.put(index, loading);
+        int width = imageLabel.getWidth() > 0 ? imageLabel.getWidth() : DEFAULT_IMAGE_WIDTH;
+        int height = imageLabel.getHeight() > 0 ? imageLabel.getHeight() : DEFAULT_IMAGE_HEIGHT;
+        int generation = searchGeneration;
+        List<String> urls = stageUrls(slides.get(index).url(), Math.max(width, height));
+        for (int i = 0; i < urls.size(); i++) {
+            String url = urls.get(i);
+            CompletableFuture<BufferedImage> stage = new CompletableFuture<>();
+            loading.stages.add(stage);
+            ExecutorService loader = i == 0 && urls.size() > 1 ? previewLoader : imageLoader;
+            loading.tasks.add(loader.submit(() -> {
+                try {
+                    // 2回目以降はキャッシュから縮小済みの画像を取り出す
+                    stage.complete(ImageCache.shared().getFitted(url, width, height));
+                } catch (IOException | InterruptedException | RuntimeException e) {
+                    stage.completeExceptionally(e);
+                }
+                SwingUtilities.invokeLater(() -> {
+                    if (generation == searchGeneration && loadingImages.get(index) == loading) showBestStage(index);
+                });
+            }));
+        }
+        return loading;
+    }
+
+    // 表示枠の長辺と推定回線速度から、取得する写真のURLを低解像度から順に返す
+    private List<String> stageUrls(String url, int longEdge) {
+        Matcher m = PHOTO_SIZE_PATTERN.matcher(url);
+        if (!m.find()) {
+            return List.of(url); // iNaturalistの形式でなければそのまま使う
+        }
+        int target = choosePhotoSize(longEdge, ImageCache.shared().estimatedBytesPerSecond());
+        List<String> urls = new ArrayList<>(3);
+        urls.add(photoUrl(m, url, 0));
+        // 目標が大きい場合は中間の解像度を挟む
+        if (target >= 3) urls.add(photoUrl(m, url, target - 1));
+        if (target > 0) urls.add(photoUrl(m, url, target));
+        return urls;
+    }
+
+    /**
+     * 取得する写真サイズを選ぶ。表示枠の長辺以上の最小サイズを基本とし、
+     * 回線速度が分かっていれば、スライドの表示間隔の半分で届かないサイズは避ける。
+     * @return PHOTO_SIZES の添字
+     */
+    static int choosePhotoSize(int longEdge, double bytesPerSecond) {
+        int size = 1;
+        while (size < PHOTO_SIZES.length - 1 && PHOTO_LONG_EDGES[size] < longEdge) {
+            size++;
+        }
+        if (bytesPerSecond > 0) {
+            double budgetBytes = bytesPerSecond * SLIDE_INTERVAL_MILLIS / 2000.0;
+            while (size > 1 && PHOTO_APPROX_BYTES[size] > budgetBytes) {
+                size--;
+            }
+        }
+        return size;
+    }
+
+    private static String photoUrl(Matcher m, String url, int size) {
+        String query = m.group(3) != null ? m.group(3) : "";
+        return url.substring(0, m.start()) + "/" + PHOTO_SIZES[size] + "." + m.group(2) + query;
+    }
+
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
             INaturalistSwingSlideshow frame = new INaturalistSwingSlideshow();
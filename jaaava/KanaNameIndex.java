@@ -0,0 +1,365 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ポケモンの日本語名を、かなの表記ゆれを吸収した形（正規化済み）でトライ木に登録した索引。
+ * <ul>
+ *   <li>ひらがな→カタカナ、半角カナ→全角（濁点・半濁点の合成を含む）、全角英数→半角、長音記号の揺れ（～ － - など）→「ー」</li>
+ *   <li>空白や「・」「：」などの記号は無視する</li>
+ * </ul>
+ * 回答の判定は、あらかじめ確保したバッファ上で正規化とトライ木の探索を行うので、判定のたびにオブジェクトを生成しない。
+ * 1文字程度の打ち間違いは許容し、ヒントは「他の名前と区別できる最短の接頭辞」に向かって段階的に伸ばす。
+ * <p>
+ * このクラスはスレッドセーフではない（PokeQSessionのワーカースレッドなど、1つのスレッドから使うこと）。
+ */
+public class KanaNameIndex {
+
+    /** 回答の判定結果 */
+    public enum Match {
+        /** 完全に一致 */
+        EXACT,
+        /** 小さな打ち間違い（編集距離が許容範囲内） */
+        NEAR,
+        /** 別のポケモンの名前と一致 */
+        OTHER_NAME,
+        /** 不正解 */
+        WRONG
+    }
+
+    // 半角カナ (U+FF66〜U+FF9D) に対応する全角カナ
+    private static final String HALF_WIDTH_KANA =
+            "ヲァィゥェォャュョッーアイウエオカキクケコサシスセソタチツテトナニヌネノハヒフヘホマミムメモヤユヨラリルレロワン";
+    private static final int NO_NAME = -1;
+
+    // トライ木のノード（配列で保持）。0番がルート
+    private char[] labels = new char[256];
+    private int[] firstChild = new int[256];
+    private int[] nextSibling = new int[256];
+    private int[] nameIds = new int[256];
+    private int[] subtreeCounts = new int[256];
+    private int nodeCount = 1;
+
+    private final List<String> names = new ArrayList<>();
+    private final List<char[]> foldedNames = new ArrayList<>();
+    private final Map<String, Integer> idsByName = new HashMap<>();
+
+    // 判定用の作業バッファ（使い回す）
+    private char[] scratch = new char[32];
+    private int[] previousRow = new int[33];
+    private int[] currentRow = new int[33];
+
+    public KanaNameIndex() {
+        firstChild[0] = -1;
+        nextSibling[0] = -1;
+        nameIds[0] = NO_NAME;
+    }
+
+    /**
+     * スナップショットに含まれる全ポケモンの日本語名（カタカナ表記を優先）から索引を作る
+     */
+    public static KanaNameIndex fromSnapshot(PokedexSnapshot snapshot) {
+        KanaNameIndex index = new KanaNameIndex();
+        for (int i = 0; i < snapshot.count(); i++) {
+            PokedexSnapshot.Entry entry = snapshot.get(i);
+            String name = entry.jaHrktName() != null ? entry.jaHrktName() : entry.jaName();
+            if (name != null) {
+                index.add(name);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 名前を登録する。登録済みなら既存のIDを返す。
+     * @param name 表示用の名前
+     * @return 名前のID
+     */
+    public int add(String name) {
+        Integer existing = idsByName.get(name);
+        if (existing != null) return existing;
+
+        int length = fold(name);
+        char[] folded = Arrays.copyOf(scratch, length);
+        int node = 0;
+        for (char c : folded) {
+            int child = findChild(node, c);
+            if (child < 0) {
+                child = newNode(node, c);
+            }
+            node = child;
+        }
+        int id = names.size();
+        names.add(name);
+        foldedNames.add(folded);
+        idsByName.put(name, id);
+        if (nameIds[node] == NO_NAME) {
+            nameIds[node] = id;
+            // 新しい名前なので、経路上の各ノードの配下件数を1増やす
+            int n = 0;
+            subtreeCounts[0]++;
+            for (char c : folded) {
+                n = findChild(n, c);
+                subtreeCounts[n]++;
+            }
+        }
+        ensureRowCapacity(length);
+        return id;
+    }
+
+    /** 登録されている名前の数（正規化後に重複するものは1件と数える） */
+    public int size() {
+        return subtreeCounts[0];
+    }
+
+    /** IDに対応する表示用の名前 */
+    public String name(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * 回答を判定する
+     * @param answer 入力された回答
+     * @param correctId 正解の名前のID
+     * @return 判定結果
+     */
+    public Match match(CharSequence answer, int correctId) {
+        int length = fold(answer);
+        char[] correct = foldedNames.get(correctId);
+        if (length == correct.length && Arrays.equals(scratch, 0, length, correct, 0, length)) {
+            return Match.EXACT;
+        }
+        int node = walk(scratch, length);
+        if (node > 0 && nameIds[node] != NO_NAME) {
+            // 正規化後に同じになる別名（例: 同じ読みの別表記）は正解と同じノードになる
+            return nameIds[node] == nameIdOf(correctId) ? Match.EXACT : Match.OTHER_NAME;
+        }
+        int allowed = allowedDistance(correct.length);
+        if (allowed > 0 && editDistance(scratch, length, correct, allowed) <= allowed) {
+            return Match.NEAR;
+        }
+        return Match.WRONG;
+    }
+
+    /**
+     * hintLevel段目のヒントを返す。
+     * ヒントは、その接頭辞に一致する候補の数が減る位置ごとに伸びていき、他と区別できる最短の接頭辞に達した後は1文字ずつ伸びる。
+     * 名前全体は明かさない（名前が1文字ならnull）。
+     * @param id 正解の名前のID
+     * @param hintLevel 何段目のヒントか（1以上）
+     * @return ヒントの文字列（正規化後の表記）
+     */
+    public String hint(int id, int hintLevel) {
+        char[] folded = foldedNames.get(id);
+        if (folded.length <= 1) return null;
+        int length = Math.min(hintLength(folded, hintLevel), folded.length - 1);
+        return new String(folded, 0, length);
+    }
+
+    /**
+     * ヒントの接頭辞に一致する名前の数
+     */
+    public int candidateCount(String hint) {
+        int length = fold(hint);
+        int node = walk(scratch, length);
+        return node < 0 ? 0 : subtreeCounts[node];
+    }
+
+    /**
+     * 他の名前と区別できる最短の接頭辞の長さ（正規化後の文字数）
+     */
+    public int uniquePrefixLength(int id) {
+        char[] folded = foldedNames.get(id);
+        int node = 0;
+        for (int depth = 0; depth < folded.length; depth++) {
+            node = findChild(node, folded[depth]);
+            if (subtreeCounts[node] == 1) return depth + 1;
+        }
+        return folded.length;
+    }
+
+    /**
+     * 入力途中の文字列から始まる名前を返す（入力補完用）
+     * @param prefix 入力途中の文字列
+     * @param limit 最大件数
+     * @return 一致する名前（トライ木の順）
+     */
+    public List<String> complete(CharSequence prefix, int limit) {
+        List<String> result = new ArrayList<>();
+        int node = walk(scratch, fold(prefix));
+        if (node >= 0) {
+            collect(node, limit, result);
+        }
+        return result;
+    }
+
+    private void collect(int node, int limit, List<String> result) {
+        if (result.size() >= limit) return;
+        if (nameIds[node] != NO_NAME) {
+            result.add(names.get(nameIds[node]));
+        }
+        for (int child = firstChild[node]; child >= 0 && result.size() < limit; child = nextSibling[child]) {
+            collect(child, limit, result);
+        }
+    }
+
+    // 候補の数が減る位置をhintLevel個たどった長さ。区別できる長さに達した後は1文字ずつ伸ばす
+    private int hintLength(char[] folded, int hintLevel) {
+        int node = 0;
+        int level = 0;
+        for (int depth = 0; depth < folded.length; depth++) {
+            int child = findChild(node, folded[depth]);
+            boolean narrowed = subtreeCounts[child] < subtreeCounts[node];
+            node = child;
+            if (narrowed || subtreeCounts[node] == 1) {
+                level++;
+            }
+            if (level >= hintLevel) return depth + 1;
+        }
+        return folded.length;
+    }
+
+    private int nameIdOf(int id) {
+        char[] folded = foldedNames.get(id);
+        return nameIds[walk(folded, folded.length)];
+    }
+
+    // 名前が長いほど、許容する打ち間違いを増やす
+    private static int allowedDistance(int length) {
+        if (length >= 8) return 2;
+        if (length >= 4) return 1;
+        return 0;
+    }
+
+    // 上限付きのレーベンシュタイン距離（上限を超えた時点で打ち切る）
+    private int editDistance(char[] a, int aLength, char[] b, int limit) {
+        if (Math.abs(aLength - b.length) > limit) return limit + 1;
+        ensureRowCapacity(Math.max(aLength, b.length));
+        int[] prev = previousRow;
+        int[] curr = currentRow;
+        for (int j = 0; j <= b.length; j++) prev[j] = j;
+        for (int i = 1; i <= aLength; i++) {
+            curr[0] = i;
+            int rowMin = curr[0];
+            for (int j = 1; j <= b.length; j++) {
+                int cost = a[i - 1] == b[j - 1] ? 0 : 1;
+                curr[j] = Math.min(Math.min(curr[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+                rowMin = Math.min(rowMin, curr[j]);
+            }
+            if (rowMin > limit) return limit + 1;
+            int[] swap = prev;
+            prev = curr;
+            curr = swap;
+        }
+        return prev[b.length];
+    }
+
+    private void ensureRowCapacity(int length) {
+        if (previousRow.length <= length) {
+            previousRow = new int[length + 1];
+            currentRow = new int[length + 1];
+        }
+    }
+
+    private int walk(char[] text, int length) {
+        int node = 0;
+        for (int i = 0; i < length && node >= 0; i++) {
+            node = findChild(node, text[i]);
+        }
+        return node;
+    }
+
+    private int findChild(int node, char c) {
+        for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+            if (labels[child] == c) return child;
+        }
+        return -1;
+    }
+
+    private int newNode(int parent, char c) {
+        if (nodeCount == labels.length) {
+            int capacity = labels.length * 2;
+            labels = Arrays.copyOf(labels, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            nameIds = Arrays.copyOf(nameIds, capacity);
+            subtreeCounts = Arrays.copyOf(subtreeCounts, capacity);
+        }
+        int node = nodeCount++;
+        labels[node] = c;
+        firstChild[node] = -1;
+        nameIds[node] = NO_NAME;
+        subtreeCounts[node] = 0;
+        nextSibling[node] = firstChild[parent];
+        firstChild[parent] = node;
+        return node;
+    }
+
+    // textを正規化してscratchに書き込み、正規化後の長さを返す
+    private int fold(CharSequence text) {
+        if (scratch.length < text.length()) {
+            scratch = new char[text.length() * 2];
+        }
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            // 濁点・半濁点（半角、結合文字、全角）は直前の文字に合成する
+            if (c == '\uFF9E' || c == '\u3099' || c == '\u309B') {
+                if (length > 0) scratch[length - 1] = voiced(scratch[length - 1]);
+                continue;
+            }
+            if (c == '\uFF9F' || c == '\u309A' || c == '\u309C') {
+                if (length > 0) scratch[length - 1] = semiVoiced(scratch[length - 1]);
+                continue;
+            }
+            char folded = foldChar(c);
+            if (folded != 0) {
+                scratch[length++] = folded;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 1文字を正規化する。無視する文字なら0を返す。
+     */
+    static char foldChar(char c) {
+        if (c >= 'ぁ' && c <= 'ゖ' || c == 'ゝ' || c == 'ゞ') {
+            return (char) (c + 0x60); // ひらがな→カタカナ
+        }
+        if (c >= 'ァ' && c <= 'ヺ' || c == 'ヽ' || c == 'ヾ' || c == 'ー') {
+            return c;
+        }
+        if (c >= 'ｦ' && c <= 'ﾝ') {
+            return HALF_WIDTH_KANA.charAt(c - 'ｦ');
+        }
+        if (c >= '！' && c <= '～') {
+            c = (char) (c - 0xFEE0); // 全角英数記号→半角
+        }
+        switch (c) {
+            case '-', '~', '‐', '—', '―', '〜', '−' -> { return 'ー'; }
+            case '♂', '♀' -> { return c; }
+            default -> { }
+        }
+        if (c >= 'a' && c <= 'z') return (char) (c - 0x20);
+        if (c >= 'A' && c <= 'Z' || c >= '0' && c <= '9') return c;
+        return 0;
+    }
+
+    // 濁点を付けた文字（付けられない文字はそのまま）
+    static char voiced(char c) {
+        if (c >= 'カ' && c <= 'チ' && (c - 'カ') % 2 == 0) return (char) (c + 1);
+        if (c >= 'ツ' && c <= 'ト' && (c - 'ツ') % 2 == 0) return (char) (c + 1);
+        if (c >= 'ハ' && c <= 'ホ' && (c - 'ハ') % 3 == 0) return (char) (c + 1);
+        if (c == 'ウ') return 'ヴ';
+        return c;
+    }
+
+    // 半濁点を付けた文字（付けられない文字はそのまま）
+    static char semiVoiced(char c) {
+        if (c >= 'ハ' && c <= 'ホ' && (c - 'ハ') % 3 == 0) return (char) (c + 2);
+        return c;
+    }
+}
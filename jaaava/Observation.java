@@ -0,0 +1,197 @@
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * iNaturalistの観察データのうち、このプロジェクトで使う項目だけを持つレコード。
+ * APIの観察データは非常に大きい（分類情報やユーザー情報などを含む）ため、
+ * JsonReaderでストリームのまま読み、必要な項目以外は読み飛ばしてデコードする。
+ * INaturalistSearchClient と INaturalistSwingSlideshow で共通に使う。
+ *
+ * @param id 観察ID
+ * @param speciesGuess 種名（ない場合はnull）
+ * @param placeGuess 場所（ない場合はnull）
+ * @param observedOn 観察日 yyyy-MM-dd（ない場合はnull）
+ * @param photoUrls 写真のURL（APIが返す square.jpg などのサムネイルURL）
+ * @param taxonName 同定された分類の学名（ない場合はnull）
+ * @param latitude 緯度（位置が非公開などでない場合はNaN）
+ * @param longitude 経度（ない場合はNaN）
+ * @param updatedAt 最終更新日時 ISO-8601（ない場合はnull）
+ */
+public record Observation(long id, String speciesGuess, String placeGuess, String observedOn, List<String> photoUrls,
+                          String taxonName, double latitude, double longitude, String updatedAt) {
+
+    /** 位置・分類・更新日時を持たない観察データ */
+    public Observation(long id, String speciesGuess, String placeGuess, String observedOn, List<String> photoUrls) {
+        this(id, speciesGuess, placeGuess, observedOn, photoUrls, null, Double.NaN, Double.NaN, null);
+    }
+
+    /** 位置情報があるかどうか */
+    public boolean hasLocation() {
+        return !Double.isNaN(latitude) && !Double.isNaN(longitude);
+    }
+
+    /**
+     * 検索結果1ページ分
+     * @param totalResults 条件に一致する全件数
+     * @param results このページの観察データ
+     */
+    public record Page(int totalResults, List<Observation> results) {}
+
+    /** 種名（ない場合は "-"） */
+    public String speciesGuessOrDash() {
+        return speciesGuess != null ? speciesGuess : "-";
+    }
+
+    /** 場所（ない場合は "-"） */
+    public String placeGuessOrDash() {
+        return placeGuess != null ? placeGuess : "-";
+    }
+
+    /** 観察日（ない場合は "-"） */
+    public String observedOnOrDash() {
+        return observedOn != null ? observedOn : "-";
+    }
+
+    /**
+     * /v1/observations のレスポンスボディをデコードする
+     */
+    public static Page readPage(InputStream body) throws IOException {
+        try (JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            return readPage(reader);
+        }
+    }
+
+    /**
+     * /v1/observations のレスポンス（total_results と results だけを読む）
+     */
+    public static Page readPage(JsonReader reader) throws IOException {
+        int totalResults = 0;
+        List<Observation> results = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("total_results") && reader.peek() == JsonToken.NUMBER) {
+                totalResults = reader.nextInt();
+            } else if (name.equals("results") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    results.add(read(reader));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new Page(totalResults, results);
+    }
+
+    /**
+     * 観察データ1件を読む
+     */
+    public static Observation read(JsonReader reader) throws IOException {
+        long id = 0;
+        String speciesGuess = null;
+        String placeGuess = null;
+        String observedOn = null;
+        List<String> photoUrls = List.of();
+        String taxonName = null;
+        String location = null;
+        String updatedAt = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id" -> id = reader.peek() == JsonToken.NUMBER ? reader.nextLong() : skip(reader, 0L);
+                case "species_guess" -> speciesGuess = nextStringOrNull(reader);
+                case "place_guess" -> placeGuess = nextStringOrNull(reader);
+                case "observed_on" -> observedOn = nextStringOrNull(reader);
+                case "photos" -> photoUrls = readPhotoUrls(reader);
+                case "taxon" -> taxonName = readTaxonName(reader);
+                case "location" -> location = nextStringOrNull(reader);
+                case "updated_at" -> updatedAt = nextStringOrNull(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+        // location は "緯度,経度" の文字列
+        int comma = location != null ? location.indexOf(',') : -1;
+        if (comma > 0) {
+            try {
+                latitude = Double.parseDouble(location.substring(0, comma).trim());
+                longitude = Double.parseDouble(location.substring(comma + 1).trim());
+            } catch (NumberFormatException e) {
+                latitude = Double.NaN;
+                longitude = Double.NaN;
+            }
+        }
+        return new Observation(id, speciesGuess, placeGuess, observedOn, photoUrls, taxonName, latitude, longitude, updatedAt);
+    }
+
+    // taxon.name だけを読む
+    private static String readTaxonName(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        String name = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("name")) {
+                name = nextStringOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return name;
+    }
+
+    // photos[].url を読む
+    private static List<String> readPhotoUrls(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return List.of();
+        }
+        List<String> urls = new ArrayList<>(4);
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("url")) {
+                    String url = nextStringOrNull(reader);
+                    if (url != null) urls.add(url);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+        return urls;
+    }
+
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.STRING || reader.peek() == JsonToken.NUMBER) {
+            return reader.nextString();
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    private static <T> T skip(JsonReader reader, T defaultValue) throws IOException {
+        reader.skipValue();
+        return defaultValue;
+    }
+}
@@ -0,0 +1,95 @@
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * iNaturalistの観察データ解析の簡易ベンチマーク。
+ * /v1/observations の1ページ（200件、各観察に分類・ユーザー・同定情報などを含む）と同じ形のJSONを用意し、
+ * 従来の「JsonObjectツリーを作って has()/get() で取り出す」方式と、Observation.readPage のストリーム解析を比較する。
+ */
+public class ObservationParseBenchmark {
+
+    private static final int OBSERVATIONS_PER_PAGE = 200;
+
+    // 観察データ1件分（実際のAPIと同程度に大きな taxon / user / identifications を含む）
+    private static void appendObservation(StringBuilder sb, int id) {
+        sb.append("{\"id\":").append(id).append(",\"quality_grade\":\"research\",\"time_observed_at\":\"2024-05-0")
+                .append(id % 9 + 1).append("T10:00:00+09:00\",\"taxon_geoprivacy\":null,\"annotations\":[],")
+                .append("\"uuid\":\"00000000-0000-0000-0000-").append(String.format("%012d", id)).append("\",")
+                .append("\"observed_on_details\":{\"date\":\"2024-05-01\",\"week\":18,\"month\":5,\"hour\":10,\"year\":2024,\"day\":1},")
+                .append("\"species_guess\":\"ニホンアマガエル\",\"place_guess\":\"大阪府大阪市\",\"observed_on\":\"2024-05-01\",")
+                .append("\"location\":\"34.6937,135.5023\",\"taxon\":{\"id\":24263,\"name\":\"Dryophytes japonicus\",\"rank\":\"species\",")
+                .append("\"ancestor_ids\":[48460,1,2,355675,20978,20979,25473,24230,24263],\"preferred_common_name\":\"ニホンアマガエル\",")
+                .append("\"default_photo\":{\"id\":1,\"license_code\":\"cc-by\",\"attribution\":\"(c) someone\",")
+                .append("\"url\":\"https://inaturalist-open-data.s3.amazonaws.com/photos/1/square.jpg\",\"original_dimensions\":{\"height\":1536,\"width\":2048}},")
+                .append("\"wikipedia_url\":\"http://en.wikipedia.org/wiki/Japanese_tree_frog\",\"observations_count\":12345},")
+                .append("\"user\":{\"id\":").append(id % 97).append(",\"login\":\"user").append(id % 97)
+                .append("\",\"name\":\"Observer\",\"observations_count\":321,\"icon_url\":\"https://static.inaturalist.org/attachments/users/icons/1/thumb.jpg\"},")
+                .append("\"identifications\":[");
+        for (int i = 0; i < 4; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"id\":").append(id * 10 + i).append(",\"current\":true,\"category\":\"improving\",\"body\":null,")
+                    .append("\"taxon\":{\"id\":24263,\"name\":\"Dryophytes japonicus\",\"rank\":\"species\",\"ancestor_ids\":[48460,1,2,355675,20978]},")
+                    .append("\"user\":{\"id\":").append(i).append(",\"login\":\"identifier").append(i).append("\"}}");
+        }
+        sb.append("],\"photos\":[");
+        for (int p = 0; p < 3; p++) {
+            if (p > 0) sb.append(',');
+            sb.append("{\"id\":").append(id * 10 + p).append(",\"license_code\":\"cc-by-nc\",\"attribution\":\"(c) Observer\",")
+                    .append("\"url\":\"https://inaturalist-open-data.s3.amazonaws.com/photos/").append(id * 10 + p)
+                    .append("/square.jpg\",\"original_dimensions\":{\"height\":1536,\"width\":2048}}");
+        }
+        sb.append("]}");
+    }
+
+    static byte[] samplePageJson() {
+        StringBuilder sb = new StringBuilder(1_000_000);
+        sb.append("{\"total_results\":12345,\"page\":1,\"per_page\":").append(OBSERVATIONS_PER_PAGE).append(",\"results\":[");
+        for (int i = 0; i < OBSERVATIONS_PER_PAGE; i++) {
+            if (i > 0) sb.append(',');
+            appendObservation(sb, 1000 + i);
+        }
+        sb.append("]}");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // 変更前の INaturalistSearchClient / INaturalistSwingSlideshow と同じ取り出し方
+    private static List<Observation> parseWithTree(Gson gson, byte[] body) {
+        JsonObject obj = gson.fromJson(new String(body, StandardCharsets.UTF_8), JsonObject.class);
+        JsonArray results = obj.getAsJsonArray("results");
+        List<Observation> observations = new ArrayList<>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            JsonObject obs = results.get(i).getAsJsonObject();
+            String speciesGuess = (obs.has("species_guess") && !obs.get("species_guess").isJsonNull()) ? obs.get("species_guess").getAsString() : null;
+            String place = (obs.has("place_guess") && !obs.get("place_guess").isJsonNull()) ? obs.get("place_guess").getAsString() : null;
+            String observedOn = (obs.has("observed_on") && !obs.get("observed_on").isJsonNull()) ? obs.get("observed_on").getAsString() : null;
+            List<String> urls = new ArrayList<>();
+            if (obs.has("photos") && obs.get("photos").isJsonArray()) {
+                JsonArray photos = obs.getAsJsonArray("photos");
+                for (int j = 0; j < photos.size(); j++) {
+                    JsonObject photoObj = photos.get(j).getAsJsonObject();
+                    if (photoObj.has("url") && !photoObj.get("url").isJsonNull()) {
+                        urls.add(photoObj.get("url").getAsString());
+                    }
+                }
+            }
+            observations.add(new Observation(obs.get("id").getAsLong(), speciesGuess, place, observedOn, urls));
+        }
+        return observations;
+    }
+
+    public static void main(String[] args) throws IOException {
+        byte[] body = samplePageJson();
+        Gson gson = new Gson();
+        System.out.printf("入力JSON: %,d バイト (%d件)%n", body.length, OBSERVATIONS_PER_PAGE);
+
+        PokeApiParseBenchmark.measure("JsonObjectツリー", body, b -> parseWithTree(gson, b).size());
+        PokeApiParseBenchmark.measure("Observation.readPage", body,
+                b -> Observation.readPage(new ByteArrayInputStream(b)).results().size());
+    }
+}
@@ -0,0 +1,540 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * 取得したiNaturalistの観察データを手元に保存し、オフラインで検索するためのストア。
+ * <ul>
+ *   <li>ディスク: 観察データを追記のみのログファイルに書き足す（同じIDの観察は後の記録が優先）</li>
+ *   <li>メモリ: 種名の単語ごとのBitSet、観察日でソートした配列、緯度経度のグリッドの3つのインデックス</li>
+ * </ul>
+ * 「大阪から10km以内で2024年に観察されたX」のような条件を、ネットワークなしで数ミリ秒で答える。
+ * API との同期は検索条件ごとに前回の同期時刻を覚えておき、updated_since で差分だけを取得する。
+ */
+public class ObservationStore implements Closeable {
+
+    public static final Path DEFAULT_DIRECTORY = Paths.get(System.getProperty("user.home"), ".po_modify", "observations");
+    private static final String LOG_FILE = "observations.log";
+    private static final String SYNC_STATE_FILE = "sync-state.properties";
+    private static final int LOG_MAGIC = 0x4F42534C; // "OBSL"
+    private static final int LOG_VERSION = 1;
+    private static final int LOG_HEADER_BYTES = 8;
+    // グリッドの1マスの大きさ（度）。緯度0.1度は約11km
+    private static final double GRID_DEGREES = 0.1;
+    private static final double EARTH_RADIUS_KM = 6371.0;
+    // 同期の取りこぼしを防ぐため、前回の同期開始時刻より少し前から取得し直す
+    private static final long SYNC_OVERLAP_SECONDS = 60;
+
+    /**
+     * 円形の範囲
+     * @param latitude 中心の緯度
+     * @param longitude 中心の経度
+     * @param radiusKm 半径(km)
+     */
+    public record GeoCircle(double latitude, double longitude, double radiusKm) {}
+
+    /**
+     * 検索条件。nullの項目は「指定なし」として扱う。
+     * @param species 種名（学名・和名・英名の単語。空白区切りで複数指定するとAND検索）
+     * @param near 観察地点の範囲
+     * @param from 観察日の下限（この日を含む）
+     * @param to 観察日の上限（この日を含む）
+     */
+    public record Criteria(String species, GeoCircle near, LocalDate from, LocalDate to) {}
+
+    private final Path directory;
+    private final Path logFile;
+    private final Path syncStateFile;
+    private final Properties syncState = new Properties();
+    private final List<Observation> observations = new ArrayList<>();
+    private final Map<Long, Integer> slotById = new HashMap<>();
+    private DataOutputStream log;
+
+    // 以下は rebuildIndexes() で作り直すインデックス
+    private Map<String, BitSet> byToken = Map.of();
+    private int[] slotsByDate = new int[0];
+    private int[] sortedDays = new int[0];
+    private Map<Long, int[]> grid = Map.of();
+
+    private ObservationStore(Path directory) {
+        this.directory = directory;
+        this.logFile = directory.resolve(LOG_FILE);
+        this.syncStateFile = directory.resolve(SYNC_STATE_FILE);
+    }
+
+    /**
+     * ストアを開く。ログファイルがあれば読み込んでインデックスを作る。
+     * 書き込み途中で終了していた場合は、最後の不完全な記録を切り捨てる。
+     * @param directory ログファイルなどを置くディレクトリ
+     */
+    public static ObservationStore open(Path directory) throws IOException {
+        ObservationStore store = new ObservationStore(directory);
+        Files.createDirectories(directory);
+        if (Files.isRegularFile(store.syncStateFile)) {
+            try (InputStream in = Files.newInputStream(store.syncStateFile)) {
+                store.syncState.load(in);
+            }
+        }
+        store.readLog();
+        store.rebuildIndexes();
+        return store;
+    }
+
+    private void readLog() throws IOException {
+        if (!Files.isRegularFile(logFile) || Files.size(logFile) < LOG_HEADER_BYTES) {
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(logFile))) {
+                out.writeInt(LOG_MAGIC);
+                out.writeInt(LOG_VERSION);
+            }
+            return;
+        }
+        long validBytes;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logFile), 1 << 16))) {
+            if (in.readInt() != LOG_MAGIC || in.readInt() != LOG_VERSION) {
+                throw new IOException("観察データのログファイルの形式が違います: " + logFile);
+            }
+            validBytes = LOG_HEADER_BYTES;
+            byte[] record = new byte[256];
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                    if (length < 0) break;
+                    if (record.length < length) record = new byte[Math.max(length, record.length * 2)];
+                    in.readFully(record, 0, length);
+                } catch (EOFException e) {
+                    break;
+                }
+                put(decode(new DataInputStream(new ByteArrayInputStream(record, 0, length))));
+                validBytes += 4 + length;
+            }
+        }
+        if (validBytes < Files.size(logFile)) {
+            System.err.println("観察データのログの末尾に不完全な記録があったため切り捨てました: " + logFile);
+            try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+                channel.truncate(validBytes);
+            }
+        }
+    }
+
+    // メモリ上のデータに追加する（同じIDがあれば置き換える）
+    private void put(Observation obs) {
+        Integer slot = slotById.get(obs.id());
+        if (slot != null) {
+            observations.set(slot, obs);
+        } else {
+            slotById.put(obs.id(), observations.size());
+            observations.add(obs);
+        }
+    }
+
+    /**
+     * 観察データをログに追記し、メモリ上のデータにも反映する。
+     * インデックスには rebuildIndexes() を呼ぶまで反映されない。
+     */
+    public void append(Observation obs) throws IOException {
+        if (log == null) {
+            OutputStream out = Files.newOutputStream(logFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            log = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        }
+        byte[] record = encode(obs);
+        log.writeInt(record.length);
+        log.write(record);
+        put(obs);
+    }
+
+    /** 追記した内容をディスクに書き出す */
+    public void flush() throws IOException {
+        if (log != null) {
+            log.flush();
+        }
+    }
+
+    /**
+     * 条件に一致する観察データを API から取得してストアに追加する。
+     * 同じ条件で前回同期していれば、それ以降に更新された観察データだけを取得する。
+     * @param client 取得に使うクライアント
+     * @param params 検索条件 (例: q, taxon_id, place_id)
+     * @return 取得した件数
+     */
+    public long sync(INaturalistSearchClient client, Map<String, String> params) throws IOException {
+        String key = syncKey(params);
+        Instant started = Instant.now();
+        Map<String, String> request = new LinkedHashMap<>(params);
+        String since = syncState.getProperty(key);
+        if (since != null) {
+            request.put("updated_since", since);
+        }
+        long count = 0;
+        try (Stream<Observation> fetched = client.streamObservations(request)) {
+            Iterator<Observation> it = fetched.iterator();
+            while (it.hasNext()) {
+                append(it.next());
+                if (++count % 1000 == 0) {
+                    System.out.println(count + "件を取得しました...");
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            // 途中で失敗しても、取得できた分は残す
+            flush();
+            rebuildIndexes();
+        }
+        syncState.setProperty(key, started.minusSeconds(SYNC_OVERLAP_SECONDS).truncatedTo(ChronoUnit.SECONDS).toString());
+        saveSyncState();
+        return count;
+    }
+
+    // 検索条件を、パラメータの順序によらない文字列にする
+    private static String syncKey(Map<String, String> params) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> e : new TreeMap<>(params).entrySet()) {
+            if (sb.length() > 0) sb.append('&');
+            sb.append(e.getKey()).append('=').append(e.getValue());
+        }
+        return sb.toString();
+    }
+
+    private void saveSyncState() throws IOException {
+        Path temp = Files.createTempFile(directory, "sync", ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            syncState.store(out, "iNaturalist sync state (updated_since per query)");
+        }
+        Files.move(temp, syncStateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * メモリ上のデータからインデックスを作り直す
+     */
+    public void rebuildIndexes() {
+        Map<String, BitSet> tokens = new HashMap<>();
+        Map<Long, List<Integer>> cells = new HashMap<>();
+        int[] days = new int[observations.size()];
+        int dated = 0;
+        for (int slot = 0; slot < observations.size(); slot++) {
+            Observation obs = observations.get(slot);
+            for (String token : tokenize(obs.speciesGuess())) {
+                tokens.computeIfAbsent(token, k -> new BitSet()).set(slot);
+            }
+            for (String token : tokenize(obs.taxonName())) {
+                tokens.computeIfAbsent(token, k -> new BitSet()).set(slot);
+            }
+            if (obs.hasLocation()) {
+                cells.computeIfAbsent(cellOf(obs.latitude(), obs.longitude()), k -> new ArrayList<>()).add(slot);
+            }
+            days[slot] = epochDay(obs.observedOn());
+            if (days[slot] != Integer.MIN_VALUE) dated++;
+        }
+        // 観察日の昇順に並べたスロット番号と、その観察日
+        Integer[] order = new Integer[dated];
+        int n = 0;
+        for (int slot = 0; slot < days.length; slot++) {
+            if (days[slot] != Integer.MIN_VALUE) order[n++] = slot;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(days[a], days[b]));
+        int[] byDate = new int[dated];
+        int[] sorted = new int[dated];
+        for (int i = 0; i < dated; i++) {
+            byDate[i] = order[i];
+            sorted[i] = days[order[i]];
+        }
+        Map<Long, int[]> gridCells = new HashMap<>(cells.size() * 2);
+        for (Map.Entry<Long, List<Integer>> e : cells.entrySet()) {
+            gridCells.put(e.getKey(), e.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        byToken = tokens;
+        slotsByDate = byDate;
+        sortedDays = sorted;
+        grid = gridCells;
+    }
+
+    /**
+     * 条件に一致する観察データを返す。各条件で候補のBitSetを作り、その積を取る。
+     * @param criteria 検索条件
+     * @return 一致した観察データ（ストアへの登録順）
+     */
+    public List<Observation> query(Criteria criteria) {
+        BitSet result = new BitSet(observations.size());
+        result.set(0, observations.size());
+        if (criteria.species() != null) {
+            List<String> tokens = tokenize(criteria.species());
+            if (tokens.isEmpty()) return List.of(); // 記号だけの種名には何も一致しない（条件を外して全件を返さない）
+            for (String token : tokens) {
+                BitSet hits = byToken.get(token);
+                if (hits == null) return List.of();
+                result.and(hits);
+            }
+        }
+        if (criteria.from() != null || criteria.to() != null) {
+            result.and(slotsObservedBetween(criteria.from(), criteria.to()));
+        }
+        if (criteria.near() != null && !result.isEmpty()) {
+            narrowWithin(result, criteria.near());
+        }
+        List<Observation> matches = new ArrayList<>(result.cardinality());
+        for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+            matches.add(observations.get(i));
+        }
+        return matches;
+    }
+
+    // 観察日でソートした配列を二分探索して、期間内のスロットを集める
+    private BitSet slotsObservedBetween(LocalDate from, LocalDate to) {
+        int start = from != null ? lowerBound(sortedDays, (int) from.toEpochDay()) : 0;
+        int end = to != null ? lowerBound(sortedDays, (int) to.toEpochDay() + 1) : sortedDays.length;
+        BitSet slots = new BitSet(observations.size());
+        for (int i = start; i < end; i++) {
+            slots.set(slotsByDate[i]);
+        }
+        return slots;
+    }
+
+    private static int lowerBound(int[] sorted, int value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < value) low = mid + 1; else high = mid;
+        }
+        return low;
+    }
+
+    // 他の条件で候補が十分少なければ候補の距離を直接調べ、そうでなければグリッドを使う
+    private void narrowWithin(BitSet result, GeoCircle circle) {
+        int candidates = result.cardinality();
+        if (candidates <= countInGrid(circle)) {
+            for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+                if (!isWithin(observations.get(i), circle)) result.clear(i);
+            }
+        } else {
+            result.and(slotsWithin(circle));
+        }
+    }
+
+    private int countInGrid(GeoCircle circle) {
+        int[] cells = cellRange(circle);
+        int count = 0;
+        for (int latCell = cells[0]; latCell <= cells[1]; latCell++) {
+            for (int lonCell = cells[2]; lonCell <= cells[3]; lonCell++) {
+                int[] cell = grid.get(cellKey(latCell, lonCell));
+                if (cell != null) count += cell.length;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isWithin(Observation obs, GeoCircle circle) {
+        return obs.hasLocation()
+                && distanceKm(circle.latitude(), circle.longitude(), obs.latitude(), obs.longitude()) <= circle.radiusKm();
+    }
+
+    // 円を囲むグリッドのマスの範囲 {緯度の最小, 最大, 経度の最小, 最大}
+    private static int[] cellRange(GeoCircle circle) {
+        double latDelta = Math.toDegrees(circle.radiusKm() / EARTH_RADIUS_KM);
+        double cosLat = Math.max(Math.cos(Math.toRadians(circle.latitude())), 1e-6);
+        double lonDelta = Math.min(180, latDelta / cosLat);
+        int minLat = cellIndex(circle.latitude() - latDelta);
+        int maxLat = cellIndex(circle.latitude() + latDelta);
+        int minLon = cellIndex(circle.longitude() - lonDelta);
+        int maxLon = cellIndex(circle.longitude() + lonDelta);
+        return new int[] {minLat, maxLat, minLon, maxLon};
+    }
+
+    // 円を囲むグリッドのマスだけを調べ、中心からの距離で絞り込む
+    private BitSet slotsWithin(GeoCircle circle) {
+        BitSet slots = new BitSet(observations.size());
+        int[] cells = cellRange(circle);
+        for (int latCell = cells[0]; latCell <= cells[1]; latCell++) {
+            for (int lonCell = cells[2]; lonCell <= cells[3]; lonCell++) {
+                int[] cell = grid.get(cellKey(latCell, lonCell));
+                if (cell == null) continue;
+                for (int slot : cell) {
+                    if (isWithin(observations.get(slot), circle)) slots.set(slot);
+                }
+            }
+        }
+        return slots;
+    }
+
+    private static long cellOf(double latitude, double longitude) {
+        return cellKey(cellIndex(latitude), cellIndex(longitude));
+    }
+
+    private static int cellIndex(double degrees) {
+        return (int) Math.floor(degrees / GRID_DEGREES);
+    }
+
+    private static long cellKey(int latCell, int lonCell) {
+        return ((long) latCell << 32) | (lonCell & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 2点間の距離(km)。ハバーサインの公式で求める
+     */
+    static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private static int epochDay(String observedOn) {
+        if (observedOn == null || observedOn.length() < 10) return Integer.MIN_VALUE;
+        try {
+            return (int) LocalDate.parse(observedOn.substring(0, 10)).toEpochDay();
+        } catch (DateTimeParseException e) {
+            return Integer.MIN_VALUE;
+        }
+    }
+
+    // 種名を単語に分ける。ひらがな・カタカナ、全角・半角、大文字・小文字の違いは KanaNameIndex と同じ規則でそろえる。
+    // KanaNameIndex がそろえない漢字などの文字も、そのまま単語の一部にする（RakutenCategorySearch.fold と同じ）
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) return tokens;
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            char folded = KanaNameIndex.foldChar(c);
+            if (folded == 0 && Character.isLetterOrDigit(c)) {
+                folded = c;
+            }
+            if (folded == 0 || folded == 'ー' && token.length() == 0) {
+                if (token.length() > 0) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                }
+            } else {
+                token.append(folded);
+            }
+        }
+        if (token.length() > 0) tokens.add(token.toString());
+        return tokens;
+    }
+
+    /** ストアに保存されている観察データの件数 */
+    public int size() {
+        return observations.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+
+    // ログの1件分: ID、緯度、経度、各文字列（有無のフラグ付き）、写真URLの数とURL
+    private static byte[] encode(Observation obs) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(obs.id());
+        out.writeDouble(obs.latitude());
+        out.writeDouble(obs.longitude());
+        writeNullable(out, obs.speciesGuess());
+        writeNullable(out, obs.placeGuess());
+        writeNullable(out, obs.observedOn());
+        writeNullable(out, obs.taxonName());
+        writeNullable(out, obs.updatedAt());
+        out.writeShort(obs.photoUrls().size());
+        for (String url : obs.photoUrls()) {
+            out.writeUTF(url);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Observation decode(DataInputStream in) throws IOException {
+        long id = in.readLong();
+        double latitude = in.readDouble();
+        double longitude = in.readDouble();
+        String speciesGuess = readNullable(in);
+        String placeGuess = readNullable(in);
+        String observedOn = readNullable(in);
+        String taxonName = readNullable(in);
+        String updatedAt = readNullable(in);
+        int photoCount = in.readUnsignedShort();
+        List<String> photoUrls = new ArrayList<>(photoCount);
+        for (int i = 0; i < photoCount; i++) {
+            photoUrls.add(in.readUTF());
+        }
+        return new Observation(id, speciesGuess, placeGuess, observedOn, photoUrls, taxonName, latitude, longitude, updatedAt);
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    public static void main(String[] args) {
+        // 使い方:
+        //   ObservationStore sync <検索語>                 … APIと同期（2回目以降は差分のみ）
+        //   ObservationStore query <種名> [年] [半径km]    … 大阪周辺をオフラインで検索
+        if (args.length < 2) {
+            System.out.println("使い方: ObservationStore sync <検索語> | query <種名> [年] [半径km]");
+            return;
+        }
+        try (ObservationStore store = ObservationStore.open(DEFAULT_DIRECTORY)) {
+            System.out.println("保存済みの観察データ: " + store.size() + "件");
+            if (args[0].equals("sync")) {
+                Map<String, String> params = new LinkedHashMap<>();
+                params.put("q", args[1]);
+                long count = store.sync(new INaturalistSearchClient(), params);
+                System.out.println(count + "件を同期しました（合計 " + store.size() + "件）。");
+                return;
+            }
+            int year = args.length > 2 ? Integer.parseInt(args[2]) : 2024;
+            double radiusKm = args.length > 3 ? Double.parseDouble(args[3]) : 10;
+            // 大阪駅付近
+            Criteria criteria = new Criteria(args[1], new GeoCircle(34.7025, 135.4959, radiusKm),
+                    LocalDate.of(year, 1, 1), LocalDate.of(year, 12, 31));
+            long start = System.nanoTime();
+            List<Observation> found = store.query(criteria);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%d件見つかりました（%.2f ms）%n", found.size(), elapsed / 1e6);
+            for (Observation obs : found.subList(0, Math.min(20, found.size()))) {
+                System.out.printf("  %s / %s / %s%n", obs.speciesGuessOrDash(), obs.placeGuessOrDash(), obs.observedOnOrDash());
+            }
+        } catch (IOException e) {
+            System.err.println("観察データのストアでエラーが発生しました: " + e.getMessage());
+        } catch (NumberFormatException e) {
+            System.err.println("年・半径は数値で指定してください。");
+        }
+    }
+}
@@ -1,40 +1,219 @@
-import com.google.gson.Gson;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class PokeApiClient {
     private static final String API_BASE_URL = "https://pokeapi.co/api/v2/";
-    private final HttpClient client = HttpClient.newHttpClient();
-    private final Gson gson = new Gson();
     private final Random random = new Random();
+    private static final Pattern SPECIES_ID_PATTERN = Pattern.compile("/pokemon-species/(\\d+)/?$");
+    // ローカルスナップショット（設定されていればAPIの代わりに使う）
+    private volatile PokedexSnapshot snapshot;
+    // 一度取得したポケモンの数（未取得なら0）
+    private volatile int cachedPokemonCount;
+
+    /**
+     * ローカルスナップショットを使うように設定する。以降のランダム出題と種族情報の取得はAPIを呼ばない。
+     */
+    public void useSnapshot(PokedexSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
 
     public Optional<PokemonData.PokemonResponse> fetchRandomPokemon() throws IOException, InterruptedException {
+        PokedexSnapshot local = snapshot;
+        if (local != null && local.count() > 0) {
+            PokedexSnapshot.Entry entry = local.get(random.nextInt(local.count()));
+            return Optional.of(new PokemonData.PokemonResponse(new PokemonData.Sprites(entry.spriteUrl()),
+                    new PokemonData.Species(API_BASE_URL + "pokemon-species/" + entry.speciesId() + "/")));
+        }
         int pokemonCount = getPokemonCount().orElse(1025);
         int randomId = random.nextInt(pokemonCount) + 1;
-        return fetch(API_BASE_URL + "pokemon/" + randomId, PokemonData.PokemonResponse.class);
+        return fetchPokemonById(randomId);
     }
     public Optional<PokemonData.PokemonSpeciesResponse> fetchPokemonSpecies(String speciesUrl) throws IOException, InterruptedException {
-        return fetch(speciesUrl, PokemonData.PokemonSpeciesResponse.class);
+        PokedexSnapshot local = snapshot;
+        if (local != null) {
+            Matcher m = SPECIES_ID_PATTERN.matcher(speciesUrl);
+            if (m.find()) {
+                Optional<PokedexSnapshot.Entry> entry = local.findBySpeciesId(Integer.parseInt(m.group(1)));
+                if (entry.isPresent()) {
+                    return Optional.of(toSpeciesResponse(entry.get()));
+                }
+            }
+        }
+        return fetch(speciesUrl, PokeApiClient::readSpecies);
+    }
+    Optional<PokemonData.PokemonResponse> fetchPokemonById(int id) throws IOException, InterruptedException {
+        return fetch(API_BASE_URL + "pokemon/" + id, PokeApiClient::readPokemon);
+    }
+    Optional<PokemonData.PokemonSpeciesResponse> fetchSpeciesById(int id) throws IOException, InterruptedException {
+        return fetch(API_BASE_URL + "pokemon-species/" + id, PokeApiClient::readSpecies);
+    }
+    Optional<Integer> fetchSpeciesCount() throws IOException, InterruptedException {
+        return getPokemonCount();
+    }
+    private static PokemonData.PokemonSpeciesResponse toSpeciesResponse(PokedexSnapshot.Entry entry) {
+        List<PokemonData.NameEntry> names = new ArrayList<>(2);
+        if (entry.jaHrktName() != null) {
+            names.add(new PokemonData.NameEntry(entry.jaHrktName(), new PokemonData.Language("ja-Hrkt")));
+        }
+        if (entry.jaName() != null) {
+            names.add(new PokemonData.NameEntry(entry.jaName(), new PokemonData.Language("ja")));
+        }
+        return new PokemonData.PokemonSpeciesResponse(names);
+    }
+    /**
+     * 種族情報から日本語名を探す。カタカナ表記(ja-Hrkt)を優先し、なければ漢字表記(ja)を返す。
+     */
+    public static Optional<String> findJapaneseName(PokemonData.PokemonSpeciesResponse species) {
+        return species.names().stream()
+                .filter(n -> "ja-Hrkt".equals(n.language().name()))
+                .map(PokemonData.NameEntry::name)
+                .findFirst()
+                .or(() -> species.names().stream()
+                        .filter(n -> "ja".equals(n.language().name()))
+                        .map(PokemonData.NameEntry::name)
+                        .findFirst());
     }
     private Optional<Integer> getPokemonCount() throws IOException, InterruptedException {
-        return fetch(API_BASE_URL + "pokemon-species?limit=1", PokemonData.PokemonSpeciesListResponse.class)
+        if (cachedPokemonCount > 0) {
+            return Optional.of(cachedPokemonCount);
+        }
+        Optional<Integer> count = fetch(API_BASE_URL + "pokemon-species?limit=1", PokeApiClient::readSpeciesList)
                 .map(PokemonData.PokemonSpeciesListResponse::count);
+        count.ifPresent(c -> cachedPokemonCount = c);
+        return count;
+    }
+    /**
+     * レスポンスをストリームのまま読み、必要なフィールドだけを取り出すデコーダ
+     */
+    @FunctionalInterface
+    interface JsonDecoder<T> {
+        T read(JsonReader reader) throws IOException;
     }
-    private <T> Optional<T> fetch(String url, Class<T> classOfT) throws IOException, InterruptedException {
+
+    // ボディを文字列やJsonツリーにせず、InputStreamから直接デコードする
+    private <T> Optional<T> fetch(String url, JsonDecoder<T> decoder) throws IOException, InterruptedException {
         HttpRequest request = HttpRequest.newBuilder().uri(URI.create(url)).GET().build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        if (response.statusCode() == 200) {
-            return Optional.of(gson.fromJson(response.body(), classOfT));
+        HttpResponse<InputStream> response = SharedHttpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream body = response.body()) {
+            if (response.statusCode() == 200) {
+                return Optional.of(decode(body, decoder));
+            }
+            return Optional.empty();
         }
-        return Optional.empty();
     }
+
+    static <T> T decode(InputStream body, JsonDecoder<T> decoder) throws IOException {
+        try (JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            return decoder.read(reader);
+        }
+    }
+
+    // /pokemon/{id}: sprites.front_default と species.url だけを読み、moves などの大きな配列は読み飛ばす
+    static PokemonData.PokemonResponse readPokemon(JsonReader reader) throws IOException {
+        String frontDefault = null;
+        String speciesUrl = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "sprites" -> frontDefault = readStringField(reader, "front_default");
+                case "species" -> speciesUrl = readStringField(reader, "url");
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new PokemonData.PokemonResponse(new PokemonData.Sprites(frontDefault), new PokemonData.Species(speciesUrl));
+    }
+
+    // /pokemon-species/{id}: names[].name と names[].language.name だけを読む
+    static PokemonData.PokemonSpeciesResponse readSpecies(JsonReader reader) throws IOException {
+        List<PokemonData.NameEntry> names = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("names") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    names.add(readNameEntry(reader));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new PokemonData.PokemonSpeciesResponse(names);
+    }
+
+    // pokemon-species?limit=1: count だけを読む
+    static PokemonData.PokemonSpeciesListResponse readSpeciesList(JsonReader reader) throws IOException {
+        int count = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("count") && reader.peek() == JsonToken.NUMBER) {
+                count = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new PokemonData.PokemonSpeciesListResponse(count);
+    }
+
+    private static PokemonData.NameEntry readNameEntry(JsonReader reader) throws IOException {
+        String name = null;
+        String language = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "name" -> name = nextStringOrNull(reader);
+                case "language" -> language = readStringField(reader, "name");
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new PokemonData.NameEntry(name, new PokemonData.Language(language));
+    }
+
+    // オブジェクトから指定した文字列フィールドだけを読み、残りは読み飛ばす（nullやオブジェクト以外ならnull）
+    private static String readStringField(JsonReader reader, String field) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        String value = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(field)) {
+                value = nextStringOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return value;
+    }
+
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.STRING) {
+            return reader.nextString();
+        }
+        reader.skipValue();
+        return null;
+    }
+
     // --- データモデル ---
     public static class PokemonData {
         public record PokemonResponse(Sprites sprites, Species species) {}
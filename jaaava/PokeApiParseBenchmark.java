@@ -0,0 +1,91 @@
+import com.google.gson.Gson;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * PokeApiClientのJSON解析の簡易ベンチマーク。
+ * /pokemon/{id} と同じ形の大きなJSON（moves や game_indices を含む）を用意し、
+ * 従来の「文字列に読み込んでから gson.fromJson」と、ストリームから必要なフィールドだけ読む方式を比較する。
+ * 1回あたりの処理時間と、1回あたりに確保されたメモリ量を表示する。
+ */
+public class PokeApiParseBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 2_000;
+    private static final int MEASURE_ITERATIONS = 5_000;
+
+    // 実際の /pokemon/{id} と同程度の大きさ・構造のJSONを組み立てる
+    static byte[] samplePokemonJson() {
+        StringBuilder sb = new StringBuilder(400_000);
+        sb.append("{\"abilities\":[{\"ability\":{\"name\":\"overgrow\",\"url\":\"https://pokeapi.co/api/v2/ability/65/\"},\"is_hidden\":false,\"slot\":1}],");
+        sb.append("\"base_experience\":64,\"forms\":[{\"name\":\"bulbasaur\",\"url\":\"https://pokeapi.co/api/v2/pokemon-form/1/\"}],");
+        sb.append("\"game_indices\":[");
+        for (int i = 0; i < 40; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"game_index\":").append(i).append(",\"version\":{\"name\":\"version-").append(i)
+                    .append("\",\"url\":\"https://pokeapi.co/api/v2/version/").append(i).append("/\"}}");
+        }
+        sb.append("],\"height\":7,\"held_items\":[],\"id\":1,\"is_default\":true,");
+        sb.append("\"location_area_encounters\":\"https://pokeapi.co/api/v2/pokemon/1/encounters\",\"moves\":[");
+        for (int m = 0; m < 90; m++) {
+            if (m > 0) sb.append(',');
+            sb.append("{\"move\":{\"name\":\"move-").append(m).append("\",\"url\":\"https://pokeapi.co/api/v2/move/").append(m)
+                    .append("/\"},\"version_group_details\":[");
+            for (int v = 0; v < 20; v++) {
+                if (v > 0) sb.append(',');
+                sb.append("{\"level_learned_at\":").append(v)
+                        .append(",\"move_learn_method\":{\"name\":\"level-up\",\"url\":\"https://pokeapi.co/api/v2/move-learn-method/1/\"},")
+                        .append("\"version_group\":{\"name\":\"group-").append(v)
+                        .append("\",\"url\":\"https://pokeapi.co/api/v2/version-group/").append(v).append("/\"}}");
+            }
+            sb.append("]}");
+        }
+        sb.append("],\"name\":\"bulbasaur\",\"order\":1,\"past_types\":[],");
+        sb.append("\"species\":{\"name\":\"bulbasaur\",\"url\":\"https://pokeapi.co/api/v2/pokemon-species/1/\"},");
+        sb.append("\"sprites\":{\"back_default\":\"https://raw.githubusercontent.com/PokeAPI/sprites/master/sprites/pokemon/back/1.png\",");
+        sb.append("\"front_default\":\"https://raw.githubusercontent.com/PokeAPI/sprites/master/sprites/pokemon/1.png\",\"versions\":{");
+        for (int g = 0; g < 8; g++) {
+            if (g > 0) sb.append(',');
+            sb.append("\"generation-").append(g).append("\":{\"front_default\":\"https://example.invalid/").append(g)
+                    .append("/1.png\",\"back_default\":null}");
+        }
+        sb.append("}},\"stats\":[{\"base_stat\":45,\"effort\":0,\"stat\":{\"name\":\"hp\",\"url\":\"https://pokeapi.co/api/v2/stat/1/\"}}],");
+        sb.append("\"types\":[{\"slot\":1,\"type\":{\"name\":\"grass\",\"url\":\"https://pokeapi.co/api/v2/type/12/\"}}],\"weight\":69}");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @FunctionalInterface
+    interface Parse {
+        Object run(byte[] body) throws IOException;
+    }
+
+    // 他のベンチマーク（ObservationParseBenchmark）からも使う
+    static void measure(String label, byte[] body, Parse parse) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Object sink = null;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink = parse.run(body);
+        }
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+            sink = parse.run(body);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        System.out.printf("%-28s %10.1f µs/回 %12d バイト/回  (%s)%n", label, elapsed / 1e3 / MEASURE_ITERATIONS,
+                allocated / MEASURE_ITERATIONS, sink);
+    }
+
+    public static void main(String[] args) throws IOException {
+        byte[] body = samplePokemonJson();
+        Gson gson = new Gson();
+        System.out.printf("入力JSON: %,d バイト%n", body.length);
+
+        measure("String + gson.fromJson", body, b -> gson.fromJson(new String(b, StandardCharsets.UTF_8),
+                PokeApiClient.PokemonData.PokemonResponse.class));
+        measure("ストリーム抽出 (JsonReader)", body, b -> PokeApiClient.decode(new ByteArrayInputStream(b),
+                PokeApiClient::readPokemon));
+    }
+}
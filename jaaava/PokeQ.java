@@ -1,14 +1,14 @@
 import javax.swing.*;
 import java.awt.*;
-import java.io.IOException;
-import java.net.URL;
+import java.awt.image.BufferedImage;
 import java.util.Optional;
 
 public class PokeQ extends JFrame {
+    private static final int IMAGE_SIZE = 240; // 画像サイズを大きく
     private JLabel pokemonImageLabel;
     private final PokeApiClient apiClient = new PokeApiClient();
-    private String correctName;
-    private int hintLevel;
+    // 問題を先読みしておくキュー（3問分を2スレッドで補充）
+    private final QuestionPrefetcher prefetcher = new QuestionPrefetcher(apiClient, 3, 2, IMAGE_SIZE);
 
     public PokeQ() {
         setTitle("このポケモンの名前は？");
@@ -16,7 +16,7 @@ public class PokeQ extends JFrame {
         setSize(360, 420); // ウィンドウサイズも少し大きく
         setLocationRelativeTo(null);
         pokemonImageLabel = new JLabel();
-        pokemonImageLabel.setPreferredSize(new Dimension(240, 240)); // 画像サイズを大きく
+        pokemonImageLabel.setPreferredSize(new Dimension(IMAGE_SIZE, IMAGE_SIZE));
         pokemonImageLabel.setHorizontalAlignment(SwingConstants.CENTER);
         // Swing UI部品は画像のみ
         Container contentPane = getContentPane();
@@ -28,100 +28,27 @@ public class PokeQ extends JFrame {
         contentPane.add(pokemonImageLabel, gbc);
     }
 
-    private void showPokemonImage(String imageUrl) throws IOException {
-        ImageIcon originalIcon = new ImageIcon(new URL(imageUrl));
-        Image originalImage = originalIcon.getImage();
-        int newSize = 240; // 画像サイズを大きく
-        Image scaledImage = originalImage.getScaledInstance(newSize, newSize, Image.SCALE_SMOOTH);
+    // 画像は先読み時にImageCacheで表示サイズへ縮小済み
+    private void showPokemonImage(BufferedImage scaledImage) {
         pokemonImageLabel.setIcon(new ImageIcon(scaledImage));
     }
 
-    private static Optional<String> findJapaneseName(PokeApiClient.PokemonData.PokemonSpeciesResponse species) {
-        return species.names().stream()
-                .filter(n -> "ja-Hrkt".equals(n.language().name()))
-                .map(PokeApiClient.PokemonData.NameEntry::name)
-                .findFirst()
-                .or(() -> species.names().stream()
-                        .filter(n -> "ja".equals(n.language().name()))
-                        .map(PokeApiClient.PokemonData.NameEntry::name)
-                        .findFirst());
-    }
-
-    private void loadNextQuestion() {
-        new Thread(() -> {
-            try {
-                PokeApiClient.PokemonData.PokemonResponse pokemon = apiClient.fetchRandomPokemon()
-                        .orElseThrow(() -> new IOException("ポケモンの取得に失敗しました。"));
-                PokeApiClient.PokemonData.PokemonSpeciesResponse species = apiClient.fetchPokemonSpecies(pokemon.species().url())
-                        .orElseThrow(() -> new IOException("ポケモンの日本語名の取得に失敗しました。"));
-                correctName = findJapaneseName(species)
-                        .orElseThrow(() -> new IOException("ポケモンの日本語名が見つかりませんでした。"));
-                // 画像表示はUIスレッドで
-                SwingUtilities.invokeLater(() -> {
-                    try {
-                        showPokemonImage(pokemon.sprites().frontDefault());
-                    } catch (IOException e) {
-                        System.out.println("画像の表示に失敗: " + e.getMessage());
-                    }
-                });
-                // ターミナル入出力はワーカースレッドで
-                System.out.println("このポケモンの名前は？（カタカナで）");
-                System.out.print("こたえを入力: ");
-                Optional<String> userAnswerOpt = EncodingConverter.readLineFromTerminal("MS932");
-                String userAnswer = userAnswerOpt.orElse("").trim();
-                checkAnswerTerminal(userAnswer);
-            } catch (Exception e) {
-                System.out.println("エラー: " + e.getMessage());
-            }
-        }).start();
-    }
-
-    // ターミナル用の判定・ヒント表示
-    private void checkAnswerTerminal(String userAnswer) {
-        if (userAnswer.isEmpty()) return;
-        String normalizedUser = toKatakana(java.text.Normalizer.normalize(userAnswer, java.text.Normalizer.Form.NFKC))
-            .replaceAll("[^\u30A0-\u30FFー]", "");
-        String normalizedCorrect = java.text.Normalizer.normalize(correctName, java.text.Normalizer.Form.NFC)
-            .replaceAll("[^\u30A0-\u30FFー]", "");
-        if (normalizedUser.equals(normalizedCorrect)) {
-            System.out.println("正解！すごい！");
-            // 2秒待って次の問題
-            try { Thread.sleep(2000); } catch (InterruptedException ignored) {}
-            loadNextQuestion();
-        } else {
-            hintLevel++;
-            if (correctName.length() > 1) {
-                int hintLength = Math.min(hintLevel, correctName.length() - 1);
-                String hint = correctName.substring(0, hintLength);
-                System.out.println("ちがうよ！ヒントは『" + hint + "』");
-            } else {
-                System.out.println("ちがうよ！もう一度考えてみて！");
-            }
-            System.out.print("こたえを入力: ");
-            Optional<String> nextAnswerOpt = EncodingConverter.readLineFromTerminal("MS932");
-            String nextAnswer = nextAnswerOpt.orElse("").trim();
-            checkAnswerTerminal(nextAnswer);
-        }
-    }
-
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
             PokeQ app = new PokeQ();
+            // スナップショット（PokedexSnapshotで作成）があれば、出題時のAPI呼び出しを省く
+            Optional<PokedexSnapshot> snapshot = PokedexSnapshot.loadIfPresent(PokedexSnapshot.DEFAULT_PATH);
+            snapshot.ifPresent(app.apiClient::useSnapshot);
+            // 全ポケモンの名前の索引（スナップショットがなければ、出題された名前だけが順に登録される）
+            KanaNameIndex nameIndex = snapshot.map(KanaNameIndex::fromSnapshot).orElseGet(KanaNameIndex::new);
             app.setVisible(true);
-            app.loadNextQuestion();
+            app.prefetcher.start();
+            // ゲームの進行はセッション用のワーカースレッド1本で行い、画像表示だけUIスレッドに渡す
+            PokeQSession session = new PokeQSession(app.prefetcher::take,
+                    new PokeQSession.TerminalAnswerSource("MS932"),
+                    question -> SwingUtilities.invokeLater(() -> app.showPokemonImage(question.sprite())),
+                    nameIndex, 2000, 0);
+            session.start();
         });
     }
-
-    // ひらがな→カタカナ変換
-    private static String toKatakana(String input) {
-        StringBuilder sb = new StringBuilder(input.length());
-        for (char c : input.toCharArray()) {
-            if (c >= '\u3041' && c <= '\u3096') {
-                sb.append((char)(c + 0x60));
-            } else {
-                sb.append(c);
-            }
-        }
-        return sb.toString();
-    }
 }
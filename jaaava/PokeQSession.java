@@ -0,0 +1,273 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * PokeQのゲーム進行（出題→回答→ヒント→次の問題）を1本のワーカースレッド上の状態遷移として実行するクラス。
+ * 各遷移は1ステップずつスケジュールされるので、再帰呼び出しや問題ごとのスレッド生成がなく、
+ * 長時間遊んでもスタックやスレッド数は増えない。
+ * 回答の判定とヒントはKanaNameIndexで行い、回答の末尾に「?」を付けると入力途中の名前の候補を表示する（入力補完モード）。
+ * 入力元と出力先を差し替えれば、画面やターミナルなしでスクリプトによるセッションも実行できる（負荷試験用）。
+ */
+public class PokeQSession {
+
+    /** 出題する問題の取得元 */
+    @FunctionalInterface
+    public interface QuestionSource {
+        QuestionPrefetcher.Question next() throws Exception;
+    }
+
+    /** 回答の入力元。入力が終わった場合はemptyを返す */
+    @FunctionalInterface
+    public interface AnswerSource {
+        Optional<String> nextAnswer();
+    }
+
+    /** セッションの表示先 */
+    public interface Listener {
+        /** 新しい問題が出題された */
+        void onQuestion(QuestionPrefetcher.Question question);
+
+        /** メッセージを1行表示する */
+        default void onMessage(String message) {
+            System.out.println(message);
+        }
+
+        /** 入力を促す（改行しない） */
+        default void onPrompt(String prompt) {
+            System.out.print(prompt);
+        }
+    }
+
+    /**
+     * セッション終了時の集計
+     * @param questions 出題数
+     * @param correct 正解数
+     * @param wrongAnswers 不正解だった回答の数
+     */
+    public record Stats(long questions, long correct, long wrongAnswers) {}
+
+    private enum State { ASK, ANSWER, FINISHED }
+
+    // 入力補完モードで表示する候補の最大数
+    private static final int COMPLETION_LIMIT = 10;
+
+    private final QuestionSource questions;
+    private final AnswerSource answers;
+    private final Listener listener;
+    private final KanaNameIndex nameIndex;
+    private final long nextQuestionDelayMillis;
+    private final long maxQuestions;
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "pokeq-session");
+        t.setDaemon(true);
+        return t;
+    });
+    private final CompletableFuture<Stats> result = new CompletableFuture<>();
+
+    // 以下はワーカースレッドからのみ触る
+    private State state = State.ASK;
+    private int correctId;
+    private int hintLevel;
+    private long questionCount;
+    private long correctCount;
+    private long wrongCount;
+
+    /**
+     * @param questions 問題の取得元
+     * @param answers 回答の入力元
+     * @param listener 表示先
+     * @param nameIndex 回答の判定に使う名前の索引（出題された名前はこの索引に追加される）
+     * @param nextQuestionDelayMillis 正解してから次の問題を出すまでの待ち時間
+     * @param maxQuestions 出題数の上限（0以下なら無制限）
+     */
+    public PokeQSession(QuestionSource questions, AnswerSource answers, Listener listener,
+                        KanaNameIndex nameIndex, long nextQuestionDelayMillis, long maxQuestions) {
+        this.questions = questions;
+        this.answers = answers;
+        this.listener = listener;
+        this.nameIndex = nameIndex;
+        this.nextQuestionDelayMillis = nextQuestionDelayMillis;
+        this.maxQuestions = maxQuestions;
+    }
+
+    /**
+     * セッションを開始する
+     * @return セッション終了時に集計結果で完了するFuture
+     */
+    public CompletableFuture<Stats> start() {
+        schedule(0);
+        return result;
+    }
+
+    /**
+     * セッションを途中で終了する
+     */
+    public void stop() {
+        worker.execute(this::finish);
+    }
+
+    private void schedule(long delayMillis) {
+        worker.schedule(this::step, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // 状態を1つ進め、必要なら次のステップを予約する
+    private void step() {
+        try {
+            switch (state) {
+                case ASK -> ask();
+                case ANSWER -> answer();
+                case FINISHED -> { return; }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finish();
+        } catch (Exception e) {
+            listener.onMessage("エラー: " + e.getMessage());
+            finish();
+        }
+    }
+
+    private void ask() throws Exception {
+        QuestionPrefetcher.Question question = questions.next();
+        correctId = nameIndex.add(question.japaneseName());
+        hintLevel = 0;
+        questionCount++;
+        listener.onQuestion(question);
+        listener.onMessage("このポケモンの名前は？（カタカナで）");
+        state = State.ANSWER;
+        schedule(0);
+    }
+
+    private void answer() {
+        listener.onPrompt("こたえを入力: ");
+        Optional<String> input = answers.nextAnswer();
+        if (input.isEmpty()) {
+            finish(); // 入力が終わった
+            return;
+        }
+        String userAnswer = input.get().trim();
+        if (userAnswer.isEmpty()) {
+            schedule(0);
+            return;
+        }
+        if (userAnswer.endsWith("?") || userAnswer.endsWith("？")) {
+            // 入力補完モード: 入力途中の文字列から始まる名前を表示する（回答としては数えない）
+            String prefix = userAnswer.substring(0, userAnswer.length() - 1);
+            List<String> candidates = nameIndex.complete(prefix, COMPLETION_LIMIT);
+            listener.onMessage(candidates.isEmpty() ? "候補はありません。" : "候補: " + String.join("、", candidates));
+            schedule(0);
+            return;
+        }
+        KanaNameIndex.Match match = nameIndex.match(userAnswer, correctId);
+        if (match == KanaNameIndex.Match.EXACT || match == KanaNameIndex.Match.NEAR) {
+            correctCount++;
+            listener.onMessage(match == KanaNameIndex.Match.EXACT ? "正解！すごい！"
+                    : "正解！おしい、正しくは『" + nameIndex.name(correctId) + "』だよ！");
+            if (maxQuestions > 0 && questionCount >= maxQuestions) {
+                finish();
+                return;
+            }
+            state = State.ASK;
+            schedule(nextQuestionDelayMillis);
+        } else {
+            wrongCount++;
+            hintLevel++;
+            String hint = nameIndex.hint(correctId, hintLevel);
+            String prefix = match == KanaNameIndex.Match.OTHER_NAME ? "それは別のポケモンだよ！" : "ちがうよ！";
+            if (hint != null) {
+                listener.onMessage(prefix + "ヒントは『" + hint + "』（候補" + nameIndex.candidateCount(hint) + "匹）");
+            } else {
+                listener.onMessage(prefix + "もう一度考えてみて！");
+            }
+            schedule(0);
+        }
+    }
+
+    private void finish() {
+        if (state == State.FINISHED) return;
+        state = State.FINISHED;
+        result.complete(new Stats(questionCount, correctCount, wrongCount));
+        worker.shutdown();
+    }
+
+    /**
+     * ターミナルから指定した文字コードで回答を読む入力元。
+     * 標準入力は1つのReaderで読み続ける（行ごとにScannerを作って閉じると、2回目以降が読めなくなるため）。
+     */
+    public static class TerminalAnswerSource implements AnswerSource {
+        private final BufferedReader reader;
+
+        public TerminalAnswerSource(String encoding) {
+            this.reader = new BufferedReader(new InputStreamReader(System.in, Charset.forName(encoding)));
+        }
+
+        @Override
+        public Optional<String> nextAnswer() {
+            try {
+                return Optional.ofNullable(reader.readLine());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * 画面もネットワークも使わずに、指定した問題数のセッションを実行する負荷試験用のmainメソッド。
+     * 各問題で一度まちがえてから正解する。引数で問題数を指定できる（省略時は10000問）。
+     */
+    public static void main(String[] args) throws Exception {
+        long total = args.length > 0 ? Long.parseLong(args[0]) : 10_000;
+        List<String> names = List.of("フシギダネ", "ヒトカゲ", "ゼニガメ", "ピカチュウ", "ミュウ");
+        BufferedImage sprite = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        long[] counter = {0};
+        QuestionSource questions = () -> new QuestionPrefetcher.Question(names.get((int) (counter[0]++ % names.size())), sprite);
+        AtomicReference<String> current = new AtomicReference<>();
+        boolean[] answeredWrong = {false};
+        AnswerSource answers = () -> {
+            if (!answeredWrong[0]) {
+                answeredWrong[0] = true;
+                return Optional.of("まちがい");
+            }
+            answeredWrong[0] = false;
+            return Optional.of(current.get());
+        };
+        Listener listener = new Listener() {
+            @Override
+            public void onQuestion(QuestionPrefetcher.Question question) {
+                current.set(question.japaneseName());
+                if (counter[0] % 1000 == 0) {
+                    System.out.printf("%,8d問目: スレッド数 %d, ヒープ使用量 %,d KB%n", counter[0],
+                            Thread.activeCount(), memory.getHeapMemoryUsage().getUsed() / 1024);
+                }
+            }
+
+            @Override
+            public void onMessage(String message) {}
+
+            @Override
+            public void onPrompt(String prompt) {}
+        };
+
+        long start = System.nanoTime();
+        KanaNameIndex nameIndex = new KanaNameIndex();
+        names.forEach(nameIndex::add);
+        Stats stats = new PokeQSession(questions, answers, listener, nameIndex, 0, total).start().get();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("完了: %s (%.2f秒, %.0f問/秒)%n", stats, seconds, stats.questions() / seconds);
+    }
+}
@@ -0,0 +1,292 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ポケモン図鑑のローカルスナップショット。
+ * 一度だけPokeAPIを並行クロールして「ID → 画像URL・種族ID・日本語名」を小さなバイナリファイルに保存し、
+ * 以降はそのファイルをメモリマップして読むことで、出題時のAPI呼び出しを画像のダウンロードだけにする。
+ *
+ * ファイル形式（ビッグエンディアン）:
+ * <pre>
+ *   int magic ("PDEX") | int version | int count | int[count] エントリ位置
+ *   エントリ: int id | int speciesId | str spriteUrl | str jaHrkt | str ja
+ *   str: unsigned short バイト数 + UTF-8バイト列（空文字はnull扱い）
+ * </pre>
+ */
+public class PokedexSnapshot {
+
+    /**
+     * スナップショットの1件分
+     * @param id ポケモンID
+     * @param speciesId 種族ID
+     * @param spriteUrl 画像URL（ない場合はnull）
+     * @param jaHrktName カタカナ表記の名前（ない場合はnull）
+     * @param jaName 漢字表記の名前（ない場合はnull）
+     */
+    public record Entry(int id, int speciesId, String spriteUrl, String jaHrktName, String jaName) {}
+
+    public static final Path DEFAULT_PATH = Paths.get("pokedex.bin");
+
+    private static final int MAGIC = 0x50444558; // "PDEX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int CRAWL_CONCURRENCY = 8;
+    // 取得に失敗した種族を取り直す回数（回ごとに待ち時間を延ばす）
+    private static final int CRAWL_RETRIES = 3;
+    private static final long CRAWL_RETRY_WAIT_MILLIS = 2000;
+
+    private final ByteBuffer buffer;
+    private final int count;
+
+    private PokedexSnapshot(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("スナップショットの形式が不正です。");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("スナップショットのバージョンが異なります: " + buffer.getInt(4));
+        }
+        this.buffer = buffer;
+        this.count = buffer.getInt(8);
+    }
+
+    /**
+     * スナップショットファイルをメモリマップして開く
+     * @param path ファイルパス
+     * @return 読み込んだスナップショット
+     * @throws IOException ファイルがない、または形式が不正な場合
+     */
+    public static PokedexSnapshot load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // マップはチャネルを閉じた後も有効
+            return new PokedexSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * ファイルが存在すれば読み込む。読めなかった場合はemptyを返す。
+     */
+    public static Optional<PokedexSnapshot> loadIfPresent(Path path) {
+        if (!Files.isRegularFile(path)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(load(path));
+        } catch (IOException e) {
+            System.err.println("スナップショットの読み込みに失敗しました: " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /** 登録されているポケモンの数 */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * index番目（0始まり）のエントリを返す
+     */
+    public Entry get(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        int pos = buffer.getInt(HEADER_SIZE + index * 4);
+        int id = buffer.getInt(pos);
+        int speciesId = buffer.getInt(pos + 4);
+        pos += 8;
+        String spriteUrl = readString(pos);
+        pos += 2 + (buffer.getShort(pos) & 0xFFFF);
+        String jaHrkt = readString(pos);
+        pos += 2 + (buffer.getShort(pos) & 0xFFFF);
+        String ja = readString(pos);
+        return new Entry(id, speciesId, spriteUrl, jaHrkt, ja);
+    }
+
+    /**
+     * 種族IDからエントリを探す（エントリは種族ID順に並んでいるので二分探索）
+     */
+    public Optional<Entry> findBySpeciesId(int speciesId) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = buffer.getInt(buffer.getInt(HEADER_SIZE + mid * 4) + 4);
+            if (midId < speciesId) {
+                low = mid + 1;
+            } else if (midId > speciesId) {
+                high = mid - 1;
+            } else {
+                return Optional.of(get(mid));
+            }
+        }
+        return Optional.empty();
+    }
+
+    private String readString(int pos) {
+        int length = buffer.getShort(pos) & 0xFFFF;
+        if (length == 0) return null;
+        byte[] bytes = new byte[length];
+        buffer.get(pos + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * PokeAPIを並行クロールして全種族分のエントリを集める。
+     * 取得に失敗した種族は間をおいて取り直し、それでも欠けていれば IOException にする（欠けた図鑑は作らない）。
+     * @param apiClient 取得に使うクライアント
+     * @return 種族ID順に並んだエントリ
+     */
+    public static List<Entry> crawl(PokeApiClient apiClient) throws IOException, InterruptedException {
+        int speciesCount = apiClient.fetchSpeciesCount()
+                .orElseThrow(() -> new IOException("ポケモンの数の取得に失敗しました。"));
+        ExecutorService executor = Executors.newFixedThreadPool(CRAWL_CONCURRENCY);
+        try {
+            List<Entry> entries = new ArrayList<>(speciesCount);
+            List<Integer> pending = new ArrayList<>(speciesCount);
+            for (int id = 1; id <= speciesCount; id++) {
+                pending.add(id);
+            }
+            for (int attempt = 0; !pending.isEmpty(); attempt++) {
+                if (attempt > 0) {
+                    if (attempt > CRAWL_RETRIES) {
+                        throw new IOException(pending.size() + "件のポケモンを取得できませんでした（種族ID: "
+                                + pending.subList(0, Math.min(10, pending.size())) + (pending.size() > 10 ? " ほか" : "") + "）");
+                    }
+                    System.err.println(pending.size() + "件のポケモンを取り直します（" + attempt + "回目）");
+                    Thread.sleep(CRAWL_RETRY_WAIT_MILLIS * attempt);
+                }
+                pending = crawlAll(executor, apiClient, pending, entries);
+            }
+            entries.sort(Comparator.comparingInt(Entry::speciesId));
+            return entries;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // 種族IDを並行して取得し、取れたものを entries に加える。取得できなかった種族IDを返す
+    private static List<Integer> crawlAll(ExecutorService executor, PokeApiClient apiClient, List<Integer> speciesIds,
+                                          List<Entry> entries) throws InterruptedException {
+        List<Future<Optional<Entry>>> futures = new ArrayList<>();
+        for (int speciesId : speciesIds) {
+            futures.add(executor.submit(() -> crawlOne(apiClient, speciesId)));
+        }
+        List<Integer> failed = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                Optional<Entry> entry = futures.get(i).get();
+                if (entry.isPresent()) {
+                    entries.add(entry.get());
+                } else {
+                    failed.add(speciesIds.get(i));
+                }
+            } catch (ExecutionException e) {
+                System.err.println("ポケモン（種族ID " + speciesIds.get(i) + "）の取得に失敗しました: " + e.getCause().getMessage());
+                failed.add(speciesIds.get(i));
+            }
+        }
+        return failed;
+    }
+
+    // 種族IDと同じIDのポケモン（基本の姿）と、その種族情報を取得する
+    private static Optional<Entry> crawlOne(PokeApiClient apiClient, int speciesId) throws IOException, InterruptedException {
+        Optional<PokeApiClient.PokemonData.PokemonResponse> pokemon = apiClient.fetchPokemonById(speciesId);
+        Optional<PokeApiClient.PokemonData.PokemonSpeciesResponse> species = apiClient.fetchSpeciesById(speciesId);
+        if (pokemon.isEmpty() || species.isEmpty()) {
+            return Optional.empty();
+        }
+        String jaHrkt = null;
+        String ja = null;
+        for (PokeApiClient.PokemonData.NameEntry name : species.get().names()) {
+            if ("ja-Hrkt".equals(name.language().name())) jaHrkt = name.name();
+            else if ("ja".equals(name.language().name())) ja = name.name();
+        }
+        String sprite = pokemon.get().sprites() != null ? pokemon.get().sprites().frontDefault() : null;
+        return Optional.of(new Entry(speciesId, speciesId, sprite, jaHrkt, ja));
+    }
+
+    /**
+     * エントリをスナップショットファイルに書き出す（一時ファイルに書いてから置き換える）
+     * @param entries 種族ID順に並んだエントリ
+     * @param path 書き出し先
+     */
+    public static void save(List<Entry> entries, Path path) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        int[] offsets = new int[entries.size()];
+        int base = HEADER_SIZE + entries.size() * 4;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            offsets[i] = base + out.size();
+            out.writeInt(entry.id());
+            out.writeInt(entry.speciesId());
+            writeString(out, entry.spriteUrl());
+            writeString(out, entry.jaHrktName());
+            writeString(out, entry.jaName());
+        }
+        out.flush();
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream(base + body.size());
+        DataOutputStream header = new DataOutputStream(file);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(entries.size());
+        for (int offset : offsets) {
+            header.writeInt(offset);
+        }
+        header.flush();
+        body.writeTo(file);
+
+        Path absolute = path.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), "pokedex", ".tmp");
+        Files.write(temp, file.toByteArray());
+        Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("文字列が長すぎます: " + value.length());
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * スナップショットを作成するためのmainメソッド。引数で保存先を指定できる（省略時は pokedex.bin）。
+     */
+    public static void main(String[] args) {
+        Path path = args.length > 0 ? Paths.get(args[0]) : DEFAULT_PATH;
+        System.out.println("PokeAPIからポケモン図鑑を取得中...（数分かかります）");
+        try {
+            long start = System.nanoTime();
+            List<Entry> entries = crawl(new PokeApiClient());
+            save(entries, path);
+            System.out.printf("%d件を %s に保存しました (%.1f秒, %dバイト)%n", entries.size(), path.toAbsolutePath(),
+                    (System.nanoTime() - start) / 1e9, Files.size(path));
+        } catch (IOException e) {
+            System.err.println("スナップショットの作成に失敗しました（前のスナップショットはそのまま残します）: " + e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("スナップショットの作成を中断しました（前のスナップショットはそのまま残します）");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * PokeQの問題を先読みしておくクラス。
+ * バックグラウンドのスレッドがポケモン・種族情報・画像を取得し、表示できる状態にした問題を
+ * 上限付きのキューに詰めておく。プレイヤーが回答している間もキューは補充され続ける。
+ */
+public class QuestionPrefetcher {
+
+    /**
+     * 出題の準備が完了した問題
+     * @param japaneseName 正解となる日本語名
+     * @param sprite 表示サイズに縮小済みの画像
+     */
+    public record Question(String japaneseName, BufferedImage sprite) {}
+
+    // 取得に失敗したときに再試行するまでの待ち時間（ミリ秒）
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    // ランダムに選ぶポケモンの取得で失敗したときに再試行を数える先（HttpMetrics では番号は * にまとめられるので、番号は何でもよい）
+    private static final URI RANDOM_POKEMON_ENDPOINT = URI.create("https://pokeapi.co/api/v2/pokemon/1");
+
+    private final PokeApiClient apiClient;
+    private final int spriteSize;
+    private final BlockingQueue<Question> queue;
+    private final List<Thread> workers = new ArrayList<>();
+
+    /**
+     * @param apiClient 問題の取得に使うクライアント
+     * @param capacity 先読みしておく問題数の上限
+     * @param workerCount 先読みを並行して行うスレッド数
+     * @param spriteSize 表示する画像の一辺の大きさ
+     */
+    public QuestionPrefetcher(PokeApiClient apiClient, int capacity, int workerCount, int spriteSize) {
+        this.apiClient = apiClient;
+        this.spriteSize = spriteSize;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::fillLoop, "question-prefetch-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * 先読みを開始する
+     */
+    public void start() {
+        workers.forEach(Thread::start);
+    }
+
+    /**
+     * 先読みを停止する
+     */
+    public void stop() {
+        workers.forEach(Thread::interrupt);
+    }
+
+    /**
+     * 次の問題を取り出す。準備済みの問題がなければ、用意できるまで待つ。
+     * @return 出題できる状態の問題
+     */
+    public Question take() throws InterruptedException {
+        return queue.take();
+    }
+
+    /**
+     * 現在キューに入っている準備済みの問題数
+     */
+    public int readyCount() {
+        return queue.size();
+    }
+
+    // キューに空きがある限り問題を用意し続ける（満杯のときはputで待機する）
+    private void fillLoop() {
+        AtomicReference<URI> step = new AtomicReference<>(); // 取得中のURL（失敗したらそのエンドポイントの再試行として数える）
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                queue.put(prepareQuestion(step));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                System.out.println("問題の先読みに失敗: " + e.getMessage());
+                HttpMetrics.recordRetry(step.get());
+                try {
+                    Thread.sleep(RETRY_DELAY_MILLIS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private Question prepareQuestion(AtomicReference<URI> step) throws IOException, InterruptedException {
+        step.set(RANDOM_POKEMON_ENDPOINT);
+        PokeApiClient.PokemonData.PokemonResponse pokemon = apiClient.fetchRandomPokemon()
+                .orElseThrow(() -> new IOException("ポケモンの取得に失敗しました。"));
+        step.set(URI.create(pokemon.species().url()));
+        PokeApiClient.PokemonData.PokemonSpeciesResponse species = apiClient.fetchPokemonSpecies(pokemon.species().url())
+                .orElseThrow(() -> new IOException("ポケモンの日本語名の取得に失敗しました。"));
+        String name = PokeApiClient.findJapaneseName(species)
+                .orElseThrow(() -> new IOException("ポケモンの日本語名が見つかりませんでした。"));
+        String spriteUrl = pokemon.sprites().frontDefault();
+        if (spriteUrl == null) {
+            throw new IOException("ポケモンの画像URLがありません。");
+        }
+        step.set(URI.create(spriteUrl));
+        BufferedImage sprite = ImageCache.shared().getScaled(spriteUrl, spriteSize, spriteSize);
+        return new Question(name, sprite);
+    }
+}
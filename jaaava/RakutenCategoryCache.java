@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * 楽天レシピのカテゴリ階層を保存しておくファイルキャッシュ。
+ * カテゴリ一覧はめったに変わらないので、起動のたびにAPIを呼ばずにこのファイルから読み込む。
+ * ファイルは1回の読み込みでまとめて読み、保存日時から有効期限（TTL）を過ぎていれば呼び出し側で再取得する。
+ *
+ * <p>ファイル形式（ビッグエンディアン）:
+ * <pre>
+ *   "RCAT" 形式バージョン(int) 保存日時(long, エポックミリ秒)
+ *   以降 RakutenCategoryTree.writeTo の内容（配列をそのまま並べたもの）
+ * </pre>
+ */
+public class RakutenCategoryCache {
+
+    public static final Path DEFAULT_PATH = Paths.get(System.getProperty("user.home"), ".po_modify", "rakuten-categories.bin");
+    public static final Duration DEFAULT_TTL = Duration.ofDays(7);
+    private static final int MAGIC = 0x52434154; // "RCAT"
+    private static final int VERSION = 2; // 2: 配列形式の木（1: カテゴリごとの文字列）
+    private static final int HEADER_BYTES = 16;
+
+    /**
+     * 読み込んだキャッシュ
+     * @param tree カテゴリ階層
+     * @param savedAtMillis 保存日時（エポックミリ秒）
+     */
+    public record Loaded(RakutenCategoryTree tree, long savedAtMillis) {
+        /** 保存から ttl 以上経っているかどうか */
+        public boolean isExpired(Duration ttl) {
+            return System.currentTimeMillis() - savedAtMillis >= ttl.toMillis();
+        }
+    }
+
+    private RakutenCategoryCache() {}
+
+    /**
+     * キャッシュファイルを読み込む。ファイルがない、または形式が違う場合は空を返す。
+     */
+    public static Optional<Loaded> load(Path path) {
+        if (!Files.isRegularFile(path)) {
+            return Optional.empty();
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+            if (in.remaining() < HEADER_BYTES || in.getInt() != MAGIC || in.getInt() != VERSION) {
+                return Optional.empty(); // 古い形式のファイルは作り直す
+            }
+            long savedAt = in.getLong();
+            return Optional.of(new Loaded(RakutenCategoryTree.readFrom(in), savedAt));
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            System.err.println("カテゴリのキャッシュを読み込めませんでした: " + e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * カテゴリ階層をキャッシュファイルに保存する（一時ファイルに書いてから置き換える）
+     */
+    public static void save(Path path, RakutenCategoryTree tree) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + tree.serializedSize());
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putLong(System.currentTimeMillis());
+        tree.writeTo(out);
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, "rcat", ".tmp");
+        Files.write(temp, out.array());
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,164 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 楽天レシピのカテゴリ名を部分一致で探すための文字バイグラム（2文字の組）索引。
+ * カテゴリ名は KanaNameIndex と同じ規則（ひらがな→カタカナ、半角カナ・全角英数の統一など）で正規化してから登録し、
+ * 漢字はそのまま残す。1文字の検索語は1文字単位の索引で、2文字以上はその検索語に含まれる全バイグラムの
+ * 集合(BitSet)の積で候補を絞り、最後に名前に検索語が含まれるかを確かめる。
+ * 構築後は変更しない（カテゴリ階層が更新されたら作り直す）ので、複数スレッドから安全に参照できる。
+ */
+public class RakutenCategorySearch {
+
+    /**
+     * 検索結果1件
+     * @param node カテゴリ階層のノード番号
+     * @param path トップからのカテゴリ名の並び（例: "お肉のおかず > 鶏肉 > 鶏むね肉"）
+     */
+    public record Hit(int node, String path) {}
+
+    private final RakutenCategoryTree tree;
+    private final char[][] foldedNames;
+    private final int[] depths;
+    private final Map<Character, BitSet> byChar = new HashMap<>();
+    private final Map<Integer, BitSet> byBigram = new HashMap<>();
+
+    public RakutenCategorySearch(RakutenCategoryTree tree) {
+        this.tree = tree;
+        this.foldedNames = new char[tree.size()][];
+        this.depths = new int[tree.size()];
+        for (int node = 1; node < tree.size(); node++) {
+            char[] folded = fold(tree.name(node));
+            foldedNames[node] = folded;
+            depths[node] = depths[tree.parent(node)] + 1; // 幅優先の番号なので親のほうが先に決まっている
+            for (int i = 0; i < folded.length; i++) {
+                byChar.computeIfAbsent(folded[i], k -> new BitSet(tree.size())).set(node);
+                if (i + 1 < folded.length) {
+                    byBigram.computeIfAbsent(bigram(folded[i], folded[i + 1]), k -> new BitSet(tree.size())).set(node);
+                }
+            }
+        }
+    }
+
+    /** 索引の元になったカテゴリ階層 */
+    public RakutenCategoryTree tree() {
+        return tree;
+    }
+
+    /**
+     * 名前に query を含むカテゴリを探す。
+     * 名前全体が一致するもの、名前が query で始まるもの、途中に含むものの順に並べ、
+     * 同じ順位の中では階層の浅いもの、名前の短いものを先にする。
+     * @param query 検索語（かなの表記ゆれ・全角半角の違いは無視する）
+     * @param limit 返す件数の上限
+     * @return 検索結果（見つからなければ空）
+     */
+    public List<Hit> search(String query, int limit) {
+        char[] folded = fold(query);
+        List<Hit> hits = new ArrayList<>();
+        if (folded.length == 0 || limit <= 0) {
+            return hits;
+        }
+        BitSet candidates = candidates(folded);
+        if (candidates == null) {
+            return hits;
+        }
+        List<int[]> matches = new ArrayList<>(); // {ノード, 一致の種類}
+        for (int node = candidates.nextSetBit(0); node >= 0; node = candidates.nextSetBit(node + 1)) {
+            int position = indexOf(foldedNames[node], folded);
+            if (position >= 0) {
+                int kind = position > 0 ? 2 : foldedNames[node].length == folded.length ? 0 : 1;
+                matches.add(new int[] {node, kind});
+            }
+        }
+        matches.sort(Comparator.<int[]>comparingInt(m -> m[1])
+                .thenComparingInt(m -> depths[m[0]])
+                .thenComparingInt(m -> foldedNames[m[0]].length)
+                .thenComparingInt(m -> m[0]));
+        for (int i = 0; i < matches.size() && i < limit; i++) {
+            int node = matches.get(i)[0];
+            hits.add(new Hit(node, path(node)));
+        }
+        return hits;
+    }
+
+    /**
+     * トップからそのカテゴリまでの名前を " > " でつないだもの
+     */
+    public String path(int node) {
+        StringBuilder path = new StringBuilder();
+        for (int n = node; n != RakutenCategoryTree.ROOT && n != RakutenCategoryTree.NO_PARENT; n = tree.parent(n)) {
+            path.insert(0, path.length() == 0 ? tree.name(n) : tree.name(n) + " > ");
+        }
+        return path.toString();
+    }
+
+    // 検索語のすべての1文字またはバイグラムを含むカテゴリの集合（該当なしならnull）
+    private BitSet candidates(char[] folded) {
+        if (folded.length == 1) {
+            return byChar.get(folded[0]);
+        }
+        // 件数の少ない集合から積をとる
+        List<BitSet> sets = new ArrayList<>(folded.length - 1);
+        for (int i = 0; i + 1 < folded.length; i++) {
+            BitSet set = byBigram.get(bigram(folded[i], folded[i + 1]));
+            if (set == null) return null;
+            sets.add(set);
+        }
+        sets.sort(Comparator.comparingInt(BitSet::cardinality));
+        BitSet result = (BitSet) sets.get(0).clone();
+        for (int i = 1; i < sets.size() && !result.isEmpty(); i++) {
+            result.and(sets.get(i));
+        }
+        return result.isEmpty() ? null : result;
+    }
+
+    private static int bigram(char first, char second) {
+        return first << 16 | second;
+    }
+
+    private static int indexOf(char[] text, char[] pattern) {
+        outer:
+        for (int start = 0; start + pattern.length <= text.length; start++) {
+            for (int i = 0; i < pattern.length; i++) {
+                if (text[start + i] != pattern[i]) continue outer;
+            }
+            return start;
+        }
+        return -1;
+    }
+
+    /**
+     * 検索用に正規化する。かな・英数字は KanaNameIndex.foldChar でそろえ、漢字などの文字はそのまま残す。
+     * 空白や記号は無視する。
+     */
+    static char[] fold(String text) {
+        char[] folded = new char[text.length()];
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            // 濁点・半濁点（半角、結合文字、全角）は直前の文字に合成する
+            if (c == '\uFF9E' || c == '\u3099' || c == '\u309B') {
+                if (length > 0) folded[length - 1] = KanaNameIndex.voiced(folded[length - 1]);
+                continue;
+            }
+            if (c == '\uFF9F' || c == '\u309A' || c == '\u309C') {
+                if (length > 0) folded[length - 1] = KanaNameIndex.semiVoiced(folded[length - 1]);
+                continue;
+            }
+            char f = KanaNameIndex.foldChar(c);
+            if (f == 0 && Character.isLetterOrDigit(c)) {
+                f = c;
+            }
+            if (f != 0) {
+                folded[length++] = f;
+            }
+        }
+        return length == folded.length ? folded : Arrays.copyOf(folded, length);
+    }
+}
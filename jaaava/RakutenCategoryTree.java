@@ -0,0 +1,235 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 楽天レシピのカテゴリ階層を配列だけで表す不変の木。
+ * <ul>
+ *   <li>ノードは番号(int)で表し、0 は仮想的なトップレベル。幅優先の順に番号を振るので、ある親の子は連続した番号になる</li>
+ *   <li>子は CSR 形式で持つ: ノード i の子は childStart[i] 〜 childStart[i + 1] - 1 番</li>
+ *   <li>カテゴリ名と検索用ID（例: "10-275-516"）はそれぞれ1つのchar配列に詰め、開始位置の配列で区切る</li>
+ * </ul>
+ * 親・子・名前の参照はすべて配列へのアクセス1回で済み、カテゴリごとのオブジェクトを作らないのでメモリも少ない。
+ */
+public final class RakutenCategoryTree {
+
+    public static final int ROOT = 0;
+    public static final int NO_PARENT = -1;
+
+    /**
+     * 木を組み立てるためのカテゴリ1件分
+     * @param id APIのカテゴリID
+     * @param name カテゴリ名
+     * @param parentId 親のカテゴリID（大カテゴリは "0"）
+     * @param searchId ランキングAPIに渡すID（例: "10-275"）
+     */
+    public record Entry(String id, String name, String parentId, String searchId) {}
+
+    private final int[] parent;
+    private final int[] childStart;
+    private final int[] apiIds;
+    private final int[] nameStart;
+    private final char[] names;
+    private final int[] searchIdStart;
+    private final char[] searchIds;
+    // APIのカテゴリIDからノード番号を引くためのハッシュ表（線形探索のオープンアドレス法。空きは -1）
+    private final int[] idTable;
+
+    private RakutenCategoryTree(int[] parent, int[] childStart, int[] apiIds,
+                                int[] nameStart, char[] names, int[] searchIdStart, char[] searchIds) {
+        this.parent = parent;
+        this.childStart = childStart;
+        this.apiIds = apiIds;
+        this.nameStart = nameStart;
+        this.names = names;
+        this.searchIdStart = searchIdStart;
+        this.searchIds = searchIds;
+        this.idTable = new int[Integer.highestOneBit(Math.max(parent.length, 1) * 2) * 2];
+        Arrays.fill(idTable, -1);
+        for (int node = 1; node < parent.length; node++) {
+            int slot = slotOf(apiIds[node]);
+            while (idTable[slot] >= 0) slot = (slot + 1) & (idTable.length - 1);
+            idTable[slot] = node;
+        }
+    }
+
+    private int slotOf(int apiId) {
+        return (apiId * 0x9E3779B9 >>> 7) & (idTable.length - 1);
+    }
+
+    /**
+     * カテゴリ一覧から木を作る。親が見つからないカテゴリは含めない。
+     * 同じ親の子は entries に現れた順に並ぶ。
+     */
+    public static RakutenCategoryTree build(List<Entry> entries) {
+        Map<String, List<Entry>> byParent = new HashMap<>();
+        for (Entry entry : entries) {
+            byParent.computeIfAbsent(entry.parentId() != null ? entry.parentId() : "0", k -> new ArrayList<>()).add(entry);
+        }
+        // 幅優先で番号を振る
+        List<Entry> ordered = new ArrayList<>(entries.size() + 1);
+        List<Integer> parents = new ArrayList<>(entries.size() + 1);
+        ordered.add(new Entry("0", "トップレベル", null, ""));
+        parents.add(NO_PARENT);
+        int[] childStart = new int[entries.size() + 2];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(ROOT);
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            childStart[node] = ordered.size();
+            for (Entry child : byParent.getOrDefault(ordered.get(node).id(), List.of())) {
+                queue.add(ordered.size());
+                ordered.add(child);
+                parents.add(node);
+            }
+        }
+        int count = ordered.size();
+        childStart = Arrays.copyOf(childStart, count + 1);
+        childStart[count] = count;
+
+        int[] parent = new int[count];
+        int[] apiIds = new int[count];
+        int[] nameStart = new int[count + 1];
+        int[] searchIdStart = new int[count + 1];
+        StringBuilder nameBuffer = new StringBuilder(count * 8);
+        StringBuilder searchBuffer = new StringBuilder(count * 10);
+        for (int i = 0; i < count; i++) {
+            Entry entry = ordered.get(i);
+            parent[i] = parents.get(i);
+            apiIds[i] = Integer.parseInt(entry.id());
+            nameStart[i] = nameBuffer.length();
+            nameBuffer.append(entry.name());
+            searchIdStart[i] = searchBuffer.length();
+            searchBuffer.append(entry.searchId() != null ? entry.searchId() : "");
+        }
+        nameStart[count] = nameBuffer.length();
+        searchIdStart[count] = searchBuffer.length();
+        char[] names = new char[nameBuffer.length()];
+        nameBuffer.getChars(0, names.length, names, 0);
+        char[] searchIds = new char[searchBuffer.length()];
+        searchBuffer.getChars(0, searchIds.length, searchIds, 0);
+        return new RakutenCategoryTree(parent, childStart, apiIds, nameStart, names, searchIdStart, searchIds);
+    }
+
+    /** トップレベルを含むノード数 */
+    public int size() {
+        return parent.length;
+    }
+
+    /** 親ノード（トップレベルなら NO_PARENT） */
+    public int parent(int node) {
+        return parent[node];
+    }
+
+    /** 子の数 */
+    public int childCount(int node) {
+        return childStart[node + 1] - childStart[node];
+    }
+
+    /** k番目（0始まり）の子 */
+    public int child(int node, int k) {
+        return childStart[node] + k;
+    }
+
+    /** 子がないかどうか */
+    public boolean isLeaf(int node) {
+        return childCount(node) == 0;
+    }
+
+    /** カテゴリ名 */
+    public String name(int node) {
+        return new String(names, nameStart[node], nameStart[node + 1] - nameStart[node]);
+    }
+
+    /** カテゴリ名の文字数 */
+    public int nameLength(int node) {
+        return nameStart[node + 1] - nameStart[node];
+    }
+
+    /** カテゴリ名の index 文字目（文字列を作らずに表示幅を数えるため） */
+    public char nameCharAt(int node, int index) {
+        return names[nameStart[node] + index];
+    }
+
+    /** ランキングAPIに渡す検索用ID（トップレベルはnull） */
+    public String searchId(int node) {
+        if (node == ROOT) return null;
+        return new String(searchIds, searchIdStart[node], searchIdStart[node + 1] - searchIdStart[node]);
+    }
+
+    /** APIのカテゴリID */
+    public int apiId(int node) {
+        return apiIds[node];
+    }
+
+    /** APIのカテゴリIDに対応するノード（見つからなければ -1） */
+    public int indexOf(int apiId) {
+        for (int slot = slotOf(apiId); idTable[slot] >= 0; slot = (slot + 1) & (idTable.length - 1)) {
+            if (apiIds[idTable[slot]] == apiId) return idTable[slot];
+        }
+        return -1;
+    }
+
+    /** シリアライズしたときのバイト数 */
+    public int serializedSize() {
+        return 4 * 4 + 4 * (parent.length * 2 + childStart.length + nameStart.length + searchIdStart.length)
+                + 2 * (names.length + searchIds.length);
+    }
+
+    /**
+     * 配列をそのままバッファに書き出す（RakutenCategoryCache の形式）
+     */
+    public void writeTo(ByteBuffer out) {
+        out.putInt(parent.length);
+        out.putInt(names.length);
+        out.putInt(searchIds.length);
+        out.putInt(0); // 予約
+        putInts(out, parent);
+        putInts(out, childStart);
+        putInts(out, apiIds);
+        putInts(out, nameStart);
+        putInts(out, searchIdStart);
+        out.asCharBuffer().put(names);
+        out.position(out.position() + names.length * 2);
+        out.asCharBuffer().put(searchIds);
+        out.position(out.position() + searchIds.length * 2);
+    }
+
+    /**
+     * writeTo で書き出した内容から木を復元する
+     */
+    public static RakutenCategoryTree readFrom(ByteBuffer in) {
+        int count = in.getInt();
+        int nameChars = in.getInt();
+        int searchChars = in.getInt();
+        in.getInt();
+        int[] parent = getInts(in, count);
+        int[] childStart = getInts(in, count + 1);
+        int[] apiIds = getInts(in, count);
+        int[] nameStart = getInts(in, count + 1);
+        int[] searchIdStart = getInts(in, count + 1);
+        char[] names = new char[nameChars];
+        in.asCharBuffer().get(names);
+        in.position(in.position() + nameChars * 2);
+        char[] searchIds = new char[searchChars];
+        in.asCharBuffer().get(searchIds);
+        in.position(in.position() + searchChars * 2);
+        return new RakutenCategoryTree(parent, childStart, apiIds, nameStart, names, searchIdStart, searchIds);
+    }
+
+    private static void putInts(ByteBuffer out, int[] values) {
+        out.asIntBuffer().put(values);
+        out.position(out.position() + values.length * 4);
+    }
+
+    private static int[] getInts(ByteBuffer in, int length) {
+        int[] values = new int[length];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + length * 4);
+        return values;
+    }
+}
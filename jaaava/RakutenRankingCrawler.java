@@ -0,0 +1,365 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * 楽天レシピの全小カテゴリ（子を持たないカテゴリ）のランキングをまとめて取得するクローラー。
+ * <ul>
+ *   <li>リクエストは RequestPacer で一定間隔に送る（楽天APIの上限は1秒に1回程度）。
+ *       応答を待たずに次の許可時刻で送るので、応答が遅くても指定したレートが保たれる</li>
+ *   <li>結果は1カテゴリ1行のJSON（NDJSON）として出力ファイルに追記する</li>
+ *   <li>書き終えたカテゴリはチェックポイントファイルに記録し、再実行するとその続きから取得する</li>
+ * </ul>
+ */
+public class RakutenRankingCrawler {
+
+    private static final String RANKING_URL = "https://app.rakuten.co.jp/services/api/Recipe/CategoryRanking/20170426";
+    // 応答待ちのリクエスト数の上限（応答が遅いときにレートを落とさないため。レート自体は pacer が決める）
+    private static final int MAX_IN_FLIGHT = 4;
+    // 429 や 5xx、通信エラーのときに同じカテゴリを試す回数
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int PROGRESS_INTERVAL = 50;
+
+    private final String appId;
+    private final String rankingUrl;
+    private final double requestsPerSecond;
+    private final RequestPacer pacer;
+
+    /**
+     * 取得対象のカテゴリ
+     * @param apiId APIのカテゴリID
+     * @param searchId ランキングAPIに渡すID（例: "10-275-516"）
+     * @param name カテゴリ名
+     */
+    public record Leaf(int apiId, String searchId, String name) {}
+
+    /**
+     * クロールの結果
+     * @param fetched 今回取得して書き出したカテゴリ数
+     * @param skipped チェックポイントにより取得を省いたカテゴリ数
+     * @param failed 取得できなかったカテゴリ数（チェックポイントに残らないので次回また取得する）
+     */
+    public record Result(int fetched, int skipped, int failed) {}
+
+    // 送信1回分
+    private record Attempt(Leaf leaf, int number) {}
+
+    // 応答1件の処理結果
+    private enum Outcome { WRITTEN, RETRY, FAILED }
+
+    /**
+     * @param appId 楽天のアプリケーションID
+     * @param requestsPerSecond 1秒あたりのリクエスト数の上限
+     */
+    public RakutenRankingCrawler(String appId, double requestsPerSecond) {
+        this(appId, requestsPerSecond, RANKING_URL);
+    }
+
+    RakutenRankingCrawler(String appId, double requestsPerSecond, String rankingUrl) {
+        this.appId = appId;
+        this.rankingUrl = rankingUrl;
+        this.requestsPerSecond = requestsPerSecond;
+        this.pacer = new RequestPacer(requestsPerSecond);
+    }
+
+    /**
+     * 検索できる末端のカテゴリを木の順（幅優先）に返す
+     */
+    public static List<Leaf> leaves(RakutenCategoryTree tree) {
+        List<Leaf> leaves = new ArrayList<>();
+        for (int node = 1; node < tree.size(); node++) {
+            String searchId = tree.searchId(node);
+            if (tree.isLeaf(node) && searchId != null && !searchId.isEmpty()) {
+                leaves.add(new Leaf(tree.apiId(node), searchId, tree.name(node)));
+            }
+        }
+        return leaves;
+    }
+
+    /**
+     * 全小カテゴリのランキングを取得して output に追記する。
+     * checkpoint に記録済みのカテゴリは取得しない。
+     * @param tree カテゴリ階層
+     * @param output 出力ファイル（NDJSON）
+     * @param checkpoint チェックポイントファイル（書き出し済みの検索用IDを1行に1つ）
+     */
+    public Result crawl(RakutenCategoryTree tree, Path output, Path checkpoint) throws IOException, InterruptedException {
+        Set<String> done = readCheckpoint(checkpoint);
+        List<Leaf> todo = new ArrayList<>();
+        int skipped = 0;
+        for (Leaf leaf : leaves(tree)) {
+            if (done.contains(leaf.searchId())) {
+                skipped++;
+            } else {
+                todo.add(leaf);
+            }
+        }
+        System.out.printf("小カテゴリ %d 件のうち %d 件は取得済みです。残り %d 件（約%s）を取得します。%n",
+                todo.size() + skipped, skipped, todo.size(), formatDuration(todo.size() / requestsPerSecond));
+        if (todo.isEmpty()) {
+            return new Result(0, skipped, 0);
+        }
+
+        dropIncompleteLine(output);
+        try (Sink sink = new Sink(output, checkpoint)) {
+            BlockingQueue<Attempt> retries = new LinkedBlockingQueue<>();
+            Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+            AtomicInteger unfinished = new AtomicInteger(todo.size());
+            AtomicInteger failed = new AtomicInteger();
+            long started = System.nanoTime();
+            int next = 0;
+            boolean connected = false;
+
+            while (unfinished.get() > 0) {
+                // 再試行を優先し、なければ次のカテゴリへ進む
+                Attempt attempt = retries.poll();
+                if (attempt == null && next < todo.size()) {
+                    attempt = new Attempt(todo.get(next++), 1);
+                }
+                if (attempt == null) {
+                    // 応答待ちのものが再試行に回るか、すべて終わるまで待つ
+                    attempt = retries.poll(200, TimeUnit.MILLISECONDS);
+                    if (attempt == null) {
+                        continue;
+                    }
+                }
+                inFlight.acquire();
+                pacer.acquire();
+                Attempt sending = attempt;
+                CompletableFuture<?> completion = SharedHttpClient.sendAsync(request(sending.leaf()), HttpResponse.BodyHandlers.ofString())
+                        .whenComplete((response, error) -> {
+                            try {
+                                Outcome outcome;
+                                try {
+                                    outcome = handle(sending, response, error, sink, retries);
+                                } catch (RuntimeException e) {
+                                    // 想定外の例外でも、未完了の件数を必ず減らす（減らさないと上のループが終わらない）
+                                    System.err.println("「" + sending.leaf().name() + "」(" + sending.leaf().searchId()
+                                            + ") の応答を処理できませんでした: " + e);
+                                    outcome = Outcome.FAILED;
+                                }
+                                if (outcome == Outcome.FAILED) {
+                                    failed.incrementAndGet();
+                                }
+                                if (outcome != Outcome.RETRY) {
+                                    reportProgress(todo.size() - unfinished.decrementAndGet(), todo.size(), started);
+                                }
+                            } finally {
+                                inFlight.release();
+                            }
+                        });
+                if (!connected) {
+                    // 最初の1件は接続の確立に時間がかかり、後続と同時に届いてしまうので、応答を待ってから次を送る
+                    completion.exceptionally(e -> null).join();
+                    connected = true;
+                }
+            }
+            inFlight.acquire(MAX_IN_FLIGHT); // 最後の応答の処理が終わるまで待つ
+            return new Result(sink.written(), skipped, failed.get());
+        }
+    }
+
+    private HttpRequest request(Leaf leaf) {
+        String url = rankingUrl + "?applicationId=" + appId + "&categoryId=" + leaf.searchId() + "&formatVersion=2";
+        return HttpRequest.newBuilder().uri(URI.create(url)).GET().build();
+    }
+
+    /**
+     * 応答を処理する。書き出すか、再試行に回すか、諦める。
+     */
+    private Outcome handle(Attempt attempt, HttpResponse<String> response, Throwable error,
+                           Sink sink, BlockingQueue<Attempt> retries) {
+        Leaf leaf = attempt.leaf();
+        String problem;
+        boolean retryable;
+        if (error != null) {
+            problem = "通信エラー: " + error.getMessage();
+            retryable = true;
+        } else if (response.statusCode() == 200) {
+            try {
+                JsonElement body = JsonParser.parseString(response.body());
+                JsonElement recipes = body.isJsonObject() ? body.getAsJsonObject().get("result") : null;
+                if (recipes != null && recipes.isJsonArray()) {
+                    sink.write(leaf, recipes);
+                    return Outcome.WRITTEN;
+                }
+                problem = "結果が含まれていません: " + response.body();
+            } catch (JsonParseException e) {
+                problem = "JSONの解析に失敗しました: " + e.getMessage();
+            } catch (IOException e) {
+                problem = "書き込みに失敗しました: " + e.getMessage();
+            }
+            retryable = false;
+        } else {
+            problem = "ステータスコード " + response.statusCode() + ": " + response.body();
+            retryable = response.statusCode() == 429 || response.statusCode() >= 500;
+        }
+        if (retryable && attempt.number() < MAX_ATTEMPTS) {
+            System.err.println("「" + leaf.name() + "」(" + leaf.searchId() + ") を再試行します。" + problem);
+            HttpMetrics.recordRetry(URI.create(rankingUrl));
+            retries.add(new Attempt(leaf, attempt.number() + 1));
+            return Outcome.RETRY;
+        }
+        System.err.println("「" + leaf.name() + "」(" + leaf.searchId() + ") を取得できませんでした。" + problem);
+        return Outcome.FAILED;
+    }
+
+    private void reportProgress(int completed, int total, long startedNanos) {
+        if (completed % PROGRESS_INTERVAL != 0 && completed != total) {
+            return;
+        }
+        double elapsed = (System.nanoTime() - startedNanos) / 1e9;
+        System.out.printf("%d/%d 件 (経過 %s, 残り約 %s)%n", completed, total,
+                formatDuration(elapsed), formatDuration((total - completed) / requestsPerSecond));
+    }
+
+    private static String formatDuration(double seconds) {
+        long s = Math.round(seconds);
+        return s >= 3600 ? String.format("%d時間%02d分", s / 3600, s / 60 % 60) : String.format("%d分%02d秒", s / 60, s % 60);
+    }
+
+    private static Set<String> readCheckpoint(Path checkpoint) throws IOException {
+        Set<String> done = new HashSet<>();
+        // 途中まで書かれたIDを取得済みとみなさないよう、また次のIDが同じ行に続かないよう、先に切り捨てる
+        dropIncompleteLine(checkpoint);
+        if (Files.isRegularFile(checkpoint)) {
+            for (String line : Files.readAllLines(checkpoint, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    done.add(line.trim());
+                }
+            }
+        }
+        return done;
+    }
+
+    // 書き込み途中で終了していた場合、ファイル（出力とチェックポイント）末尾の改行で終わっていない行を切り捨てる
+    private static void dropIncompleteLine(Path output) throws IOException {
+        if (!Files.isRegularFile(output)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long end = channel.size();
+            ByteBuffer one = ByteBuffer.allocate(1);
+            while (end > 0) {
+                one.clear();
+                channel.read(one, end - 1);
+                if (one.get(0) == '\n') {
+                    break;
+                }
+                end--;
+            }
+            if (end < channel.size()) {
+                channel.truncate(end);
+            }
+        }
+    }
+
+    // 出力ファイルとチェックポイントへの書き込み。行を書き終えてからチェックポイントに記録する
+    private static final class Sink implements AutoCloseable {
+        private final BufferedWriter output;
+        private final BufferedWriter checkpoint;
+        private int written;
+
+        Sink(Path outputPath, Path checkpointPath) throws IOException {
+            Path directory = outputPath.toAbsolutePath().getParent();
+            if (directory != null) {
+                Files.createDirectories(directory);
+            }
+            this.output = Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            this.checkpoint = Files.newBufferedWriter(checkpointPath, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+        synchronized void write(Leaf leaf, JsonElement recipes) throws IOException {
+            JsonObject line = new JsonObject();
+            line.addProperty("categoryId", leaf.apiId());
+            line.addProperty("searchId", leaf.searchId());
+            line.addProperty("categoryName", leaf.name());
+            line.addProperty("fetchedAt", Instant.now().toString());
+            line.add("recipes", recipes);
+            output.write(line.toString());
+            output.write('\n');
+            output.flush();
+            // 途中で終了しても、チェックポイントにあるカテゴリは必ず出力ファイルにある
+            checkpoint.write(leaf.searchId());
+            checkpoint.write('\n');
+            checkpoint.flush();
+            written++;
+        }
+
+        synchronized int written() {
+            return written;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            try (output; checkpoint) {
+                output.flush();
+                checkpoint.flush();
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        String APP_ID = "1021850898621735419";
+        // 出力は日ごとに分ける（同じ日のうちに再実行すると続きから、翌日は全カテゴリを取得し直す）
+        Path output = args.length > 0 ? Paths.get(args[0])
+                : Paths.get(System.getProperty("user.home"), ".po_modify", "rakuten-ranking-" + LocalDate.now() + ".ndjson");
+        Path checkpoint = Paths.get(output + ".checkpoint");
+
+        RakutenRecipeApiExample app = new RakutenRecipeApiExample(APP_ID);
+        System.out.println("レシピカテゴリを取得中...");
+        RakutenCategoryTree tree = app.loadCategoryData(RakutenCategoryCache.DEFAULT_PATH, RakutenCategoryCache.DEFAULT_TTL);
+        if (tree.size() <= 1) {
+            System.out.println("カテゴリの取得に失敗しました。");
+            return;
+        }
+
+        RakutenRankingCrawler crawler = new RakutenRankingCrawler(APP_ID, 1.0);
+        try {
+            Result result = crawler.crawl(tree, output, checkpoint);
+            System.out.printf("完了: 取得 %d 件, 取得済みのため省略 %d 件, 失敗 %d 件%n",
+                    result.fetched(), result.skipped(), result.failed());
+            System.out.println("出力先: " + output);
+            if (result.failed() > 0) {
+                System.out.println("失敗したカテゴリは、もう一度実行すると取得し直します。");
+            }
+            // 前回から順位が変わったカテゴリだけを履歴に記録する
+            try (RakutenRankingHistory history = RakutenRankingHistory.open(RakutenRankingHistory.DEFAULT_PATH)) {
+                int changed = history.importNdjson(output);
+                System.out.println("ランキング履歴: " + changed + " カテゴリで順位が変わりました。");
+            }
+        } catch (IOException e) {
+            System.err.println("ファイルの読み書きに失敗しました: " + e.getMessage());
+        } catch (InterruptedException e) {
+            System.err.println("中断しました。もう一度実行すると続きから取得します。");
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,442 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * 楽天レシピのカテゴリ別ランキングの履歴。
+ * <ul>
+ *   <li>ディスク: 追記のみのログファイル。ランキングを取得するたびに、前回との差分（圏外に出た・新しく入った・順位が変わった）
+ *       だけを時刻付きで書き足す。順位が変わっていなければ何も書かないので、ファイルは取得回数ではなく変動の量に応じて増える</li>
+ *   <li>メモリ: カテゴリごとに、変動した時刻と変動後の順位（レシピIDの配列）を時刻順に持つ。
+ *       ある時点の順位は二分探索で求まるので、「この1週間で順位を上げたレシピ」は全カテゴリを1回ずつ見るだけで答えられる</li>
+ * </ul>
+ * カテゴリの検索用IDとレシピ名は初めて出てきたときに1回だけ書き、差分の中では番号とレシピIDで参照する。
+ */
+public class RakutenRankingHistory implements Closeable {
+
+    public static final Path DEFAULT_PATH = Paths.get(System.getProperty("user.home"), ".po_modify", "rakuten-ranking-history.log");
+    private static final int LOG_MAGIC = 0x52524853; // "RRHS"
+    private static final int LOG_VERSION = 1;
+    private static final int LOG_HEADER_BYTES = 8;
+    // ログの記録の種類
+    private static final byte CATEGORY = 1;
+    private static final byte RECIPE = 2;
+    private static final byte CHANGE = 3;
+    private static final long[] EMPTY = new long[0];
+
+    /**
+     * 順位の上昇
+     * @param searchId カテゴリの検索用ID
+     * @param recipeId レシピID
+     * @param title レシピ名
+     * @param fromRank 比較の起点での順位（圏外なら0）
+     * @param toRank 現在の順位
+     * @param climbed 上がった順位の数（圏外からは「ランキングの件数 + 1位」から上がったものとして数える）
+     */
+    public record Climb(String searchId, long recipeId, String title, int fromRank, int toRank, int climbed) {}
+
+    // カテゴリ1つ分の履歴。times[i] の時点から順位が rankings[i] になった
+    private static final class Timeline {
+        final String searchId;
+        long[] times = new long[4];
+        long[][] rankings = new long[4][];
+        int size;
+
+        Timeline(String searchId) {
+            this.searchId = searchId;
+        }
+
+        long[] latest() {
+            return size == 0 ? EMPTY : rankings[size - 1];
+        }
+
+        long latestTime() {
+            return size == 0 ? Long.MIN_VALUE : times[size - 1];
+        }
+
+        void add(long time, long[] ranking) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                rankings = Arrays.copyOf(rankings, size * 2);
+            }
+            times[size] = time;
+            rankings[size] = ranking;
+            size++;
+        }
+
+        // time の時点の順位（記録を始める前なら最初の記録）
+        long[] at(long time) {
+            int index = Arrays.binarySearch(times, 0, size, time);
+            if (index < 0) index = -index - 2; // time より前で最後の変動
+            return rankings[Math.max(index, 0)];
+        }
+    }
+
+    private final Path logFile;
+    private final List<Timeline> timelines = new ArrayList<>();
+    private final Map<String, Integer> categoryNumbers = new HashMap<>();
+    private final Map<Long, String> titles = new HashMap<>();
+    private DataOutputStream log;
+    private int changeCount;
+
+    private RakutenRankingHistory(Path logFile) {
+        this.logFile = logFile;
+    }
+
+    /**
+     * 履歴を開く。ログファイルがあれば読み込む。
+     * 書き込み途中で終了していた場合は、最後の不完全な記録を切り捨てる。
+     */
+    public static RakutenRankingHistory open(Path logFile) throws IOException {
+        RakutenRankingHistory history = new RakutenRankingHistory(logFile);
+        Path directory = logFile.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        history.readLog();
+        return history;
+    }
+
+    private void readLog() throws IOException {
+        if (!Files.isRegularFile(logFile) || Files.size(logFile) < LOG_HEADER_BYTES) {
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(logFile))) {
+                out.writeInt(LOG_MAGIC);
+                out.writeInt(LOG_VERSION);
+            }
+            return;
+        }
+        long validBytes;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logFile), 1 << 16))) {
+            if (in.readInt() != LOG_MAGIC || in.readInt() != LOG_VERSION) {
+                throw new IOException("ランキング履歴のログファイルの形式が違います: " + logFile);
+            }
+            validBytes = LOG_HEADER_BYTES;
+            byte[] record = new byte[256];
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                    if (length <= 0) break;
+                    if (record.length < length) record = new byte[Math.max(length, record.length * 2)];
+                    in.readFully(record, 0, length);
+                } catch (EOFException e) {
+                    break;
+                }
+                apply(new DataInputStream(new ByteArrayInputStream(record, 0, length)));
+                validBytes += 4 + length;
+            }
+        }
+        if (validBytes < Files.size(logFile)) {
+            System.err.println("ランキング履歴のログの末尾に不完全な記録があったため切り捨てました: " + logFile);
+            try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+                channel.truncate(validBytes);
+            }
+        }
+    }
+
+    // ログの記録1件をメモリ上の履歴に反映する
+    private void apply(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        if (type == CATEGORY) {
+            String searchId = in.readUTF();
+            categoryNumbers.put(searchId, timelines.size());
+            timelines.add(new Timeline(searchId));
+        } else if (type == RECIPE) {
+            titles.put(in.readLong(), in.readUTF());
+        } else if (type == CHANGE) {
+            Timeline timeline = timelines.get(in.readInt());
+            long time = in.readLong();
+            timeline.add(time, applyDiff(timeline.latest(), in));
+            changeCount++;
+        } else {
+            throw new IOException("ランキング履歴のログに不明な記録があります: " + type);
+        }
+    }
+
+    /*
+     * 差分の形式:
+     *   変動後の件数(short)
+     *   圏外に出た件数(short) レシピID(long)...
+     *   新しく入った件数(short) (順位(short) レシピID(long))...
+     *   順位が変わった件数(short) (レシピID(long) 新しい順位(short))...
+     */
+    private static void writeDiff(DataOutputStream out, long[] previous, long[] next) throws IOException {
+        Map<Long, Integer> previousRanks = ranks(previous);
+        Map<Long, Integer> nextRanks = ranks(next);
+        out.writeShort(next.length);
+        List<Long> left = new ArrayList<>();
+        for (long id : previous) {
+            if (!nextRanks.containsKey(id)) left.add(id);
+        }
+        out.writeShort(left.size());
+        for (long id : left) out.writeLong(id);
+        List<Integer> entered = new ArrayList<>();
+        List<Integer> moved = new ArrayList<>();
+        for (int i = 0; i < next.length; i++) {
+            Integer before = previousRanks.get(next[i]);
+            if (before == null) {
+                entered.add(i);
+            } else if (before != i) {
+                moved.add(i);
+            }
+        }
+        out.writeShort(entered.size());
+        for (int i : entered) {
+            out.writeShort(i + 1);
+            out.writeLong(next[i]);
+        }
+        out.writeShort(moved.size());
+        for (int i : moved) {
+            out.writeLong(next[i]);
+            out.writeShort(i + 1);
+        }
+    }
+
+    private static long[] applyDiff(long[] previous, DataInputStream in) throws IOException {
+        long[] next = new long[in.readUnsignedShort()];
+        Map<Long, Integer> previousRanks = ranks(previous);
+        int leftCount = in.readUnsignedShort();
+        for (int i = 0; i < leftCount; i++) {
+            previousRanks.remove(in.readLong());
+        }
+        int enteredCount = in.readUnsignedShort();
+        for (int i = 0; i < enteredCount; i++) {
+            int rank = in.readUnsignedShort();
+            next[rank - 1] = in.readLong();
+        }
+        int movedCount = in.readUnsignedShort();
+        for (int i = 0; i < movedCount; i++) {
+            long id = in.readLong();
+            next[in.readUnsignedShort() - 1] = id;
+            previousRanks.remove(id);
+        }
+        // 残りは順位が変わらなかったもの
+        previousRanks.forEach((id, index) -> next[index] = id);
+        return next;
+    }
+
+    private static Map<Long, Integer> ranks(long[] ranking) {
+        Map<Long, Integer> ranks = new HashMap<>(ranking.length * 2);
+        for (int i = 0; i < ranking.length; i++) ranks.put(ranking[i], i);
+        return ranks;
+    }
+
+    /**
+     * 取得したランキングを記録する。前回の記録から順位が変わっていなければ何も書かない。
+     * 前回の記録より古い時刻のランキングは無視する（同じファイルを何度取り込んでもよい）。
+     * @param searchId カテゴリの検索用ID
+     * @param fetchedAt 取得した時刻
+     * @param recipes ランキング（順位の順）
+     * @return 変動があって記録したら true
+     */
+    public boolean record(String searchId, Instant fetchedAt, List<RakutenRecipeApiExample.Recipe> recipes) throws IOException {
+        Integer number = categoryNumbers.get(searchId);
+        if (number == null) {
+            number = timelines.size();
+            append(CATEGORY, out -> out.writeUTF(searchId));
+        }
+        Timeline timeline = timelines.get(number);
+        long time = fetchedAt.getEpochSecond();
+        if (time <= timeline.latestTime()) {
+            return false;
+        }
+        List<RakutenRecipeApiExample.Recipe> sorted = new ArrayList<>(recipes);
+        sorted.sort(Comparator.comparingInt(RakutenRecipeApiExample.Recipe::rank));
+        long[] next = new long[sorted.size()];
+        for (int i = 0; i < next.length; i++) {
+            RakutenRecipeApiExample.Recipe recipe = sorted.get(i);
+            next[i] = recipe.recipeId();
+            if (recipe.recipeTitle() != null && !recipe.recipeTitle().equals(titles.get(recipe.recipeId()))) {
+                append(RECIPE, out -> {
+                    out.writeLong(recipe.recipeId());
+                    out.writeUTF(recipe.recipeTitle());
+                });
+            }
+        }
+        long[] previous = timeline.latest();
+        if (timeline.size > 0 && Arrays.equals(previous, next)) {
+            return false;
+        }
+        int categoryNumber = number;
+        append(CHANGE, out -> {
+            out.writeInt(categoryNumber);
+            out.writeLong(time);
+            writeDiff(out, previous, next);
+        });
+        return true;
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // 記録をログに追記し、メモリ上の履歴にも反映する
+    private void append(byte type, RecordWriter writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        writer.write(out);
+        byte[] record = bytes.toByteArray();
+        if (log == null) {
+            OutputStream file = Files.newOutputStream(logFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            log = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+        }
+        log.writeInt(record.length);
+        log.write(record);
+        apply(new DataInputStream(new ByteArrayInputStream(record)));
+    }
+
+    /**
+     * RakutenRankingCrawler が書き出したNDJSONファイルを取り込む
+     * @return 変動があって記録したカテゴリ数
+     */
+    public int importNdjson(Path ndjson) throws IOException {
+        Gson gson = new Gson();
+        int changed = 0;
+        try (BufferedReader reader = Files.newBufferedReader(ndjson, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                try {
+                    JsonObject entry = JsonParser.parseString(line).getAsJsonObject();
+                    JsonElement searchId = entry.get("searchId");
+                    JsonElement fetchedAt = entry.get("fetchedAt");
+                    JsonElement recipesJson = entry.get("recipes");
+                    if (isMissing(searchId) || isMissing(fetchedAt) || isMissing(recipesJson)) {
+                        System.err.println("searchId, fetchedAt, recipes のいずれかがない行を飛ばしました");
+                        continue;
+                    }
+                    RakutenRecipeApiExample.Recipe[] recipes = gson.fromJson(recipesJson, RakutenRecipeApiExample.Recipe[].class);
+                    if (record(searchId.getAsString(), Instant.parse(fetchedAt.getAsString()), Arrays.asList(recipes))) {
+                        changed++;
+                    }
+                } catch (JsonParseException | IllegalStateException | DateTimeParseException e) {
+                    System.err.println("取り込めない行を飛ばしました: " + e.getMessage());
+                }
+            }
+        }
+        flush();
+        return changed;
+    }
+
+    private static boolean isMissing(JsonElement element) {
+        return element == null || element.isJsonNull();
+    }
+
+    /**
+     * since の時点から現在までに順位を上げたレシピを、上がった数の多い順に返す
+     * @param since 比較の起点（記録を始める前なら最初の記録と比べる）
+     * @param limit 返す件数の上限
+     */
+    public List<Climb> topClimbers(Instant since, int limit) {
+        long time = since.getEpochSecond();
+        List<Climb> climbs = new ArrayList<>();
+        for (Timeline timeline : timelines) {
+            if (timeline.size == 0) continue;
+            long[] before = timeline.at(time);
+            long[] now = timeline.latest();
+            if (before == now) continue;
+            Map<Long, Integer> beforeRanks = ranks(before);
+            for (int i = 0; i < now.length; i++) {
+                Integer from = beforeRanks.get(now[i]);
+                int fromRank = from != null ? from + 1 : 0;
+                int climbed = (from != null ? from + 1 : before.length + 1) - (i + 1);
+                if (climbed > 0) {
+                    climbs.add(new Climb(timeline.searchId, now[i], titles.get(now[i]), fromRank, i + 1, climbed));
+                }
+            }
+        }
+        climbs.sort(Comparator.comparingInt(Climb::climbed).reversed().thenComparingInt(Climb::toRank));
+        return climbs.size() > limit ? new ArrayList<>(climbs.subList(0, limit)) : climbs;
+    }
+
+    /** 記録しているカテゴリ数 */
+    public int categoryCount() {
+        return timelines.size();
+    }
+
+    /** 記録している変動の数 */
+    public int changeCount() {
+        return changeCount;
+    }
+
+    /** 追記した内容をディスクに書き出す */
+    public void flush() throws IOException {
+        if (log != null) {
+            log.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("使い方: RakutenRankingHistory import <NDJSONファイル>...");
+            System.out.println("        RakutenRankingHistory climbers [日数(既定7)] [件数(既定20)]");
+            return;
+        }
+        try (RakutenRankingHistory history = open(DEFAULT_PATH)) {
+            if (args[0].equals("import")) {
+                for (int i = 1; i < args.length; i++) {
+                    int changed = history.importNdjson(Paths.get(args[i]));
+                    System.out.println(args[i] + ": " + changed + " カテゴリで順位が変わりました。");
+                }
+                System.out.printf("%d カテゴリ, %d 件の変動を記録しています（%d バイト）。%n",
+                        history.categoryCount(), history.changeCount(), Files.size(DEFAULT_PATH));
+            } else if (args[0].equals("climbers")) {
+                int days = args.length > 1 ? Integer.parseInt(args[1]) : 7;
+                int limit = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+                long started = System.nanoTime();
+                List<Climb> climbs = history.topClimbers(Instant.now().minus(Duration.ofDays(days)), limit);
+                long elapsedMicros = (System.nanoTime() - started) / 1000;
+                System.out.println("--- この" + days + "日間で順位を上げたレシピ ---");
+                for (Climb climb : climbs) {
+                    String from = climb.fromRank() == 0 ? "圏外" : climb.fromRank() + "位";
+                    System.out.printf("  %s → %d位 (+%d) %s [カテゴリ %s] https://recipe.rakuten.co.jp/recipe/%d/%n",
+                            from, climb.toRank(), climb.climbed(), climb.title(), climb.searchId(), climb.recipeId());
+                }
+                System.out.printf("(%d カテゴリから %d µs)%n", history.categoryCount(), elapsedMicros);
+            } else {
+                System.out.println("不明なコマンドです: " + args[0]);
+            }
+        } catch (IOException e) {
+            System.err.println("ランキング履歴の読み書きに失敗しました: " + e.getMessage());
+        } catch (NumberFormatException e) {
+            System.err.println("数値を指定してください: " + e.getMessage());
+        }
+    }
+}
@@ -1,15 +1,15 @@
 import java.io.IOException;
 import java.net.URI;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.Optional;
 import java.util.Scanner;
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
@@ -17,37 +17,12 @@ import com.google.gson.annotations.SerializedName;
 
 public class RakutenRecipeApiExample {
 
-    // カテゴリ情報を保持するためのクラス
-    static class Category {
-        final String id;
-        final String name;
-        final String parentId;
-        final String fullIdForSearch; // API検索に使うID (例: "10-123")
-
-        Category(String id, String name, String parentId, String fullIdForSearch) {
-            this.id = id;
-            this.name = name;
-            this.parentId = parentId;
-            this.fullIdForSearch = fullIdForSearch;
-        }
-    }
-
-    // APIから取得したカテゴリデータをまとめて保持するためのクラス
-    static class CategoryData {
-        final Map<String, Category> allCategories; // IDからカテゴリ情報を引くためのマップ
-        final Map<String, List<Category>> hierarchy; // 親IDから子のリストを引くためのマップ
-
-        CategoryData(Map<String, Category> allCategories, Map<String, List<Category>> hierarchy) {
-            this.allCategories = allCategories;
-            this.hierarchy = hierarchy;
-        }
-    }
-
     // --- Gsonでマッピングするためのデータクラス(record) ---
 
     // レシピランキングAPIのレスポンス
     public record RecipeRankingResponse(List<Recipe> result, @SerializedName("error_description") String errorDescription) {}
     public record Recipe(
+        long recipeId,
         int rank,
         String recipeTitle,
         String recipeDescription,
@@ -69,15 +44,25 @@ public class RakutenRecipeApiExample {
     ) {}
 
     // --- クラスのフィールド ---
-    private final HttpClient client = HttpClient.newHttpClient();
-    private final Gson gson = new Gson();
+    // Gsonは作るのに時間がかかるので、キャッシュから起動する場合に備えて初めて使うときに作る
+    // （HttpClientは SharedHttpClient が初めて送信するときに作る）
+    private Gson gson;
     private final String appId;
+    // 最新のカテゴリデータ（バックグラウンドでの再取得が終わると差し替わる）
+    private volatile RakutenCategoryTree latestCategoryData;
 
     // コンストラクタ
     public RakutenRecipeApiExample(String appId) {
         this.appId = appId;
     }
 
+    private synchronized Gson gson() {
+        if (gson == null) {
+            gson = new Gson();
+        }
+        return gson;
+    }
+
     /**
      * 指定されたカテゴリIDの楽天レシピランキングを取得します。
      * @param appId アプリケーションID
@@ -94,10 +79,10 @@ public class RakutenRecipeApiExample {
                 .build();
 
         try {
-            HttpResponse<String> response = this.client.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = SharedHttpClient.send(request, HttpResponse.BodyHandlers.ofString());
 
             if (response.statusCode() == 200) {
-                RecipeRankingResponse rankingResponse = gson.fromJson(response.body(), RecipeRankingResponse.class);
+                RecipeRankingResponse rankingResponse = gson().fromJson(response.body(), RecipeRankingResponse.class);
                 if (rankingResponse.result() != null && !rankingResponse.result().isEmpty()) {
                     System.out.println("\n--- 「" + categoryName + "」の人気レシピ トップ" + rankingResponse.result().size() + " ---");
                     rankingResponse.result().forEach(recipe -> {
@@ -124,19 +109,17 @@ public class RakutenRecipeApiExample {
 
     /**
      * 楽天レシピカテゴリ一覧APIを呼び出し、カテゴリの階層構造データを返します。
-     * @param appId アプリケーションID
-     * @return カテゴリデータ
+     * @return カテゴリ階層（取得できなければトップレベルだけの木）
      */
-    public CategoryData getCategoryData() {
-        Map<String, Category> allCategories = new HashMap<>();
-        Map<String, List<Category>> hierarchy = new HashMap<>();
+    public RakutenCategoryTree getCategoryData() {
+        List<RakutenCategoryTree.Entry> entries = new ArrayList<>();
         String url = "https://app.rakuten.co.jp/services/api/Recipe/CategoryList/20170426?applicationId=" + this.appId + "&formatVersion=2";
         HttpRequest request = HttpRequest.newBuilder().uri(URI.create(url)).GET().build();
 
         try {
-            HttpResponse<String> response = this.client.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = SharedHttpClient.send(request, HttpResponse.BodyHandlers.ofString());
             if (response.statusCode() == 200) {
-                CategoryListResponse listResponse = gson.fromJson(response.body(), CategoryListResponse.class);
+                CategoryListResponse listResponse = gson().fromJson(response.body(), CategoryListResponse.class);
                 if (listResponse != null && listResponse.result() != null) {
                     List<ApiCategory> allApiCategories = new ArrayList<>();
                     if (listResponse.result().large() != null) allApiCategories.addAll(listResponse.result().large());
@@ -148,6 +131,7 @@ public class RakutenRecipeApiExample {
                         String name = apiCategory.categoryName();
                         String parentId = (apiCategory.parentCategoryId() != null) ? apiCategory.parentCategoryId() : "0";
 
+                        // 検索用ID (例: "10-275") はカテゴリURLの末尾。木を作るときに一度だけ求めて保持する
                         String categoryUrl = apiCategory.categoryUrl();
                         int queryIndex = categoryUrl.indexOf('?');
                         if (queryIndex != -1) {
@@ -158,9 +142,7 @@ public class RakutenRecipeApiExample {
                         }
                         String fullIdForSearch = categoryUrl.substring(categoryUrl.lastIndexOf('/') + 1);
 
-                        Category category = new Category(id, name, parentId, fullIdForSearch);
-                        allCategories.put(id, category);
-                        hierarchy.computeIfAbsent(parentId, k -> new ArrayList<>()).add(category);
+                        entries.add(new RakutenCategoryTree.Entry(id, name, parentId, fullIdForSearch));
                     }
                 }
             }
@@ -169,8 +151,123 @@ public class RakutenRecipeApiExample {
             Thread.currentThread().interrupt();
         } catch (JsonSyntaxException e) {
             System.err.println("カテゴリ一覧のJSON解析に失敗しました: " + e.getMessage());
+        } catch (NumberFormatException e) {
+            System.err.println("カテゴリIDが数値ではありません: " + e.getMessage());
+            entries.clear();
+        }
+        return RakutenCategoryTree.build(entries);
+    }
+
+    /**
+     * カテゴリ階層を返す。キャッシュファイルがあればそれを使い（APIは呼ばない）、
+     * 有効期限を過ぎていればバックグラウンドで再取得する。キャッシュがなければAPIから取得して保存する。
+     * @param cachePath キャッシュファイル
+     * @param ttl キャッシュの有効期限
+     * @return カテゴリ階層（取得できなければトップレベルだけの木）
+     */
+    public RakutenCategoryTree loadCategoryData(Path cachePath, Duration ttl) {
+        Optional<RakutenCategoryCache.Loaded> cached = RakutenCategoryCache.load(cachePath);
+        if (cached.isPresent() && cached.get().tree().size() > 1) {
+            latestCategoryData = cached.get().tree();
+            if (cached.get().isExpired(ttl)) {
+                refreshInBackground(cachePath);
+            }
+            return latestCategoryData;
+        }
+        RakutenCategoryTree fetched = getCategoryData();
+        if (fetched.size() > 1) {
+            saveCache(cachePath, fetched);
+        }
+        latestCategoryData = fetched;
+        return fetched;
+    }
+
+    /**
+     * 最新のカテゴリ階層。loadCategoryData の後、バックグラウンドの再取得が終わっていれば新しいものを返す。
+     */
+    public RakutenCategoryTree latestCategoryData() {
+        return latestCategoryData;
+    }
+
+    private void refreshInBackground(Path cachePath) {
+        Thread refresher = new Thread(() -> {
+            RakutenCategoryTree fetched = getCategoryData();
+            if (fetched.size() <= 1) {
+                return; // 取得できなければ古いキャッシュを使い続ける
+            }
+            saveCache(cachePath, fetched);
+            latestCategoryData = fetched;
+        }, "rakuten-category-refresh");
+        refresher.setDaemon(true);
+        refresher.start();
+    }
+
+    private static void saveCache(Path cachePath, RakutenCategoryTree tree) {
+        try {
+            RakutenCategoryCache.save(cachePath, tree);
+        } catch (IOException e) {
+            System.err.println("カテゴリのキャッシュを保存できませんでした: " + e.getMessage());
+        }
+    }
+
+    // カテゴリ名の表示幅。カテゴリごとに初めて表示するときに数え、widths に覚えておく（未計算は -1）
+    private static int displayWidth(RakutenCategoryTree tree, int[] widths, int node) {
+        if (widths[node] < 0) {
+            widths[node] = TerminalRenderer.width(tree.name(node));
+        }
+        return widths[node];
+    }
+
+    // サブカテゴリを番号付きで並べてフレームに追加する
+    private static void renderChildren(TerminalRenderer screen, RakutenCategoryTree tree, int[] widths, int node) {
+        screen.numberedGrid(tree.childCount(node), k -> tree.name(tree.child(node, k)),
+                k -> displayWidth(tree, widths, tree.child(node, k)));
+    }
+
+    private static int[] newWidthCache(RakutenCategoryTree tree) {
+        int[] widths = new int[tree.size()];
+        Arrays.fill(widths, -1);
+        return widths;
+    }
+
+    /**
+     * カテゴリ名で探した結果を表示し、選ばれたカテゴリへ移動する（サブカテゴリがなければそのまま検索する）
+     * @return 移動先のノード（移動しなければ current）
+     */
+    private static int findCategory(Scanner scanner, TerminalRenderer screen, RakutenRecipeApiExample app,
+                                    RakutenCategorySearch search, String query, int current) {
+        RakutenCategoryTree tree = search.tree();
+        List<RakutenCategorySearch.Hit> hits = search.search(query, 20);
+        if (hits.isEmpty()) {
+            System.out.println("「" + query + "」を含むカテゴリは見つかりませんでした。");
+            return current;
+        }
+        screen.line().line("--- 「" + query + "」を含むカテゴリ ---");
+        for (int i = 0; i < hits.size(); i++) {
+            screen.line(String.format("  %2d: %s", i + 1, hits.get(i).path()));
+        }
+        screen.line().line("[操作] 番号: 移動 | Enter: 戻る").text("> ").flush();
+        String input = scanner.nextLine().trim();
+        if (input.isEmpty()) {
+            return current;
+        }
+        try {
+            int choice = Integer.parseInt(input);
+            if (choice < 1 || choice > hits.size()) {
+                System.out.println("無効な番号です。");
+                return current;
+            }
+            int selected = hits.get(choice - 1).node();
+            if (tree.isLeaf(selected)) {
+                System.out.println("\n「" + tree.name(selected) + "」にはサブカテゴリがありません。レシピを検索します...");
+                app.getRecipeRanking(tree.searchId(selected), tree.name(selected));
+                return tree.parent(selected);
+            }
+            return selected;
+        } catch (NumberFormatException e) {
+            System.out.println("不正な入力です。");
+            return current;
         }
-        return new CategoryData(allCategories, hierarchy);
     }
 
     public static void main(String[] args) {
@@ -179,41 +276,57 @@ public class RakutenRecipeApiExample {
         RakutenRecipeApiExample app = new RakutenRecipeApiExample(APP_ID);
 
         System.out.println("レシピカテゴリを取得中...");
-        CategoryData categoryData = app.getCategoryData();
-        if (categoryData.allCategories.isEmpty()) {
+        RakutenCategoryTree tree = app.loadCategoryData(RakutenCategoryCache.DEFAULT_PATH, RakutenCategoryCache.DEFAULT_TTL);
+        if (tree.size() <= 1) {
             System.out.println("カテゴリの取得に失敗しました。");
             return;
         }
         System.out.println("カテゴリの取得が完了しました。");
 
         // 仮想的なトップレベルから開始
-        Category currentCategory = new Category("0", "トップレベル", null, null);
+        int current = RakutenCategoryTree.ROOT;
+        // カテゴリ名の検索用索引（カテゴリが更新されたら作り直す）
+        RakutenCategorySearch search = new RakutenCategorySearch(tree);
+        // カテゴリ名の表示幅のキャッシュ（カテゴリが更新されたら作り直す）
+        int[] nameWidths = newWidthCache(tree);
+        // メニューは1画面分をまとめて書き出す
+        TerminalRenderer screen = new TerminalRenderer(System.out);
 
         try (Scanner scanner = new Scanner(System.in)) {
             while (true) {
-                System.out.println("\n--- 現在のカテゴリ: " + currentCategory.name + " ---");
-                List<Category> children = categoryData.hierarchy.getOrDefault(currentCategory.id, Collections.emptyList());
-                
-                if (children.isEmpty()) {
+                RakutenCategoryTree latest = app.latestCategoryData();
+                if (latest != tree) {
+                    // バックグラウンドで更新されていれば新しい木に移る（ノード番号はカテゴリIDで引き直す）
+                    int moved = current == RakutenCategoryTree.ROOT ? RakutenCategoryTree.ROOT : latest.indexOf(tree.apiId(current));
+                    current = moved >= 0 ? moved : RakutenCategoryTree.ROOT;
+                    tree = latest;
+                    search = new RakutenCategorySearch(tree);
+                    nameWidths = newWidthCache(tree);
+                }
+                screen.line().line("--- 現在のカテゴリ: " + tree.name(current) + " ---");
+                int childCount = tree.childCount(current);
+
+                if (childCount == 0) {
                     // サブカテゴリがない場合の処理
-                    System.out.println("このカテゴリにはサブカテゴリがありません。");
-                    System.out.println("\n[操作] s: このカテゴリを検索 | u: 上へ | q: 終了");
-                    System.out.print("> ");
+                    screen.line("このカテゴリにはサブカテゴリがありません。");
+                    screen.line().line("[操作] s: このカテゴリを検索 | /名前: カテゴリを探す | u: 上へ | q: 終了").text("> ").flush();
                     String input = scanner.nextLine().trim();
 
                     if (input.equalsIgnoreCase("q")) {
                         System.out.println("プログラムを終了します。");
                         break;
                     } else if (input.equalsIgnoreCase("u")) {
-                        if (currentCategory.parentId != null) {
-                            currentCategory = categoryData.allCategories.get(currentCategory.parentId);
+                        if (tree.parent(current) != RakutenCategoryTree.NO_PARENT) {
+                            current = tree.parent(current);
                         } else {
                             System.out.println("すでにトップレベルです。");
                         }
+                    } else if (input.startsWith("/")) {
+                        current = findCategory(scanner, screen, app, search, input.substring(1).trim(), current);
                     } else if (input.equalsIgnoreCase("s")) {
-                        if (currentCategory.fullIdForSearch != null) {
-                            System.out.println("\n「" + currentCategory.name + "」を検索します...");
-                            app.getRecipeRanking(currentCategory.fullIdForSearch, currentCategory.name);
+                        if (current != RakutenCategoryTree.ROOT) {
+                            System.out.println("\n「" + tree.name(current) + "」を検索します...");
+                            app.getRecipeRanking(tree.searchId(current), tree.name(current));
                         } else {
                             System.out.println("トップレベルカテゴリは検索できません。");
                         }
@@ -222,73 +335,43 @@ public class RakutenRecipeApiExample {
                     }
                 } else {
                     // サブカテゴリがある場合の処理
-                    // 各カテゴリ名の表示上の最大幅を計算（全角=2, 半角=1）
-                    int maxNameWidth = 0;
-                    for (Category child : children) {
-                        int width = 0;
-                        for (char c : child.name.toCharArray()) {
-                            // 全角文字を2、半角文字を1としてカウントする簡易的な判定
-                            width += (String.valueOf(c).getBytes(StandardCharsets.UTF_8).length > 1) ? 2 : 1;
-                        }
-                        if (width > maxNameWidth) {
-                            maxNameWidth = width;
-                        }
-                    }
-
-                    // 2列で整形して表示
-                    final int columns = 2;
-                    for (int i = 0; i < children.size(); i++) {
-                        Category child = children.get(i);
-                        // 番号(2桁)とカテゴリ名を出力
-                        System.out.printf("  %2d: %s", i + 1, child.name);
-
-                        // 行の最後の項目か、全項目の最後の項目でなければ、パディングを追加
-                        if ((i + 1) % columns != 0 && i < children.size() - 1) {
-                            int currentNameWidth = 0;
-                            for (char c : child.name.toCharArray()) {
-                                currentNameWidth += (String.valueOf(c).getBytes(StandardCharsets.UTF_8).length > 1) ? 2 : 1;
-                            }
-                            int padding = maxNameWidth - currentNameWidth + 4; // 4は項目間の固定スペース
-                            System.out.print(" ".repeat(Math.max(0, padding)));
-                        } else {
-                            System.out.println(); // 行末または全項目の末尾で改行
-                        }
-                    }
-                    System.out.println("\n[操作] 番号: 下へ | s 番号: 検索 | u: 上へ | q: 終了");
-                    System.out.print("> ");
+                    // 端末の幅に収まる列数で並べる（表示幅はカテゴリごとにキャッシュ）
+                    renderChildren(screen, tree, nameWidths, current);
+                    screen.line().line("[操作] 番号: 下へ | s 番号: 検索 | /名前: カテゴリを探す | u: 上へ | q: 終了").text("> ").flush();
                     String input = scanner.nextLine().trim();
 
                     if (input.equalsIgnoreCase("q")) {
                         System.out.println("プログラムを終了します。");
                         break;
                     } else if (input.equalsIgnoreCase("u")) {
-                        if (currentCategory.parentId != null) {
-                            currentCategory = categoryData.allCategories.get(currentCategory.parentId);
+                        if (tree.parent(current) != RakutenCategoryTree.NO_PARENT) {
+                            current = tree.parent(current);
                         } else {
                             System.out.println("すでにトップレベルです。");
                         }
+                    } else if (input.startsWith("/")) {
+                        current = findCategory(scanner, screen, app, search, input.substring(1).trim(), current);
                     } else {
                         String command = input.startsWith("s ") ? "s" : "drill";
                         String numberStr = input.startsWith("s ") ? input.substring(2).trim() : input;
 
                         try {
                             int choice = Integer.parseInt(numberStr);
-                            if (choice > 0 && choice <= children.size()) {
-                                Category selectedCategory = children.get(choice - 1);
+                            if (choice > 0 && choice <= childCount) {
+                                int selected = tree.child(current, choice - 1);
                                 if (command.equals("s")) {
                                     // s <番号> で検索
-                                    System.out.println("\n「" + selectedCategory.name + "」を検索します...");
-                                    app.getRecipeRanking(selectedCategory.fullIdForSearch, selectedCategory.name);
+                                    System.out.println("\n「" + tree.name(selected) + "」を検索します...");
+                                    app.getRecipeRanking(tree.searchId(selected), tree.name(selected));
                                 } else { // 番号のみでドリルダウン
                                     // ドリルダウンする前に、選択したカテゴリにサブカテゴリがあるかチェック
-                                    List<Category> grandChildren = categoryData.hierarchy.getOrDefault(selectedCategory.id, Collections.emptyList());
-                                    if (grandChildren.isEmpty()) {
+                                    if (tree.isLeaf(selected)) {
                                         // サブカテゴリがない場合は、ドリルダウンせずに直接検索する
-                                        System.out.println("\n「" + selectedCategory.name + "」にはサブカテゴリがありません。レシピを検索します...");
-                                        app.getRecipeRanking(selectedCategory.fullIdForSearch, selectedCategory.name);
+                                        System.out.println("\n「" + tree.name(selected) + "」にはサブカテゴリがありません。レシピを検索します...");
+                                        app.getRecipeRanking(tree.searchId(selected), tree.name(selected));
                                     } else {
                                         // サブカテゴリがある場合は、通常通りドリルダウン
-                                        currentCategory = selectedCategory;
+                                        current = selected;
                                     }
                                 }
                             } else {
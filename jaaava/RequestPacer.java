@@ -0,0 +1,39 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * APIへのリクエスト間隔を一定以上に保つためのペーサー。
+ * acquire() を呼ぶたびに、前回の許可から 1/permitsPerSecond 秒以上経つまで待つ。
+ * 待ち時間を貯めておいてまとめて送る（バースト）ことはしないので、指定したレートを超えることはない。
+ * 複数スレッドから共有でき、許可は呼び出し順に割り当てられる。
+ */
+public class RequestPacer {
+
+    private final long intervalNanos;
+    private long nextPermitNanos = System.nanoTime();
+
+    /**
+     * @param permitsPerSecond 1秒あたりに許可するリクエスト数
+     */
+    public RequestPacer(double permitsPerSecond) {
+        if (!(permitsPerSecond > 0)) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+        }
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+    }
+
+    /**
+     * 次のリクエストを送ってよい時刻まで待つ
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long permit = Math.max(now, nextPermitNanos);
+            nextPermitNanos = permit + intervalNanos;
+            waitNanos = permit - now;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
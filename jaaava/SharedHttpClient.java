@@ -0,0 +1,426 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * すべてのAPIクライアントが共有するHTTPの送信口。
+ * <ul>
+ *   <li>HttpClient はプロセスで1つだけ作り（初めて使うときに作る）、接続を機能をまたいで使い回す。HTTP/2 を優先する</li>
+ *   <li>接続のタイムアウトと、リクエストごとの応答のタイムアウトを必ず設定する（応答しないサーバーで止まり続けないため）</li>
+ *   <li>ホストごとの方針（HostPolicy）で同時リクエスト数を制限する。HTTP/1.1 のホストでも接続が増えすぎず、
+ *       少数の接続が使い回される</li>
+ *   <li>非同期処理のスレッドは、システムプロパティ po_modify.http.executor で選べる
+ *       （virtual: 仮想スレッド（Java 21以降、既定）、platform: デーモンスレッドのキャッシュプール）</li>
+ *   <li>GET の応答は HttpResponseCache でキャッシュする。新鮮な応答はネットワークに出ずに返し、古い応答は条件付きリクエストで
+ *       確かめる。CachePolicy.BYPASS を指定したリクエストはキャッシュを通さない。
+ *       システムプロパティ po_modify.http.cache=false か setCacheEnabled(false) で無効にできる。
+ *       送り先を差し替えている間（po_modify.http.redirect）も使わない（キャッシュは本来のURLで保存しているため）</li>
+ *   <li>送信ごとに、応答時間・ステータスコード・受信バイト数・キャッシュから返した件数を HttpMetrics に記録する</li>
+ *   <li>システムプロパティ po_modify.http.redirect（例: http://127.0.0.1:8089）を指定すると、すべてのリクエストを
+ *       そのサーバーに送り直す（StubApiServer を使ったオフラインの試験用）。元のホスト名は X-Forwarded-Host ヘッダーで渡す</li>
+ *   <li>HttpCassette を使うと、録音では応答をカセットに保存し、再生ではネットワークに出ずにカセットから応答を返す。
+ *       カセットを使う間はキャッシュを通さない（録音では毎回ネットワークに出て、再生では記録どおりの応答を返すため）</li>
+ * </ul>
+ */
+public final class SharedHttpClient {
+
+    public static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    public static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    private static final HostPolicy DEFAULT_POLICY = new HostPolicy(HttpClient.Version.HTTP_2, DEFAULT_REQUEST_TIMEOUT, 6);
+
+    /**
+     * ホストごとの接続の方針
+     * @param version 使うHTTPのバージョン（HTTP/2 に対応しないホストは HTTP_1_1）
+     * @param requestTimeout 応答を待つ時間（リクエストに個別の指定がなければこれを使う）
+     * @param maxConcurrentRequests 同時に送るリクエスト数の上限（超えた分は順番待ちになる）
+     */
+    public record HostPolicy(HttpClient.Version version, Duration requestTimeout, int maxConcurrentRequests) {
+        public HostPolicy {
+            if (maxConcurrentRequests < 1) {
+                throw new IllegalArgumentException("maxConcurrentRequests must be positive: " + maxConcurrentRequests);
+            }
+        }
+    }
+
+    /**
+     * 応答キャッシュ（HttpResponseCache）を使うかどうか
+     * <ul>
+     *   <li>USE: GET ならキャッシュを使う（既定）</li>
+     *   <li>BYPASS: キャッシュを参照も保存もしない。画像のように呼び出し側が自分で保存するもの向け（サーバーへ送るヘッダーは変えない）</li>
+     * </ul>
+     */
+    public enum CachePolicy { USE, BYPASS }
+
+    private static final Map<String, HostPolicy> POLICIES = new ConcurrentHashMap<>(Map.of(
+            // 楽天は1秒に1回程度の制限があるので、接続も少数で足りる
+            "app.rakuten.co.jp", new HostPolicy(HttpClient.Version.HTTP_2, DEFAULT_REQUEST_TIMEOUT, 4),
+            "api.inaturalist.org", new HostPolicy(HttpClient.Version.HTTP_2, DEFAULT_REQUEST_TIMEOUT, 4),
+            // 写真の配信元。サムネイル作成では並列にダウンロードする
+            "inaturalist-open-data.s3.amazonaws.com", new HostPolicy(HttpClient.Version.HTTP_2, Duration.ofSeconds(60), 8),
+            "static.inaturalist.org", new HostPolicy(HttpClient.Version.HTTP_2, Duration.ofSeconds(60), 8)));
+    private static final Map<String, HostGate> GATES = new ConcurrentHashMap<>();
+    private static volatile boolean cacheEnabled = !"false".equals(System.getProperty("po_modify.http.cache"));
+    // 送り直し先（null ならそのまま送る）
+    private static volatile URI redirect = parseRedirect(System.getProperty("po_modify.http.redirect"));
+    // 使っているカセット（null なら使わない）
+    private static volatile HttpCassette cassette = HttpCassette.fromSystemProperties();
+
+    private SharedHttpClient() {}
+
+    // 初めて使うときに HttpClient を作る（作るのに時間がかかるため、起動時には作らない）
+    private static final class Holder {
+        static final ExecutorService EXECUTOR = newIoExecutor("http-client");
+        static final HttpClient CLIENT = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(EXECUTOR)
+                .build();
+    }
+
+    /** 共有の HttpClient（send/sendAsync を通さずに使うと、ホストごとの方針は適用されない） */
+    public static HttpClient client() {
+        return Holder.CLIENT;
+    }
+
+    /**
+     * ホストの方針を設定する
+     * @param host ホスト名（例: "api.inaturalist.org"）
+     */
+    public static void setHostPolicy(String host, HostPolicy policy) {
+        POLICIES.put(host, policy);
+        GATES.remove(host); // 次のリクエストから新しい上限で数える
+    }
+
+    /** ホストの方針（設定がなければ既定の方針） */
+    public static HostPolicy hostPolicy(String host) {
+        return host != null ? POLICIES.getOrDefault(host, DEFAULT_POLICY) : DEFAULT_POLICY;
+    }
+
+    /**
+     * すべてのリクエストの送り先を差し替える（スキーム・ホスト・ポートだけを置き換え、パスとクエリは元のまま）
+     * @param baseUrl 送り先（例: "http://127.0.0.1:8089"）。null なら元に戻す
+     */
+    public static void setRedirect(String baseUrl) {
+        redirect = parseRedirect(baseUrl);
+    }
+
+    /**
+     * 応答キャッシュ（HttpResponseCache）を使うかどうかを切り替える（負荷試験などで、毎回実際に送りたいとき）
+     */
+    public static void setCacheEnabled(boolean enabled) {
+        cacheEnabled = enabled;
+    }
+
+    /**
+     * 録音・再生に使うカセットを差し替える（閉じるのは呼び出し側）
+     * @param newCassette 使うカセット。null ならカセットを使わずに通常どおり送る
+     */
+    public static void useCassette(HttpCassette newCassette) {
+        cassette = newCassette;
+    }
+
+    /** 使っているカセット */
+    public static Optional<HttpCassette> cassette() {
+        return Optional.ofNullable(cassette);
+    }
+
+    private static URI parseRedirect(String baseUrl) {
+        return baseUrl == null || baseUrl.isBlank() ? null : URI.create(baseUrl.trim());
+    }
+
+    /**
+     * URL への GET リクエストを作るためのビルダー
+     */
+    public static HttpRequest.Builder request(String url) {
+        return HttpRequest.newBuilder().uri(URI.create(url)).GET();
+    }
+
+    /**
+     * リクエストを送り、応答を待つ。ホストの同時リクエスト数が上限に達していれば空くまで待つ。
+     * ofInputStream のように本文を後から読む場合は、本文を読み終えるか close するまで同時リクエスト数に数える。
+     * キャッシュに新鮮な応答があれば、ネットワークに出ずにそれを返す。
+     */
+    public static <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        return send(request, handler, CachePolicy.USE);
+    }
+
+    /**
+     * キャッシュを使うかどうかを指定して、リクエストを送り、応答を待つ
+     */
+    public static <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler, CachePolicy cachePolicy)
+            throws IOException, InterruptedException {
+        HttpCassette tape = cassette;
+        if (tape != null) {
+            return tape.mode() == HttpCassette.Mode.REPLAY
+                    ? replay(tape, request, handler)
+                    : sendToNetwork(request, tape.recording(request, handler));
+        }
+        if (!useCache(request, cachePolicy)) {
+            return sendToNetwork(request, handler);
+        }
+        HttpResponseCache cache = HttpResponseCache.shared();
+        Optional<HttpResponse<T>> fresh = cache.fresh(request, handler);
+        if (fresh.isPresent()) {
+            HttpMetrics.endpoint(request.uri()).recordCacheHit();
+            return fresh.get();
+        }
+        HttpResponse<T> response = sendToNetwork(cache.conditional(request), cache.wrap(request, handler));
+        return cache.complete(request, response, handler);
+    }
+
+    /**
+     * リクエストを非同期に送る。ホストの同時リクエスト数が上限に達していれば、空いた時点で送る。
+     * 返した CompletableFuture を取り消すと、送信前なら送らず、送信中なら通信を中止する。
+     * ofInputStream のように本文を後から読む場合は、本文を読み終えるか close するまで同時リクエスト数に数える。
+     * キャッシュに新鮮な応答があれば、ネットワークに出ずにそれで完了する（キャッシュの参照も通信用のスレッドで行うので、
+     * 呼び出し元のスレッドでディスクを読むことはない）。
+     */
+    public static <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        return sendAsync(request, handler, CachePolicy.USE);
+    }
+
+    /**
+     * キャッシュを使うかどうかを指定して、リクエストを非同期に送る
+     */
+    public static <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler,
+                                                                   CachePolicy cachePolicy) {
+        HttpCassette tape = cassette;
+        if (tape != null && tape.mode() == HttpCassette.Mode.REPLAY) {
+            try {
+                return CompletableFuture.completedFuture(replay(tape, request, handler));
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        if (tape != null) {
+            return sendToNetworkAsync(request, tape.recording(request, handler));
+        }
+        if (!useCache(request, cachePolicy)) {
+            return sendToNetworkAsync(request, handler);
+        }
+        // キャッシュの参照はディスクを読むことがあるので、呼び出し元（イベントディスパッチスレッドなど）ではなく通信用のスレッドで行う
+        HttpResponseCache cache = HttpResponseCache.shared();
+        AtomicReference<CompletableFuture<?>> exchange = new AtomicReference<>();
+        CompletableFuture<HttpResponse<T>> result = CompletableFuture
+                .supplyAsync(() -> cache.fresh(request, handler), Holder.EXECUTOR)
+                .thenCompose(fresh -> {
+                    if (fresh.isPresent()) {
+                        HttpMetrics.endpoint(request.uri()).recordCacheHit();
+                        return CompletableFuture.completedFuture(fresh.get());
+                    }
+                    CompletableFuture<HttpResponse<T>> sent =
+                            sendToNetworkAsync(cache.conditional(request), cache.wrap(request, handler));
+                    if (!exchange.compareAndSet(null, sent)) {
+                        sent.cancel(true); // 送り始める前に取り消されていた
+                    }
+                    return sent.thenApply(response -> cache.complete(request, response, handler));
+                });
+        result.whenComplete((response, error) -> {
+            if (result.isCancelled()) {
+                CompletableFuture<?> sent = exchange.getAndSet(result);
+                if (sent != null) sent.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    // カセットから応答を返す（記録がなければ IOException。ネットワークには出ない）。
+    // メモリから返すだけなので、応答時間には含めず再生の件数だけを数える（記録がなかった件数はカセットが数える）
+    private static <T> HttpResponse<T> replay(HttpCassette tape, HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException {
+        HttpResponse<T> response = tape.replay(request, handler);
+        HttpMetrics.endpoint(request.uri()).recordReplay();
+        return response;
+    }
+
+    private static boolean useCache(HttpRequest request, CachePolicy cachePolicy) {
+        // 差し替え先の応答を、本来のURLのキャッシュと混ぜない
+        return cacheEnabled && redirect == null && cachePolicy == CachePolicy.USE && HttpResponseCache.isCacheable(request);
+    }
+
+    private static <T> HttpResponse<T> sendToNetwork(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        HttpMetrics.Endpoint metrics = HttpMetrics.endpoint(request.uri());
+        HostGate gate = gate(request);
+        gate.acquire();
+        // 順番待ちの時間は含めない。枠は応答を記録した時点（本文を読み終えたか、読むのをやめたか、失敗した時点）で返す
+        HttpMetrics.Exchange measurement = metrics.startExchange(gate::release);
+        try {
+            return client().send(applyPolicy(request), measurement.measuring(handler));
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            measurement.failed(); // 本文の途中まで読んでいて記録済みなら何もしない
+            throw e;
+        }
+    }
+
+    private static <T> CompletableFuture<HttpResponse<T>> sendToNetworkAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        HttpMetrics.Endpoint metrics = HttpMetrics.endpoint(request.uri());
+        HostGate gate = gate(request);
+        HttpRequest prepared = applyPolicy(request);
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        gate.acquireAsync(() -> {
+            if (result.isDone()) {
+                gate.release(); // 送る前に取り消された
+                return;
+            }
+            HttpMetrics.Exchange measurement = metrics.startExchange(gate::release);
+            CompletableFuture<HttpResponse<T>> exchange;
+            try {
+                exchange = client().sendAsync(prepared, measurement.measuring(handler));
+            } catch (RuntimeException e) {
+                measurement.failed();
+                result.completeExceptionally(e);
+                return;
+            }
+            exchange.whenComplete((response, error) -> {
+                if (error != null) {
+                    measurement.failed();
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(response); // 応答の記録と枠の返却は本文を読み終えた時点
+                }
+            });
+            result.whenComplete((response, error) -> {
+                if (result.isCancelled()) exchange.cancel(true);
+            });
+        });
+        return result;
+    }
+
+    // ホストの方針に合わせて、HTTPのバージョンと（指定がなければ）タイムアウトを設定したリクエストを作る
+    private static HttpRequest applyPolicy(HttpRequest request) {
+        HostPolicy policy = hostPolicy(request.uri().getHost());
+        URI target = redirect;
+        boolean needsTimeout = request.timeout().isEmpty();
+        boolean needsVersion = request.version().isEmpty() && policy.version() != HttpClient.Version.HTTP_2;
+        if (!needsTimeout && !needsVersion && target == null) {
+            return request;
+        }
+        HttpRequest.Builder builder = HttpRequest.newBuilder(request, (name, value) -> true);
+        if (needsTimeout) builder.timeout(policy.requestTimeout());
+        if (needsVersion) builder.version(policy.version());
+        if (target != null) {
+            URI original = request.uri();
+            String query = original.getRawQuery() != null ? "?" + original.getRawQuery() : "";
+            String path = original.getRawPath() == null || original.getRawPath().isEmpty() ? "/" : original.getRawPath();
+            builder.uri(target.resolve(path + query))
+                    .setHeader("X-Forwarded-Host", original.getHost())
+                    .version(HttpClient.Version.HTTP_1_1); // 試験用のサーバーは平文の HTTP/1.1
+        }
+        return builder.build();
+    }
+
+    private static HostGate gate(HttpRequest request) {
+        String host = request.uri().getHost();
+        return GATES.computeIfAbsent(host != null ? host : "", h -> new HostGate(hostPolicy(h).maxConcurrentRequests()));
+    }
+
+    /**
+     * I/O用のスレッドを作るExecutor。po_modify.http.executor が virtual（既定）で Java 21 以降なら仮想スレッド、
+     * それ以外はデーモンスレッドのキャッシュプールを使う
+     * @param threadName 仮想スレッドを使わない場合のスレッド名
+     */
+    public static ExecutorService newIoExecutor(String threadName) {
+        if (!"platform".equals(System.getProperty("po_modify.http.executor", "virtual"))) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // Java 21 より前。下のスレッドプールを使う
+            }
+        }
+        return Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, threadName);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // ホストごとの同時リクエスト数の上限。同期・非同期の順番待ちを来た順に1つのキューに並べ、
+    // 空いた枠は先頭に直接渡す（非同期の順番待ちはスレッドを止めない）
+    private static final class HostGate {
+        private int available;
+        private final Queue<Waiter> waiting = new ArrayDeque<>();
+
+        // 順番待ちの1件。同期の呼び出しは granted になるのを待ち、非同期の呼び出しは枠を渡されたら onAcquired を実行する
+        private static final class Waiter {
+            final Runnable onAcquired; // 同期の呼び出しなら null
+            boolean granted;
+
+            Waiter(Runnable onAcquired) {
+                this.onAcquired = onAcquired;
+            }
+        }
+
+        HostGate(int permits) {
+            this.available = permits;
+        }
+
+        void acquire() throws InterruptedException {
+            InterruptedException interrupted;
+            synchronized (this) {
+                if (available > 0) {
+                    available--;
+                    return;
+                }
+                Waiter self = new Waiter(null);
+                waiting.add(self);
+                try {
+                    while (!self.granted) {
+                        wait();
+                    }
+                    return;
+                } catch (InterruptedException e) {
+                    if (!self.granted) {
+                        waiting.remove(self);
+                        throw e;
+                    }
+                    interrupted = e;
+                }
+            }
+            release(); // 枠を渡された直後に割り込まれた。次の順番待ちに回す
+            throw interrupted;
+        }
+
+        void acquireAsync(Runnable onAcquired) {
+            synchronized (this) {
+                if (available == 0) {
+                    waiting.add(new Waiter(onAcquired));
+                    return;
+                }
+                available--;
+            }
+            onAcquired.run();
+        }
+
+        void release() {
+            Waiter next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    available++;
+                    return;
+                }
+                if (next.onAcquired == null) {
+                    next.granted = true;
+                    notifyAll(); // 待っている同期の呼び出しのうち、granted になったものだけが進む
+                    return;
+                }
+            }
+            next.onAcquired.run(); // 空いた枠をそのまま順番待ちの先頭に渡す
+        }
+    }
+}
@@ -0,0 +1,429 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 外部APIの代わりに、記録済みの応答（フィクスチャ）を返すローカルのHTTPサーバー。
+ * 負荷試験や動作確認を、APIキーも利用回数の制限も気にせず、ネットワークなしで行うためのもの。
+ * <p>
+ * クライアント側は -Dpo_modify.http.redirect=http://127.0.0.1:ポート を付けて起動する（または SharedHttpClient.setRedirect）。
+ * SharedHttpClient が元のホスト名を X-Forwarded-Host で渡すので、ホストとパスから次のAPIを見分けて応答する:
+ * WeatherAPI.com, Open-Meteo, Visual Crossing, Tomorrow.io, PokeAPI, iNaturalist, API Ninjas, MyMemory, DeepL, 楽天レシピ。
+ * <p>
+ * 応答の本文は、フィクスチャのディレクトリに各APIのファイル（Route の fixtureFile。Visual Crossing は Weatherans.txt）が
+ * あればその内容、なければ組み込みの見本を使う。Faults で応答の遅延と、エラー応答・接続の切断を一定の割合で起こせる。
+ */
+public class StubApiServer {
+
+    /**
+     * 障害の注入
+     * @param latency すべての応答に加える遅延
+     * @param jitter 遅延に加える 0〜jitter の揺らぎ
+     * @param errorRate エラー応答を返す割合（0〜1）
+     * @param errorStatus エラー応答のステータスコード（429 なら Retry-After も付ける）
+     * @param dropRate 応答を返さずに接続を切る割合（0〜1）
+     */
+    public record Faults(Duration latency, Duration jitter, double errorRate, int errorStatus, double dropRate) {
+        public static final Faults NONE = new Faults(Duration.ZERO, Duration.ZERO, 0, 503, 0);
+    }
+
+    /**
+     * 1つのAPI（ホストとパスの先頭）と、その応答の作り方
+     * @param name 表示と集計に使う名前
+     * @param host 元のホスト名
+     * @param pathPrefix パスの先頭
+     * @param fixtureFile フィクスチャのファイル名（あれば組み込みの見本の代わりに使う）
+     * @param builtIn 組み込みの見本（リクエストのURIから本文を作る）
+     */
+    private record Route(String name, String host, String pathPrefix, String fixtureFile, Function<URI, byte[]> builtIn) {}
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Faults faults;
+    private final List<Route> routes;
+    // フィクスチャのファイルの内容（ファイルがなかった API は含まない）
+    private final Map<String, byte[]> fixtures = new LinkedHashMap<>();
+    private final Map<String, LongAdder> requestCounts = new LinkedHashMap<>();
+    private final LongAdder injectedErrors = new LongAdder();
+    private final LongAdder droppedConnections = new LongAdder();
+    private final LongAdder unknownRequests = new LongAdder();
+
+    /**
+     * @param port 待ち受けるポート（0 なら空いているポート）
+     * @param fixtureDirectory フィクスチャのファイルを探すディレクトリ
+     * @param faults 障害の注入（なければ Faults.NONE）
+     */
+    public StubApiServer(int port, Path fixtureDirectory, Faults faults) throws IOException {
+        this.faults = faults;
+        this.routes = routes();
+        for (Route route : routes) {
+            requestCounts.put(route.name(), new LongAdder());
+            Path file = fixtureDirectory.resolve(route.fixtureFile());
+            if (Files.isRegularFile(file)) {
+                fixtures.put(route.name(), Files.readAllBytes(file));
+            }
+        }
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        this.executor = SharedHttpClient.newIoExecutor("stub-server"); // 遅延の注入中も他の応答を止めない
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    /** 待ち受けを始める */
+    public void start() {
+        server.start();
+    }
+
+    /** 待ち受けを止める */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /** クライアントの送り先に指定するURL（例: "http://127.0.0.1:8089"） */
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /** フィクスチャのファイルを使っている API の名前 */
+    public List<String> fixtureNames() {
+        return new ArrayList<>(fixtures.keySet());
+    }
+
+    /** API ごとに受けたリクエスト数 */
+    public Map<String, Long> requestCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        requestCounts.forEach((name, adder) -> counts.put(name, adder.sum()));
+        return counts;
+    }
+
+    /** 注入したエラー応答の数 */
+    public long injectedErrors() {
+        return injectedErrors.sum();
+    }
+
+    /** 応答を返さずに切った接続の数 */
+    public long droppedConnections() {
+        return droppedConnections.sum();
+    }
+
+    /** どの API にも当てはまらなかったリクエストの数 */
+    public long unknownRequests() {
+        return unknownRequests.sum();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            exchange.getRequestBody().readAllBytes();
+            URI uri = exchange.getRequestURI();
+            Route route = match(originalHost(exchange), uri.getPath());
+            if (route != null) {
+                requestCounts.get(route.name()).increment();
+            } else {
+                unknownRequests.increment();
+            }
+            delay();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (faults.dropRate() > 0 && random.nextDouble() < faults.dropRate()) {
+                droppedConnections.increment();
+                return; // 応答を送らずに閉じる（クライアントには通信エラーに見える）
+            }
+            if (faults.errorRate() > 0 && random.nextDouble() < faults.errorRate()) {
+                injectedErrors.increment();
+                if (faults.errorStatus() == 429) {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                }
+                send(exchange, faults.errorStatus(), "{\"error\":\"injected by StubApiServer\"}".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            if (route == null) {
+                send(exchange, 404, "{\"error\":\"no fixture for this request\"}".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            byte[] fixture = fixtures.get(route.name());
+            send(exchange, 200, fixture != null ? fixture : route.builtIn().apply(uri));
+        } catch (RuntimeException e) {
+            System.err.println("スタブの応答を作れませんでした: " + e);
+            send(exchange, 500, "{\"error\":\"stub failure\"}".getBytes(StandardCharsets.UTF_8));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void delay() {
+        long millis = faults.latency().toMillis();
+        long jitter = faults.jitter().toMillis();
+        if (jitter > 0) {
+            millis += ThreadLocalRandom.current().nextLong(jitter + 1);
+        }
+        if (millis <= 0) return;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    // SharedHttpClient が付けた元のホスト名（直接呼ばれた場合は Host ヘッダー）
+    private static String originalHost(HttpExchange exchange) {
+        String host = exchange.getRequestHeaders().getFirst("X-Forwarded-Host");
+        if (host == null) {
+            host = exchange.getRequestHeaders().getFirst("Host");
+        }
+        if (host == null) return "";
+        int colon = host.indexOf(':');
+        return colon >= 0 ? host.substring(0, colon) : host;
+    }
+
+    // ホストとパスが一致する API。ホストが分からない（このサーバーに直接送られた）場合はパスだけで探す
+    private Route match(String host, String path) {
+        Route byPath = null;
+        for (Route route : routes) {
+            if (!path.startsWith(route.pathPrefix())) continue;
+            if (route.host().equals(host)) return route;
+            if (byPath == null) byPath = route;
+        }
+        return routes.stream().anyMatch(r -> r.host().equals(host)) ? null : byPath;
+    }
+
+    // --- 組み込みの見本 ---
+
+    private static List<Route> routes() {
+        byte[] pokemon = PokeApiParseBenchmark.samplePokemonJson();
+        byte[] observations = ObservationParseBenchmark.samplePageJson();
+        byte[] categories = rakutenCategories();
+        List<Route> routes = new ArrayList<>();
+        routes.add(new Route("weatherapi", "api.weatherapi.com", "/v1/", "stub-weatherapi.json", uri -> utf8(
+                "{\"location\":{\"name\":\"Osaka\",\"lat\":34.69,\"lon\":135.5,\"tz_id\":\"Asia/Tokyo\"},"
+                + "\"forecast\":{\"forecastday\":[{\"date\":\"" + param(uri, "dt", "2024-01-01") + "\",\"day\":{"
+                + "\"maxtemp_c\":9.8,\"mintemp_c\":2.1,\"avgtemp_c\":5.6,\"maxwind_kph\":14.4,\"totalprecip_mm\":0.3,"
+                + "\"avghumidity\":62,\"condition\":{\"text\":\"晴れ\",\"code\":1000}},"
+                + "\"astro\":{\"sunrise\":\"07:05 AM\",\"sunset\":\"05:03 PM\"}}]}}")));
+        routes.add(new Route("open-meteo-archive", "archive-api.open-meteo.com", "/v1/archive", "stub-open-meteo.json",
+                StubApiServer::openMeteo));
+        routes.add(new Route("open-meteo-forecast", "api.open-meteo.com", "/v1/forecast", "stub-open-meteo.json",
+                StubApiServer::openMeteo));
+        routes.add(new Route("visualcrossing", "weather.visualcrossing.com", "/VisualCrossingWebServices/", "Weatherans.txt",
+                uri -> utf8("{\"queryCost\":1,\"latitude\":34.6937,\"longitude\":135.5023,\"timezone\":\"Asia/Tokyo\","
+                        + "\"days\":[{\"datetime\":\"2024-01-01\",\"tempmax\":9.8,\"tempmin\":2.1,\"temp\":5.6,\"humidity\":62.0,"
+                        + "\"precip\":0.3,\"precipprob\":10.0,\"windspeed\":14.4,\"winddir\":290.0,\"pressure\":1018.0,"
+                        + "\"cloudcover\":20.0,\"uvindex\":3.0,\"sunrise\":\"07:05:00\",\"sunset\":\"17:03:00\","
+                        + "\"description\":\"晴れ。\"}]}")));
+        routes.add(new Route("tomorrow", "api.tomorrow.io", "/v4/weather/", "stub-tomorrow.json", uri -> utf8(
+                "{\"data\":{\"time\":\"2024-01-01T03:00:00Z\",\"values\":{\"cloudCover\":20,\"humidity\":62,"
+                + "\"precipitationIntensity\":0,\"pressureSeaLevel\":1018.2,\"temperature\":8.4,\"apparentTemperature\":6.9,"
+                + "\"uvIndex\":2,\"visibility\":16,\"weatherCode\":1100,\"windDirection\":290,\"windSpeed\":3.1}},"
+                + "\"location\":{\"lat\":34.6937,\"lon\":135.5023}}")));
+        routes.add(new Route("pokeapi-species", "pokeapi.co", "/api/v2/pokemon-species", "stub-pokeapi-species.json",
+                StubApiServer::pokemonSpecies));
+        routes.add(new Route("pokeapi-pokemon", "pokeapi.co", "/api/v2/pokemon", "stub-pokeapi-pokemon.json", uri -> pokemon));
+        routes.add(new Route("inaturalist-taxa", "api.inaturalist.org", "/v1/taxa/autocomplete", "stub-inaturalist-taxa.json",
+                StubApiServer::taxa));
+        // id_above 付き（全件取得の2ページ目以降）は空のページを返して終わらせる
+        routes.add(new Route("inaturalist-observations", "api.inaturalist.org", "/v1/observations",
+                "stub-inaturalist-observations.json",
+                uri -> param(uri, "id_above", null) != null ? utf8("{\"total_results\":200,\"results\":[]}") : observations));
+        routes.add(new Route("apininjas", "api.api-ninjas.com", "/v1/exercises", "stub-apininjas.json", StubApiServer::exercises));
+        routes.add(new Route("mymemory", "api.mymemory.translated.net", "/get", "stub-mymemory.json", uri -> utf8(
+                "{\"responseData\":{\"translatedText\":\"（翻訳）" + jsonEscape(param(uri, "q", "")) + "\",\"match\":0.9},"
+                + "\"responseStatus\":200}")));
+        routes.add(new Route("deepl", "api-free.deepl.com", "/v2/translate", "stub-deepl.json", uri -> utf8(
+                "{\"translations\":[{\"detected_source_language\":\"EN\",\"text\":\"（DeepLによる翻訳）\"}]}")));
+        routes.add(new Route("rakuten-categories", "app.rakuten.co.jp", "/services/api/Recipe/CategoryList/",
+                "stub-rakuten-categories.json", uri -> categories));
+        routes.add(new Route("rakuten-ranking", "app.rakuten.co.jp", "/services/api/Recipe/CategoryRanking/",
+                "stub-rakuten-ranking.json", StubApiServer::rakutenRanking));
+        return routes;
+    }
+
+    private static byte[] openMeteo(URI uri) {
+        String date = param(uri, "start_date", "2024-01-01");
+        return utf8("{\"latitude\":34.7,\"longitude\":135.5,\"timezone\":\"GMT\",\"daily\":{\"time\":[\"" + date + "\"],"
+                + "\"weathercode\":[3],\"temperature_2m_max\":[9.8],\"temperature_2m_min\":[2.1],\"precipitation_sum\":[0.3],"
+                + "\"windspeed_10m_max\":[14.4],\"sunshine_duration\":[25200.0]}}");
+    }
+
+    private static byte[] pokemonSpecies(URI uri) {
+        if (uri.getPath().matches("/api/v2/pokemon-species/?")) {
+            return utf8("{\"count\":1025,\"next\":\"https://pokeapi.co/api/v2/pokemon-species?offset=1&limit=1\",\"previous\":null,"
+                    + "\"results\":[{\"name\":\"bulbasaur\",\"url\":\"https://pokeapi.co/api/v2/pokemon-species/1/\"}]}");
+        }
+        String id = uri.getPath().replaceAll("\\D+", " ").trim().replaceAll(".* ", "");
+        return utf8("{\"id\":" + id + ",\"name\":\"species-" + id + "\",\"names\":["
+                + "{\"language\":{\"name\":\"ja-Hrkt\",\"url\":\"https://pokeapi.co/api/v2/language/1/\"},\"name\":\"ポケモン" + id + "\"},"
+                + "{\"language\":{\"name\":\"ja\",\"url\":\"https://pokeapi.co/api/v2/language/11/\"},\"name\":\"ポケモン" + id + "\"},"
+                + "{\"language\":{\"name\":\"en\",\"url\":\"https://pokeapi.co/api/v2/language/9/\"},\"name\":\"Pokemon" + id + "\"}]}");
+    }
+
+    private static byte[] taxa(URI uri) {
+        String q = jsonEscape(param(uri, "q", ""));
+        StringBuilder sb = new StringBuilder("{\"total_results\":10,\"page\":1,\"per_page\":10,\"results\":[");
+        for (int i = 0; i < 10; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"id\":").append(40000 + i).append(",\"name\":\"").append(q).append(" species").append(i)
+                    .append("\",\"rank\":\"species\",\"preferred_common_name\":\"").append(q).append("の仲間").append(i)
+                    .append("\",\"matched_term\":\"").append(q).append("\"}");
+        }
+        return utf8(sb.append("]}").toString());
+    }
+
+    // offset なしで10件、offset=10 で5件、それ以降は0件（全件取得がそこで止まる）
+    private static byte[] exercises(URI uri) {
+        String muscle = jsonEscape(param(uri, "muscle", "biceps"));
+        int offset = Integer.parseInt(param(uri, "offset", "0"));
+        int count = offset == 0 ? 10 : offset == 10 ? 5 : 0;
+        String[] difficulties = {"beginner", "intermediate", "expert"};
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"name\":\"").append(muscle).append(" exercise ").append(offset + i)
+                    .append("\",\"type\":\"strength\",\"muscle\":\"").append(muscle)
+                    .append("\",\"equipment\":\"dumbbell\",\"difficulty\":\"").append(difficulties[(offset + i) % 3])
+                    .append("\",\"instructions\":\"Stand up straight with a dumbbell in each hand. Slowly lift and lower the weights.\"}");
+        }
+        return utf8(sb.append(']').toString());
+    }
+
+    // 大カテゴリ30、中カテゴリ各6、小カテゴリ各8（実際の楽天レシピと同程度の規模）
+    private static byte[] rakutenCategories() {
+        StringBuilder large = new StringBuilder();
+        StringBuilder medium = new StringBuilder();
+        StringBuilder small = new StringBuilder();
+        for (int l = 10; l < 40; l++) {
+            appendCategory(large, String.valueOf(l), "大カテゴリ" + l, null, String.valueOf(l));
+            for (int m = 0; m < 6; m++) {
+                int mediumId = 100 + l * 6 + m;
+                appendCategory(medium, String.valueOf(mediumId), "中カテゴリ" + mediumId, String.valueOf(l), l + "-" + mediumId);
+                for (int s = 0; s < 8; s++) {
+                    int smallId = 1000 + (l * 6 + m) * 8 + s;
+                    appendCategory(small, String.valueOf(smallId), "小カテゴリ" + smallId, String.valueOf(mediumId),
+                            l + "-" + mediumId + "-" + smallId);
+                }
+            }
+        }
+        return utf8("{\"result\":{\"large\":[" + large + "],\"medium\":[" + medium + "],\"small\":[" + small + "]}}");
+    }
+
+    private static void appendCategory(StringBuilder sb, String id, String name, String parentId, String searchId) {
+        if (sb.length() > 0) sb.append(',');
+        sb.append("{\"categoryId\":\"").append(id).append("\",\"categoryName\":\"").append(name).append('"');
+        if (parentId != null) {
+            sb.append(",\"parentCategoryId\":\"").append(parentId).append('"');
+        }
+        sb.append(",\"categoryUrl\":\"https://recipe.rakuten.co.jp/category/").append(searchId).append("/\"}");
+    }
+
+    private static byte[] rakutenRanking(URI uri) {
+        String category = jsonEscape(param(uri, "categoryId", "10"));
+        StringBuilder sb = new StringBuilder("{\"result\":[");
+        for (int rank = 1; rank <= 4; rank++) {
+            long recipeId = 1_100_000_000L + Math.abs(category.hashCode() % 1_000_000) * 4L + rank;
+            if (rank > 1) sb.append(',');
+            sb.append("{\"recipeId\":").append(recipeId).append(",\"rank\":\"").append(rank)
+                    .append("\",\"recipeTitle\":\"カテゴリ").append(category).append("の人気レシピ").append(rank)
+                    .append("\",\"recipeDescription\":\"簡単でおいしい定番のおかずです。\",\"recipeUrl\":\"https://recipe.rakuten.co.jp/recipe/")
+                    .append(recipeId).append("/\",\"recipeIndication\":\"約15分\",\"recipeCost\":\"300円前後\"}");
+        }
+        return utf8(sb.append("]}").toString());
+    }
+
+    // クエリ文字列の値（デコード済み）。なければ defaultValue
+    private static String param(URI uri, String name, String defaultValue) {
+        String query = uri.getRawQuery();
+        if (query == null) return defaultValue;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq >= 0 ? pair.substring(0, eq) : pair;
+            if (key.equals(name)) {
+                return URLDecoder.decode(eq >= 0 ? pair.substring(eq + 1) : "", StandardCharsets.UTF_8);
+            }
+        }
+        return defaultValue;
+    }
+
+    private static String jsonEscape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 使い方: java StubApiServer [--port 8089] [--fixtures ディレクトリ] [--latency ミリ秒] [--jitter ミリ秒]
+     *                            [--error-rate 0〜1] [--error-status 503] [--drop-rate 0〜1]
+     */
+    public static void main(String[] args) {
+        try {
+            Map<String, String> options = parseOptions(args);
+            StubApiServer server = new StubApiServer(Integer.parseInt(options.getOrDefault("port", "8089")),
+                    Paths.get(options.getOrDefault("fixtures", ".")), faults(options));
+            server.start();
+            System.out.println("スタブサーバーを起動しました: " + server.baseUrl());
+            System.out.println("フィクスチャのファイルを使うAPI: " + server.fixtureNames());
+            System.out.println("クライアントは -Dpo_modify.http.redirect=" + server.baseUrl() + " を付けて起動してください。");
+            System.out.println("Ctrl+C で終了します。");
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                System.out.println("受けたリクエスト: " + server.requestCounts());
+                System.out.println("注入したエラー: " + server.injectedErrors() + ", 切断: " + server.droppedConnections()
+                        + ", 該当なし: " + server.unknownRequests());
+            }));
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("スタブサーバーを起動できませんでした: " + e.getMessage());
+        }
+    }
+
+    /**
+     * "--name value" の並びを読む（ApiLoadGenerator と共用）
+     */
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("オプションは \"--名前 値\" の形で指定してください: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    /**
+     * オプションから障害の注入を作る（ApiLoadGenerator と共用）
+     */
+    static Faults faults(Map<String, String> options) {
+        return new Faults(Duration.ofMillis(Long.parseLong(options.getOrDefault("latency", "0"))),
+                Duration.ofMillis(Long.parseLong(options.getOrDefault("jitter", "0"))),
+                Double.parseDouble(options.getOrDefault("error-rate", "0")),
+                Integer.parseInt(options.getOrDefault("error-status", "503")),
+                Double.parseDouble(options.getOrDefault("drop-rate", "0")));
+    }
+}
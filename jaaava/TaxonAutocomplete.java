@@ -0,0 +1,232 @@
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * iNaturalistの /v1/taxa/autocomplete を使った入力補完。
+ * <ul>
+ *   <li>最近の問い合わせ結果をLRUで保持し、同じ入力ではAPIを呼ばない</li>
+ *   <li>短い入力の結果が全件そろっていれば（件数が上限未満なら）、それを絞り込んで長い入力の結果にする</li>
+ *   <li>新しい問い合わせを始めると、応答待ちの古い問い合わせは取り消す</li>
+ * </ul>
+ * 入力のたびに呼ぶ前提なので、呼び出し側でキー入力の間引き（デバウンス）も行うこと。
+ */
+public class TaxonAutocomplete {
+    private static final String API_URL = "https://api.inaturalist.org/v1/taxa/autocomplete";
+    private static final int PER_PAGE = 10;
+    private static final int CACHE_ENTRIES = 128;
+
+    /**
+     * 補完候補
+     * @param id 分類ID
+     * @param name 学名
+     * @param commonName 一般名（ない場合はnull）
+     * @param matchedTerm 入力に一致した名前（別名で一致することもある。ない場合はnull）
+     */
+    public record Suggestion(long id, String name, String commonName, String matchedTerm) {
+        /** 検索欄に入れる名前（一般名があればそれ） */
+        public String searchText() {
+            return commonName != null ? commonName : name;
+        }
+
+        /** 候補一覧に表示する文字列 */
+        public String label() {
+            return commonName != null ? commonName + " (" + name + ")" : name;
+        }
+    }
+
+    // 問い合わせ結果。complete は、件数が上限未満でこの入力に一致する候補がすべて含まれていること
+    private record Entry(List<Suggestion> suggestions, boolean complete) {}
+
+    // アクセス順のLinkedHashMapでLRUを実現する（キーは正規化した入力）
+    private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<>(CACHE_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > CACHE_ENTRIES;
+        }
+    };
+    private CompletableFuture<?> inFlight;
+    // inFlight の元になっている通信（取り消すと通信も中止される）
+    private CompletableFuture<?> inFlightRequest;
+    private int requestsSent;
+    private int cacheHits;
+
+    /**
+     * 入力に対する補完候補を返す。キャッシュで答えられる場合はすでに完了したFutureを返す。
+     * 前回の問い合わせが応答待ちなら取り消す（そのFutureはCancellationExceptionで完了する）。
+     */
+    public synchronized CompletableFuture<List<Suggestion>> suggest(String input) {
+        String key = normalize(input);
+        if (inFlight != null) {
+            inFlight.cancel(true);
+            inFlightRequest.cancel(true);
+            inFlight = null;
+            inFlightRequest = null;
+        }
+        if (key.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        List<Suggestion> cached = lookup(key);
+        if (cached != null) {
+            cacheHits++;
+            return CompletableFuture.completedFuture(cached);
+        }
+        requestsSent++;
+        String url = API_URL + "?q=" + URLEncoder.encode(key, StandardCharsets.UTF_8)
+                + "&per_page=" + PER_PAGE + "&locale=" + Locale.getDefault().getLanguage();
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create(url)).GET().build();
+        CompletableFuture<HttpResponse<InputStream>> exchange =
+                SharedHttpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+        CompletableFuture<List<Suggestion>> result = exchange.thenApply(response -> {
+            try (InputStream body = response.body()) {
+                if (response.statusCode() != 200) {
+                    throw new IOException("APIエラー: " + response.statusCode());
+                }
+                List<Suggestion> suggestions = readSuggestions(body);
+                synchronized (this) {
+                    cache.put(key, new Entry(suggestions, suggestions.size() < PER_PAGE));
+                }
+                return suggestions;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+        inFlight = result;
+        inFlightRequest = exchange;
+        return result;
+    }
+
+    // 完全一致、または全件そろった短い入力の結果を絞り込んで答える
+    private List<Suggestion> lookup(String key) {
+        Entry exact = cache.get(key);
+        if (exact != null) {
+            return exact.suggestions();
+        }
+        for (int length = key.length() - 1; length > 0; length--) {
+            Entry prefix = cache.get(key.substring(0, length));
+            if (prefix == null) continue;
+            if (!prefix.complete()) return null;
+            List<Suggestion> filtered = new ArrayList<>();
+            for (Suggestion s : prefix.suggestions()) {
+                if (matches(s, key)) filtered.add(s);
+            }
+            cache.put(key, new Entry(filtered, true));
+            return filtered;
+        }
+        return null;
+    }
+
+    // APIは名前（別名を含む）の単語の先頭で一致させるので、同じ基準で絞り込む
+    private static boolean matches(Suggestion s, String key) {
+        return wordStartsWith(s.name(), key)
+                || (s.commonName() != null && wordStartsWith(s.commonName(), key))
+                || (s.matchedTerm() != null && wordStartsWith(s.matchedTerm(), key));
+    }
+
+    private static boolean wordStartsWith(String text, String key) {
+        String lower = text.toLowerCase(Locale.ROOT);
+        if (lower.startsWith(key)) return true;
+        for (int i = lower.indexOf(' '); i >= 0; i = lower.indexOf(' ', i + 1)) {
+            if (lower.startsWith(key, i + 1)) return true;
+        }
+        return false;
+    }
+
+    static String normalize(String input) {
+        return input.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /** これまでにAPIへ送った問い合わせの数 */
+    public synchronized int requestsSent() {
+        return requestsSent;
+    }
+
+    /** キャッシュで答えた問い合わせの数 */
+    public synchronized int cacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * /v1/taxa/autocomplete のレスポンスから候補を読む
+     */
+    static List<Suggestion> readSuggestions(InputStream body) throws IOException {
+        List<Suggestion> suggestions = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("results") || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    suggestions.add(readSuggestion(reader));
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        }
+        return suggestions;
+    }
+
+    private static Suggestion readSuggestion(JsonReader reader) throws IOException {
+        long id = 0;
+        String name = null;
+        String commonName = null;
+        String matchedTerm = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id" -> {
+                    if (reader.peek() == JsonToken.NUMBER) id = reader.nextLong(); else reader.skipValue();
+                }
+                case "name" -> name = nextStringOrNull(reader);
+                case "preferred_common_name" -> commonName = nextStringOrNull(reader);
+                case "matched_term" -> matchedTerm = nextStringOrNull(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new Suggestion(id, name != null ? name : "", commonName, matchedTerm);
+    }
+
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.STRING) {
+            return reader.nextString();
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    public static void main(String[] args) throws IOException {
+        TaxonAutocomplete autocomplete = new TaxonAutocomplete();
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        System.out.println("補完したい生物名の先頭を入力してください（空行で終了）:");
+        String line;
+        while ((line = in.readLine()) != null && !line.isBlank()) {
+            try {
+                for (Suggestion s : autocomplete.suggest(line).join()) {
+                    System.out.println("  " + s.label());
+                }
+            } catch (CompletionException e) {
+                System.err.println("補完候補の取得に失敗しました: " + e.getCause().getMessage());
+            }
+            System.out.println("(API " + autocomplete.requestsSent() + "回 / キャッシュ " + autocomplete.cacheHits() + "回)");
+        }
+    }
+}
@@ -0,0 +1,192 @@
+import java.io.PrintStream;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * 端末に表示する1画面分（フレーム）を StringBuilder に組み立て、まとめて1回で書き出すための小さな描画層。
+ * 1行ずつ printf すると行ごとに書き込みとフラッシュが起き、SSH 越しなどでは表示が目に見えて遅くなるため。
+ * <p>
+ * 文字の表示幅は Unicode の East Asian Width に従う（全角・広い文字=2、結合文字や制御文字=0、それ以外=1）。
+ * 基本多言語面の文字は起動時に作る表を1回引くだけで求まる。
+ * このクラスはスレッドセーフではない（メインスレッドなど1つのスレッドから使うこと）。
+ */
+public class TerminalRenderer {
+
+    // East Asian Width が W または F の範囲（開始, 終了 の組を昇順に並べたもの）
+    private static final int[] WIDE_RANGES = {
+        0x1100, 0x115F, 0x231A, 0x231B, 0x2329, 0x232A, 0x23E9, 0x23EC, 0x23F0, 0x23F0, 0x23F3, 0x23F3,
+        0x25FD, 0x25FE, 0x2614, 0x2615, 0x2648, 0x2653, 0x267F, 0x267F, 0x2693, 0x2693, 0x26A1, 0x26A1,
+        0x26AA, 0x26AB, 0x26BD, 0x26BE, 0x26C4, 0x26C5, 0x26CE, 0x26CE, 0x26D4, 0x26D4, 0x26EA, 0x26EA,
+        0x26F2, 0x26F3, 0x26F5, 0x26F5, 0x26FA, 0x26FA, 0x26FD, 0x26FD, 0x2705, 0x2705, 0x270A, 0x270B,
+        0x2728, 0x2728, 0x274C, 0x274C, 0x274E, 0x274E, 0x2753, 0x2755, 0x2757, 0x2757, 0x2795, 0x2797,
+        0x27B0, 0x27B0, 0x27BF, 0x27BF, 0x2B1B, 0x2B1C, 0x2B50, 0x2B50, 0x2B55, 0x2B55,
+        0x2E80, 0x303E, 0x3041, 0x4DBF, 0x4E00, 0xA4CF, 0xA960, 0xA97F, 0xAC00, 0xD7A3,
+        0xF900, 0xFAFF, 0xFE10, 0xFE19, 0xFE30, 0xFE6F, 0xFF00, 0xFF60, 0xFFE0, 0xFFE6,
+        0x16FE0, 0x16FE4, 0x17000, 0x18CFF, 0x1B000, 0x1B2FF, 0x1F004, 0x1F004, 0x1F0CF, 0x1F0CF,
+        0x1F18E, 0x1F18E, 0x1F191, 0x1F19A, 0x1F200, 0x1F202, 0x1F210, 0x1F23B, 0x1F240, 0x1F248,
+        0x1F250, 0x1F251, 0x1F300, 0x1F320, 0x1F32D, 0x1F335, 0x1F337, 0x1F37C, 0x1F37E, 0x1F393,
+        0x1F3A0, 0x1F3CA, 0x1F3CF, 0x1F3D3, 0x1F3E0, 0x1F3F0, 0x1F3F4, 0x1F3F4, 0x1F3F8, 0x1F43E,
+        0x1F440, 0x1F440, 0x1F442, 0x1F4FC, 0x1F4FF, 0x1F53D, 0x1F54B, 0x1F54E, 0x1F550, 0x1F567,
+        0x1F57A, 0x1F57A, 0x1F595, 0x1F596, 0x1F5A4, 0x1F5A4, 0x1F5FB, 0x1F64F, 0x1F680, 0x1F6C5,
+        0x1F6CC, 0x1F6CC, 0x1F6D0, 0x1F6D2, 0x1F6D5, 0x1F6D7, 0x1F6DC, 0x1F6DF, 0x1F6EB, 0x1F6EC,
+        0x1F6F4, 0x1F6FC, 0x1F7E0, 0x1F7EB, 0x1F7F0, 0x1F7F0, 0x1F90C, 0x1F93A, 0x1F93C, 0x1F945,
+        0x1F947, 0x1F9FF, 0x1FA70, 0x1FAFF, 0x20000, 0x2FFFD, 0x30000, 0x3FFFD,
+    };
+    // 基本多言語面の各文字の表示幅
+    private static final byte[] BMP_WIDTHS = new byte[0x10000];
+    private static final int DEFAULT_COLUMNS = 80;
+
+    static {
+        for (int c = 0; c < BMP_WIDTHS.length; c++) {
+            BMP_WIDTHS[c] = (byte) computeWidth(c);
+        }
+    }
+
+    private final PrintStream out;
+    private final StringBuilder frame = new StringBuilder(4096);
+    private final int columns;
+
+    /**
+     * @param out 書き出し先（通常は System.out）
+     */
+    public TerminalRenderer(PrintStream out) {
+        this(out, terminalColumns());
+    }
+
+    /**
+     * @param out 書き出し先
+     * @param columns 端末の幅（半角文字の数）
+     */
+    public TerminalRenderer(PrintStream out, int columns) {
+        this.out = out;
+        this.columns = Math.max(columns, 20);
+    }
+
+    // 環境変数 COLUMNS があればそれを端末の幅とする（Java からは端末の大きさを直接取れない）
+    private static int terminalColumns() {
+        try {
+            String value = System.getenv("COLUMNS");
+            return value != null ? Integer.parseInt(value.trim()) : DEFAULT_COLUMNS;
+        } catch (NumberFormatException e) {
+            return DEFAULT_COLUMNS;
+        }
+    }
+
+    private static int computeWidth(int codePoint) {
+        if (codePoint == 0) return 0;
+        if (codePoint < 0x20 || codePoint >= 0x7F && codePoint < 0xA0) return 0; // 制御文字
+        switch (Character.getType(codePoint)) {
+            case Character.NON_SPACING_MARK, Character.ENCLOSING_MARK, Character.FORMAT -> { return 0; }
+            default -> { }
+        }
+        if (codePoint >= 0x1160 && codePoint <= 0x11FF) return 0; // ハングルの中声・終声（結合する）
+        int low = 0;
+        int high = WIDE_RANGES.length / 2 - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (codePoint < WIDE_RANGES[mid * 2]) {
+                high = mid - 1;
+            } else if (codePoint > WIDE_RANGES[mid * 2 + 1]) {
+                low = mid + 1;
+            } else {
+                return 2;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * 1文字の表示幅（0, 1, 2）
+     */
+    public static int charWidth(int codePoint) {
+        return codePoint < BMP_WIDTHS.length ? BMP_WIDTHS[codePoint] : computeWidth(codePoint);
+    }
+
+    /**
+     * 文字列の表示幅
+     */
+    public static int width(CharSequence text) {
+        int width = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                width += charWidth(Character.toCodePoint(c, text.charAt(++i)));
+            } else {
+                width += charWidth(c);
+            }
+        }
+        return width;
+    }
+
+    /** 端末の幅（半角文字の数） */
+    public int columns() {
+        return columns;
+    }
+
+    /** フレームに文字列を追加する（改行しない） */
+    public TerminalRenderer text(String text) {
+        frame.append(text);
+        return this;
+    }
+
+    /** フレームに1行追加する */
+    public TerminalRenderer line(String text) {
+        frame.append(text).append('\n');
+        return this;
+    }
+
+    /** フレームに空行を追加する */
+    public TerminalRenderer line() {
+        frame.append('\n');
+        return this;
+    }
+
+    /**
+     * 番号付きの項目（"  1: 名前"）を、端末の幅に収まるだけの列に左から右へ並べてフレームに追加する
+     * @param count 項目数
+     * @param label i番目（0始まり）の項目の文字列
+     * @param width i番目の項目の表示幅（呼び出し側でキャッシュしておけば毎回数え直さずに済む）
+     */
+    public TerminalRenderer numberedGrid(int count, IntFunction<String> label, IntUnaryOperator width) {
+        if (count == 0) return this;
+        final int gap = 4; // 項目間の固定スペース
+        int numberDigits = Math.max(2, String.valueOf(count).length());
+        int maxWidth = 0;
+        for (int i = 0; i < count; i++) {
+            maxWidth = Math.max(maxWidth, width.applyAsInt(i));
+        }
+        int cellWidth = 2 + numberDigits + 2 + maxWidth; // "  " + 番号 + ": " + 名前
+        int perRow = Math.max(1, Math.min(count, (columns + gap) / (cellWidth + gap)));
+        for (int i = 0; i < count; i++) {
+            frame.append("  ");
+            appendPadded(i + 1, numberDigits);
+            frame.append(": ").append(label.apply(i));
+            // 行の最後の項目か、全項目の最後の項目でなければ、パディングを追加
+            if ((i + 1) % perRow != 0 && i < count - 1) {
+                repeat(' ', maxWidth - width.applyAsInt(i) + gap);
+            } else {
+                frame.append('\n');
+            }
+        }
+        return this;
+    }
+
+    private void appendPadded(int number, int digits) {
+        String text = String.valueOf(number);
+        repeat(' ', digits - text.length());
+        frame.append(text);
+    }
+
+    private void repeat(char c, int count) {
+        for (int i = 0; i < count; i++) frame.append(c);
+    }
+
+    /**
+     * 組み立てたフレームを1回で書き出してフラッシュし、フレームを空にする
+     */
+    public void flush() {
+        out.print(frame);
+        out.flush();
+        frame.setLength(0);
+    }
+}
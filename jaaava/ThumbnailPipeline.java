@@ -0,0 +1,350 @@
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 観察写真のサムネイルをまとめて作るパイプライン。
+ * ダウンロード → デコード → 複数サイズへの縮小 → JPEGエンコード → 書き込み の5段で、
+ * 各段の間は上限付きのキューでつなぐ（後段が詰まると前段が待つので、メモリ使用量が一定に収まる）。
+ * <ul>
+ *   <li>ダウンロードと書き込み（I/O）は多めのスレッドで行う。仮想スレッドが使えるJavaなら仮想スレッドを使う</li>
+ *   <li>デコード・縮小・エンコード（CPU）は、同時に動く数をCPUコア数までに制限する</li>
+ * </ul>
+ * 実行中は各段の処理件数・スループット・キューの長さを定期的に表示する。
+ */
+public class ThumbnailPipeline {
+
+    private static final int QUEUE_CAPACITY = 16;
+    private static final int DOWNLOAD_CONCURRENCY = 8;
+    private static final int WRITE_CONCURRENCY = 2;
+    // iNaturalistの写真URL（.../photos/123/square.jpg など）
+    private static final Pattern PHOTO_URL_PATTERN = Pattern.compile("/photos/(\\d+)/(square|small|medium|large|original)\\.(\\w+)");
+    // キューの終わりを表す印
+    private static final Object END = new Object();
+
+    // 各段の間を流れるデータ
+    private record Downloaded(String name, byte[] bytes) {}
+    private record Decoded(String name, BufferedImage image) {}
+    private record Resized(String name, int size, BufferedImage image) {}
+    private record Encoded(String fileName, byte[] bytes) {}
+
+    /**
+     * 各段の処理。次の段に渡すデータを返す
+     */
+    @FunctionalInterface
+    private interface Work {
+        List<?> process(Object item) throws Exception;
+    }
+
+    /**
+     * パイプラインの1段。入力キューから取り出して処理し、結果を次の段の入力キューに入れる。
+     */
+    private final class Stage {
+        final String name;
+        final BlockingQueue<Object> input = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong busyNanos = new AtomicLong();
+        private final int workers;
+        private final boolean cpuBound;
+        private final AtomicInteger running = new AtomicInteger();
+        private Stage next;
+        private Work work;
+
+        Stage(String name, int workers, boolean cpuBound) {
+            this.name = name;
+            this.workers = workers;
+            this.cpuBound = cpuBound;
+        }
+
+        void start(ExecutorService executor, CountDownLatch finished) {
+            running.set(workers);
+            for (int i = 0; i < workers; i++) {
+                executor.execute(() -> {
+                    try {
+                        runWorker();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        finished.countDown();
+                    }
+                });
+            }
+        }
+
+        private void runWorker() throws InterruptedException {
+            BlockingQueue<Object> output = next != null ? next.input : null;
+            while (true) {
+                Object item = input.take();
+                if (item == END) {
+                    input.put(END); // 同じ段の他のワーカーにも終わりを知らせる
+                    if (running.decrementAndGet() == 0 && output != null) {
+                        output.put(END);
+                    }
+                    return;
+                }
+                // CPU処理の枠は処理の間だけ持ち、次の段のキューが空くのを待つ間は手放す
+                // （持ったまま待つと、次の段が枠を取れずに止まってしまう）
+                List<?> results;
+                if (cpuBound) cpuPermits.acquire();
+                long start = System.nanoTime();
+                try {
+                    results = work.process(item);
+                    processed.incrementAndGet();
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    System.err.println("[" + name + "] 失敗しました: " + e.getMessage());
+                    continue;
+                } finally {
+                    busyNanos.addAndGet(System.nanoTime() - start);
+                    if (cpuBound) cpuPermits.release();
+                }
+                if (output != null) {
+                    for (Object result : results) {
+                        output.put(result);
+                    }
+                }
+            }
+        }
+    }
+
+    private final Path outputDirectory;
+    private final int[] sizes;
+    private final String sourceSize;
+    // CPU処理を同時に実行できる数（コア数）
+    private final Semaphore cpuPermits;
+    private final Stage download = new Stage("download", DOWNLOAD_CONCURRENCY, false);
+    private final Stage decode;
+    private final Stage resize;
+    private final Stage encode;
+    private final Stage write = new Stage("write", WRITE_CONCURRENCY, false);
+    private final List<Stage> stages;
+
+    /**
+     * @param outputDirectory サムネイルを書き出すディレクトリ
+     * @param sizes 作るサムネイルの長辺のピクセル数
+     */
+    public ThumbnailPipeline(Path outputDirectory, int... sizes) {
+        this.outputDirectory = outputDirectory;
+        this.sizes = sizes.clone();
+        int cores = Runtime.getRuntime().availableProcessors();
+        this.cpuPermits = new Semaphore(cores);
+        this.decode = new Stage("decode", cores, true);
+        this.resize = new Stage("resize", cores, true);
+        this.encode = new Stage("encode", cores, true);
+        // 元画像は最大のサムネイルを作れる最小のサイズで取得する
+        int largest = Arrays.stream(sizes).max().orElse(0);
+        this.sourceSize = largest <= 240 ? "small" : largest <= 500 ? "medium" : "large";
+        this.stages = List.of(download, decode, resize, encode, write);
+        download.next = decode;
+        decode.next = resize;
+        resize.next = encode;
+        encode.next = write;
+        download.work = item -> {
+            String url = (String) item;
+            return List.of(new Downloaded(baseName(url), fetch(url)));
+        };
+        decode.work = item -> {
+            Downloaded d = (Downloaded) item;
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(d.bytes()));
+            if (image == null) throw new IOException("画像のデコードに失敗しました: " + d.name());
+            return List.of(new Decoded(d.name(), image));
+        };
+        resize.work = item -> {
+            Decoded d = (Decoded) item;
+            List<Resized> resized = new ArrayList<>(this.sizes.length);
+            for (int size : this.sizes) {
+                resized.add(new Resized(d.name(), size, fitRgb(d.image(), size)));
+            }
+            return resized;
+        };
+        encode.work = item -> {
+            Resized r = (Resized) item;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 * 1024);
+            ImageIO.write(r.image(), "jpg", bytes);
+            return List.of(new Encoded(r.name() + "_" + r.size() + ".jpg", bytes.toByteArray()));
+        };
+        write.work = item -> {
+            Encoded e = (Encoded) item;
+            Path file = outputDirectory.resolve(e.fileName());
+            Path temp = Files.createTempFile(outputDirectory, "thumb", ".tmp");
+            Files.write(temp, e.bytes());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return List.of();
+        };
+    }
+
+    /**
+     * 写真URLをすべて処理し終わるまで実行する
+     * @param photoUrls 写真のURL（iNaturalistのURLなら取得するサイズに置き換える）
+     * @param reportIntervalSeconds 状況を表示する間隔（秒）。0以下なら表示しない
+     */
+    public void run(Iterator<String> photoUrls, int reportIntervalSeconds) throws IOException, InterruptedException {
+        Files.createDirectories(outputDirectory);
+        int totalWorkers = stages.stream().mapToInt(s -> s.workers).sum();
+        CountDownLatch finished = new CountDownLatch(totalWorkers);
+        ExecutorService io = SharedHttpClient.newIoExecutor("thumbnail-io");
+        ExecutorService cpu = Executors.newCachedThreadPool(r -> daemonThread(r, "thumbnail-cpu"));
+        ScheduledReporter reporter = reportIntervalSeconds > 0 ? new ScheduledReporter(reportIntervalSeconds) : null;
+        long start = System.nanoTime();
+        try {
+            for (Stage stage : stages) {
+                stage.start(stage.cpuBound ? cpu : io, finished);
+            }
+            while (photoUrls.hasNext()) {
+                download.input.put(sourceUrl(photoUrls.next()));
+            }
+            download.input.put(END);
+            finished.await();
+        } finally {
+            if (reporter != null) reporter.stop();
+            io.shutdownNow();
+            cpu.shutdownNow();
+        }
+        System.out.println(report((System.nanoTime() - start) / 1e9));
+    }
+
+    /**
+     * 各段の処理件数、スループット（件/秒）、入力キューの長さ、処理中の時間の割合を1行にまとめる
+     */
+    public String report(double elapsedSeconds) {
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : stages) {
+            long done = stage.processed.get();
+            sb.append(String.format("%s %d件 %.1f/s q=%d/%d busy=%.0f%%", stage.name, done,
+                    elapsedSeconds > 0 ? done / elapsedSeconds : 0, stage.input.size(), QUEUE_CAPACITY,
+                    elapsedSeconds > 0 ? stage.busyNanos.get() / 1e9 / elapsedSeconds / stage.workers * 100 : 0));
+            if (stage.failed.get() > 0) sb.append(" 失敗").append(stage.failed.get());
+            sb.append(stage == write ? "" : " | ");
+        }
+        return sb.toString();
+    }
+
+    // 一定間隔で状況を表示するスレッド
+    private final class ScheduledReporter {
+        private final Thread thread;
+
+        ScheduledReporter(int intervalSeconds) {
+            long start = System.nanoTime();
+            thread = daemonThread(() -> {
+                try {
+                    while (true) {
+                        TimeUnit.SECONDS.sleep(intervalSeconds);
+                        System.out.println(report((System.nanoTime() - start) / 1e9));
+                    }
+                } catch (InterruptedException e) {
+                    // 終了
+                }
+            }, "thumbnail-report");
+            thread.start();
+        }
+
+        void stop() {
+            thread.interrupt();
+        }
+    }
+
+    private byte[] fetch(String url) throws IOException, InterruptedException {
+        // 元画像は一度しか読まないので、HTTPキャッシュには入れない
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create(url)).GET().build();
+        HttpResponse<byte[]> response = SharedHttpClient.send(request, HttpResponse.BodyHandlers.ofByteArray(),
+                SharedHttpClient.CachePolicy.BYPASS);
+        if (response.statusCode() != 200) {
+            throw new IOException("画像の取得に失敗しました: " + response.statusCode() + " " + url);
+        }
+        return response.body();
+    }
+
+    // 縦横比を保って長辺を size にし、JPEGで書けるようRGBにする
+    static BufferedImage fitRgb(BufferedImage source, int size) {
+        double scale = Math.min(1.0, (double) size / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+        BufferedImage scaled = ImageCache.resample(source, width, height);
+        BufferedImage rgb = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rgb.createGraphics();
+        try {
+            g.drawImage(scaled, 0, 0, Color.WHITE, null);
+        } finally {
+            g.dispose();
+        }
+        return rgb;
+    }
+
+    private String sourceUrl(String url) {
+        Matcher m = PHOTO_URL_PATTERN.matcher(url);
+        if (!m.find()) return url;
+        return url.substring(0, m.start(2)) + sourceSize + url.substring(m.end(2));
+    }
+
+    // 出力ファイル名の元になる名前（iNaturalistの写真IDがあればそれ）
+    private static String baseName(String url) {
+        Matcher m = PHOTO_URL_PATTERN.matcher(url);
+        if (m.find()) return m.group(1);
+        return Integer.toHexString(url.hashCode());
+    }
+
+    private static Thread daemonThread(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    public static void main(String[] args) {
+        // 使い方: ThumbnailPipeline <検索語> [最大件数] [出力ディレクトリ]
+        if (args.length < 1) {
+            System.out.println("使い方: ThumbnailPipeline <検索語> [最大件数] [出力ディレクトリ]");
+            return;
+        }
+        int limit = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        Path output = Paths.get(args.length > 2 ? args[2] : "thumbnails");
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("q", args[0]);
+        params.put("photos", "true");
+        ThumbnailPipeline pipeline = new ThumbnailPipeline(output, 75, 240, 500);
+        INaturalistSearchClient client = new INaturalistSearchClient();
+        System.out.println("最大" + limit + "枚の写真のサムネイルを " + output.toAbsolutePath() + " に作ります。");
+        try (Stream<Observation> observations = client.streamObservations(params)) {
+            // 観察データのページ取得もパイプラインの入力として流しながら行う
+            pipeline.run(observations.flatMap(obs -> obs.photoUrls().stream()).limit(limit).iterator(), 1);
+        } catch (UncheckedIOException e) {
+            System.err.println("観察データの取得に失敗しました: " + e.getCause().getMessage());
+        } catch (IOException e) {
+            System.err.println("サムネイルの作成に失敗しました: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -3,7 +3,6 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import java.io.IOException;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.LocalDate;
@@ -76,7 +75,6 @@ public class WeatherAPIDemo {
     private static final String OSAKA_LAT = "34.6937"; // 大阪の緯度
     private static final String OSAKA_LON = "135.5023"; // 大阪の経度
 
-    private static final HttpClient client = HttpClient.newHttpClient();
     private static final Gson gson = new Gson();
 
     public static void main(String[] args) {
@@ -148,7 +146,7 @@ public class WeatherAPIDemo {
     /**
      * 1. WeatherAPI.com から過去または未来の天気を取得
      */
-    private static void getWeatherApiDotCom(String lat, String lon, String date) {
+    static void getWeatherApiDotCom(String lat, String lon, String date) {
         System.out.println("\n[1. WeatherAPI.com]");
         LocalDate targetDate = LocalDate.parse(date);
         LocalDate today = LocalDate.now();
@@ -216,7 +214,7 @@ public class WeatherAPIDemo {
     /**
      * 2. Open-Meteo から過去または未来の天気を取得
      */
-    private static void getOpenMeteo(String lat, String lon, String date) {
+    static void getOpenMeteo(String lat, String lon, String date) {
         System.out.println("\n[2. Open-Meteo]");
         LocalDate targetDate = LocalDate.parse(date);
         LocalDate today = LocalDate.now();
@@ -281,7 +279,7 @@ public class WeatherAPIDemo {
     /**
      * 3. Visual Crossing Weather から過去の天気を取得
      */
-    private static void getVisualCrossingWeather(String lat, String lon, String date) {
+    static void getVisualCrossingWeather(String lat, String lon, String date) {
         System.out.println("\n[3. Visual Crossing Weather]");
         String url = "https://weather.visualcrossing.com/VisualCrossingWebServices/rest/services/timeline/"
                 + lat + "," + lon + "/" + date + "?unitGroup=metric&key=" + VISUAL_CROSSING_KEY
@@ -345,7 +343,7 @@ public class WeatherAPIDemo {
     /**
      * 4. Tomorrow.io から「現在」の天気を取得
      */
-    private static void getTomorrowIoWeather(String lat, String lon) {
+    static void getTomorrowIoWeather(String lat, String lon) {
         System.out.println("\n[4. Tomorrow.io (リアルタイム)]");
         String url = "https://api.tomorrow.io/v4/weather/realtime?location=" + lat + "," + lon + "&apikey="
                 + TOMORROW_IO_KEY;
@@ -414,7 +412,7 @@ public class WeatherAPIDemo {
     private static Optional<String> fetch(String url) {
         try {
             HttpRequest req = HttpRequest.newBuilder().uri(URI.create(url)).GET().build();
-            HttpResponse<String> res = client.send(req, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> res = SharedHttpClient.send(req, HttpResponse.BodyHandlers.ofString());
             if (res.statusCode() == 200) {
                 return Optional.of(res.body());
             } else {